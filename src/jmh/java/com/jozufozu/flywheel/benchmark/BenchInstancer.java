@@ -0,0 +1,37 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.util.List;
+
+import com.jozufozu.flywheel.api.InstanceData;
+import com.jozufozu.flywheel.api.struct.StructType;
+import com.jozufozu.flywheel.backend.instancing.AbstractInstancer;
+import com.jozufozu.flywheel.core.model.Model;
+
+/**
+ * An instancer with no GL resources, exposing what the benchmarks need to drive.
+ */
+public class BenchInstancer<D extends InstanceData> extends AbstractInstancer<D> {
+
+	public BenchInstancer(StructType<D> type, Model model, boolean ordered) {
+		super(type::create, model, ordered);
+	}
+
+	public BenchInstancer(StructType<D> type, Model model) {
+		this(type, model, type.preserveInstanceOrder());
+	}
+
+	public void removeDeleted() {
+		if (anyToRemove) {
+			removeDeletedInstances();
+			anyToRemove = false;
+		}
+	}
+
+	public List<D> getData() {
+		return data;
+	}
+
+	@Override
+	public void notifyDirty() {
+	}
+}
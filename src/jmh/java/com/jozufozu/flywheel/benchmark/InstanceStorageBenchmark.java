@@ -0,0 +1,82 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.jozufozu.flywheel.util.DenseArrayMap;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+/**
+ * One frame's walk over InstanceManager's dynamic instances, the way it is stored now and the way it used to be.
+ *
+ * <p>
+ *     {@code copy} is what InstanceManager did before DenseArrayMap: the instances lived in an
+ *     {@code Object2ObjectOpenHashMap} and every frame and every tick copied its values into a new ArrayList to hand
+ *     out to the tasks. {@code dense} walks a DenseArrayMap in place. The tick walk is the same with the tickables.
+ * </p>
+ *
+ * <p>
+ *     The difference that matters is the allocation, so run with the GC profiler and compare
+ *     {@code gc.alloc.rate.norm}, the bytes allocated per frame:
+ *     {@code gradlew jmh -Pjmh.include=InstanceStorageBenchmark -Pjmh.args="-prof gc"}.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstanceStorageBenchmark {
+
+	@Param({ "10000", "50000" })
+	public int instances;
+
+	@Param({ "copy", "dense" })
+	public String storage;
+
+	private final Object2ObjectOpenHashMap<Object, Object> map = new Object2ObjectOpenHashMap<>();
+	private final DenseArrayMap<Object, Object> dense = new DenseArrayMap<>();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		for (int i = 0; i < instances; i++) {
+			Object key = new Object();
+			Object value = new Object();
+			map.put(key, value);
+			dense.put(key, value);
+		}
+	}
+
+	@Benchmark
+	public void frame(Blackhole bh) {
+		if (storage.equals("copy")) {
+			List<Object> values = new ArrayList<>(map.values());
+			for (int i = 0; i < values.size(); i++) {
+				bh.consume(values.get(i));
+			}
+		} else {
+			DenseArrayMap<Object, Object> values = dense;
+			int size = values.size();
+			for (int i = 0; i < size; i++) {
+				bh.consume(values.valueAt(i));
+			}
+		}
+	}
+}
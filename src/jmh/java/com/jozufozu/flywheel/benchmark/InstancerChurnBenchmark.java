@@ -0,0 +1,140 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jozufozu.flywheel.core.materials.oriented.OrientedData;
+import com.jozufozu.flywheel.core.materials.oriented.OrientedType;
+
+/**
+ * A steady stream of instances being deleted and created, counting what each round would send to the GPU.
+ *
+ * <p>
+ *     Each round deletes {@code churn} random instances, creates as many new ones, removes the deleted ones and then
+ *     walks the dirty instances the way GPUInstancer does, clearing them. The time is mostly noise around the
+ *     counters: {@code slots}, {@code bytes} and {@code runs} are what the upload would write and how many ranges it
+ *     would flush, summed over the iteration, and {@code rounds} is what to divide them by.
+ * </p>
+ *
+ * <p>
+ *     {@code ordered = true} is the shift-left compaction every instancer used before swap-remove, and what struct
+ *     types that preserve instance order still get. Both modes upload the {@code churn} new instances appended at the
+ *     end; everything past that is the cost of filling the holes.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstancerChurnBenchmark {
+
+	@Param({ "16384" })
+	public int instances;
+
+	/**
+	 * Instances deleted and created per round.
+	 */
+	@Param({ "1", "16", "512" })
+	public int churn;
+
+	@Param({ "false", "true" })
+	public boolean ordered;
+
+	private final OrientedType type = new OrientedType();
+	private final SyntheticModel model = new SyntheticModel(1);
+
+	private BenchInstancer<OrientedData> instancer;
+	private SplittableRandom random;
+	private int stride;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		instancer = new BenchInstancer<>(type, model, ordered);
+		random = new SplittableRandom(42);
+		stride = type.getLayout()
+				.getStride();
+
+		for (int i = 0; i < instances; i++) {
+			instancer.createInstance();
+		}
+
+		// the initial upload isn't part of the churn
+		for (OrientedData data : instancer.getData()) {
+			data.checkDirtyAndClear();
+		}
+	}
+
+	@Benchmark
+	public void churn(Uploads uploads) {
+		List<OrientedData> data = instancer.getData();
+		int size = data.size();
+
+		for (int deleted = 0; deleted < churn; ) {
+			OrientedData victim = data.get(random.nextInt(size));
+			if (!victim.isRemoved()) {
+				victim.delete();
+				deleted++;
+			}
+		}
+
+		for (int i = 0; i < churn; i++) {
+			instancer.createInstance();
+		}
+
+		instancer.removeDeleted();
+
+		// same walk as GPUInstancer.updateBuffer: contiguous dirty slots make one run
+		int slots = 0;
+		int runs = 0;
+		int end = -1;
+		for (int i = 0; i < data.size(); i++) {
+			if (data.get(i)
+					.checkDirtyAndClear()) {
+				if (i != end) {
+					runs++;
+				}
+				end = i + 1;
+				slots++;
+			}
+		}
+
+		uploads.rounds++;
+		uploads.slots += slots;
+		uploads.bytes += (long) slots * stride;
+		uploads.runs += runs;
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Uploads {
+		public long rounds;
+		public long slots;
+		public long bytes;
+		public long runs;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			rounds = 0;
+			slots = 0;
+			bytes = 0;
+			runs = 0;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jozufozu.flywheel.core.materials.oriented.OrientedData;
+import com.jozufozu.flywheel.core.materials.oriented.OrientedType;
+
+/**
+ * Removing deleted instances, with the swap-remove and order preserving strategies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstancerRemovalBenchmark {
+
+	@Param({ "16384" })
+	public int instances;
+
+	/**
+	 * Every nth instance is deleted before each invocation.
+	 */
+	@Param({ "2", "64" })
+	public int deleteEvery;
+
+	@Param({ "false", "true" })
+	public boolean ordered;
+
+	private final OrientedType type = new OrientedType();
+	private final SyntheticModel model = new SyntheticModel(1);
+
+	private BenchInstancer<OrientedData> instancer;
+
+	@Setup(Level.Invocation)
+	public void setup() {
+		instancer = new BenchInstancer<>(type, model, ordered);
+
+		for (int i = 0; i < instances; i++) {
+			instancer.createInstance();
+		}
+
+		List<OrientedData> data = instancer.getData();
+		for (int i = 0; i < instances; i += deleteEvery) {
+			data.get(i)
+					.delete();
+		}
+	}
+
+	@Benchmark
+	public int removeDeletedInstances() {
+		instancer.removeDeleted();
+		return instancer.getInstanceCount();
+	}
+}
@@ -0,0 +1,230 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jozufozu.flywheel.light.LightVolume;
+import com.jozufozu.flywheel.util.box.GridAlignedBB;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.BlockAndTintGetter;
+import net.minecraft.world.level.BlockGetter;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.ColorResolver;
+import net.minecraft.world.level.LightLayer;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.DataLayer;
+import net.minecraft.world.level.chunk.LightChunkGetter;
+import net.minecraft.world.level.lighting.LayerLightEventListener;
+import net.minecraft.world.level.lighting.LevelLightEngine;
+import net.minecraft.world.level.material.FluidState;
+
+/**
+ * Sampling light from the level into a {@link LightVolume}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LightVolumeBenchmark {
+
+	/**
+	 * The side length of the sampled cube, in blocks.
+	 */
+	@Param({ "16", "48" })
+	public int size;
+
+	/**
+	 * Whether the level reads light from its light engine, letting the volume copy whole sections, or makes up its
+	 * own, forcing the volume to ask block by block.
+	 */
+	@Param({ "true", "false" })
+	public boolean sections;
+
+	private LightVolume volume;
+	private GridAlignedBB box;
+
+	@Setup
+	public void setup() {
+		box = new GridAlignedBB(0, 0, 0, size, size, size);
+		volume = new LightVolume(sections ? new SyntheticLevel() : new PerBlockLevel(), box);
+	}
+
+	@TearDown
+	public void tearDown() {
+		volume.delete();
+	}
+
+	@Benchmark
+	public LightVolume copyLight() {
+		volume.copyLight(box);
+		return volume;
+	}
+
+	/**
+	 * A level with procedurally generated light and nothing else.
+	 */
+	private static class SyntheticLevel implements BlockAndTintGetter {
+
+		private final LevelLightEngine lightEngine = new SyntheticLightEngine(this);
+
+		@Override
+		public float getShade(Direction direction, boolean shade) {
+			return 1;
+		}
+
+		@Override
+		public LevelLightEngine getLightEngine() {
+			return lightEngine;
+		}
+
+		@Override
+		public int getBlockTint(BlockPos pos, ColorResolver resolver) {
+			return 0;
+		}
+
+		@Nullable
+		@Override
+		public BlockEntity getBlockEntity(BlockPos pos) {
+			return null;
+		}
+
+		@Override
+		public BlockState getBlockState(BlockPos pos) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FluidState getFluidState(BlockPos pos) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int getHeight() {
+			return 384;
+		}
+
+		@Override
+		public int getMinBuildHeight() {
+			return -64;
+		}
+	}
+
+	/**
+	 * The same light, but handed out block by block like a contraption level would.
+	 */
+	private static class PerBlockLevel extends SyntheticLevel {
+		@Override
+		public int getBrightness(LightLayer layer, BlockPos pos) {
+			return light(layer, pos.getX(), pos.getY(), pos.getZ());
+		}
+	}
+
+	private static int light(LightLayer layer, int x, int y, int z) {
+		int hash = x * 31 + y * 17 + z;
+		return layer == LightLayer.SKY ? (hash >> 2) & 0xF : hash & 0xF;
+	}
+
+	/**
+	 * Hands out nibble arrays filled with {@link #light}, generated the first time each section is asked for.
+	 */
+	private static class SyntheticLightEngine extends LevelLightEngine {
+		private final LayerLightEventListener blockListener = new SyntheticListener(LightLayer.BLOCK);
+		private final LayerLightEventListener skyListener = new SyntheticListener(LightLayer.SKY);
+
+		private SyntheticLightEngine(BlockGetter level) {
+			super(new LightChunkGetter() {
+				@Override
+				public BlockGetter getChunkForLighting(int chunkX, int chunkZ) {
+					return level;
+				}
+
+				@Override
+				public BlockGetter getLevel() {
+					return level;
+				}
+			}, false, false);
+		}
+
+		@Override
+		public LayerLightEventListener getLayerListener(LightLayer layer) {
+			return layer == LightLayer.BLOCK ? blockListener : skyListener;
+		}
+	}
+
+	private static class SyntheticListener implements LayerLightEventListener {
+		private final LightLayer layer;
+		private final Long2ObjectMap<DataLayer> sections = new Long2ObjectOpenHashMap<>();
+
+		private SyntheticListener(LightLayer layer) {
+			this.layer = layer;
+		}
+
+		@Override
+		public void checkBlock(BlockPos pos) {
+		}
+
+		@Override
+		public void onBlockEmissionIncrease(BlockPos pos, int emissionLevel) {
+		}
+
+		@Override
+		public boolean hasLightWork() {
+			return false;
+		}
+
+		@Override
+		public int runUpdates(int pos, boolean isQueueEmpty, boolean updateBlockLight) {
+			return pos;
+		}
+
+		@Override
+		public void updateSectionStatus(SectionPos pos, boolean isQueueEmpty) {
+		}
+
+		@Override
+		public void enableLightSources(ChunkPos pos, boolean isQueueEmpty) {
+		}
+
+		@Override
+		public DataLayer getDataLayerData(SectionPos pos) {
+			return sections.computeIfAbsent(pos.asLong(), key -> {
+				DataLayer data = new DataLayer();
+				for (int y = 0; y < 16; y++) {
+					for (int z = 0; z < 16; z++) {
+						for (int x = 0; x < 16; x++) {
+							data.set(x, y, z, light(layer, pos.minBlockX() + x, pos.minBlockY() + y, pos.minBlockZ() + z));
+						}
+					}
+				}
+				return data;
+			});
+		}
+
+		@Override
+		public int getLightValue(BlockPos pos) {
+			return light(layer, pos.getX(), pos.getY(), pos.getZ());
+		}
+	}
+}
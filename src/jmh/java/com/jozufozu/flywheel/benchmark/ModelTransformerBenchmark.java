@@ -0,0 +1,101 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jozufozu.flywheel.backend.model.DirectVertexConsumer;
+import com.jozufozu.flywheel.core.materials.model.ModelData;
+import com.jozufozu.flywheel.core.materials.model.ModelType;
+import com.jozufozu.flywheel.core.model.ModelTransformer;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.PoseStack;
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+
+/**
+ * The batching backend's per instance vertex transform.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelTransformerBenchmark {
+
+	@Param({ "1", "8" })
+	public int cubes;
+
+	@Param({ "256" })
+	public int instances;
+
+	private final ModelType type = new ModelType();
+	private final VertexFormat format = DefaultVertexFormat.NEW_ENTITY;
+	private final PoseStack stack = new PoseStack();
+	private final ModelTransformer.Params params = new ModelTransformer.Params();
+
+	private SyntheticModel model;
+	private ModelTransformer transformer;
+	private BenchInstancer<ModelData> instancer;
+	private ByteBuffer target;
+
+	@Setup
+	public void setup() {
+		model = new SyntheticModel(cubes);
+		transformer = new ModelTransformer(model);
+		// diffuse shading looks up the client's level, and there is none out here
+		transformer.context.outputColorDiffuse = false;
+		instancer = new BenchInstancer<>(type, model);
+
+		for (int i = 0; i < instances; i++) {
+			instancer.createInstance()
+					.translate(i % 16, i / 256, (i / 16) % 16)
+					.rotateY(i * 7.5);
+		}
+
+		stack.translate(-8, -1, -8);
+		target = MemoryUtil.memAlloc(format.getVertexSize() * model.vertexCount() * instances);
+	}
+
+	@TearDown
+	public void tearDown() {
+		MemoryUtil.memFree(target);
+	}
+
+	@Benchmark
+	public DirectVertexConsumer planar() {
+		DirectVertexConsumer consumer = new DirectVertexConsumer(target, format, model.vertexCount() * instances);
+		for (ModelData d : instancer.getData()) {
+			params.loadDefault();
+			type.transform(d, params);
+			transformer.renderInto(params, stack, consumer);
+		}
+		return consumer;
+	}
+
+	@Benchmark
+	public DirectVertexConsumer generic() {
+		DirectVertexConsumer consumer = new DirectVertexConsumer(target, format, model.vertexCount() * instances);
+		for (ModelData d : instancer.getData()) {
+			params.loadDefault();
+			type.transform(d, params);
+			// upcast to pick the VertexConsumer overload
+			transformer.renderInto(params, stack, (VertexConsumer) consumer);
+		}
+		return consumer;
+	}
+}
@@ -0,0 +1,93 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jozufozu.flywheel.api.struct.StructWriter;
+import com.jozufozu.flywheel.backend.gl.buffer.VecBuffer;
+import com.jozufozu.flywheel.core.materials.model.ModelData;
+import com.jozufozu.flywheel.core.materials.model.ModelType;
+import com.jozufozu.flywheel.core.materials.oriented.OrientedData;
+import com.jozufozu.flywheel.core.materials.oriented.OrientedType;
+
+/**
+ * Writing instance data into a mapped buffer, as the instancing backend does every time instances change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StructWriterBenchmark {
+
+	@Param({ "4096" })
+	public int instances;
+
+	private final ModelType modelType = new ModelType();
+	private final OrientedType orientedType = new OrientedType();
+
+	private BenchInstancer<ModelData> models;
+	private BenchInstancer<OrientedData> oriented;
+
+	private VecBuffer modelBuffer;
+	private VecBuffer orientedBuffer;
+
+	@Setup
+	public void setup() {
+		SyntheticModel model = new SyntheticModel(1);
+		models = new BenchInstancer<>(modelType, model);
+		oriented = new BenchInstancer<>(orientedType, model);
+
+		for (int i = 0; i < instances; i++) {
+			models.createInstance()
+					.translate(i, 0, 0)
+					.rotateY(i);
+			oriented.createInstance()
+					.setPosition(i, 0, 0);
+		}
+
+		// the unsafe writers need direct memory
+		modelBuffer = new VecBuffer(MemoryUtil.memAlloc(modelType.getLayout().getStride() * instances));
+		orientedBuffer = new VecBuffer(MemoryUtil.memAlloc(orientedType.getLayout().getStride() * instances));
+	}
+
+	@TearDown
+	public void tearDown() {
+		MemoryUtil.memFree(modelBuffer.unwrap());
+		MemoryUtil.memFree(orientedBuffer.unwrap());
+	}
+
+	@Benchmark
+	public VecBuffer modelWriter() {
+		modelBuffer.rewind();
+		StructWriter<ModelData> writer = modelType.getWriter(modelBuffer);
+		for (ModelData d : models.getData()) {
+			writer.write(d);
+		}
+		return modelBuffer;
+	}
+
+	@Benchmark
+	public VecBuffer orientedWriter() {
+		orientedBuffer.rewind();
+		StructWriter<OrientedData> writer = orientedType.getWriter(orientedBuffer);
+		for (OrientedData d : oriented.getData()) {
+			writer.write(d);
+		}
+		return orientedBuffer;
+	}
+}
@@ -0,0 +1,163 @@
+package com.jozufozu.flywheel.benchmark;
+
+import com.jozufozu.flywheel.api.vertex.VertexList;
+import com.jozufozu.flywheel.api.vertex.VertexType;
+import com.jozufozu.flywheel.core.Formats;
+import com.jozufozu.flywheel.core.model.Model;
+
+/**
+ * A model made of unit cubes, built without any game resources.
+ */
+public class SyntheticModel implements Model {
+
+	private final String name;
+	private final ArrayVertexList reader;
+
+	public SyntheticModel(int cubes) {
+		this.name = "synthetic_" + cubes;
+		this.reader = new ArrayVertexList(cubes * 24);
+
+		int v = 0;
+		for (int cube = 0; cube < cubes; cube++) {
+			float offset = cube * 0.0625f;
+			for (int face = 0; face < 6; face++) {
+				int axis = face >> 1;
+				float side = (face & 1) == 0 ? 0 : 1;
+				float normal = (face & 1) == 0 ? -1 : 1;
+				for (int corner = 0; corner < 4; corner++) {
+					float a = (corner == 1 || corner == 2) ? 1 : 0;
+					float b = corner >= 2 ? 1 : 0;
+
+					float[] pos = new float[3];
+					pos[axis] = side;
+					pos[(axis + 1) % 3] = a;
+					pos[(axis + 2) % 3] = b;
+
+					float[] nrm = new float[3];
+					nrm[axis] = normal;
+
+					reader.set(v++, pos[0] + offset, pos[1], pos[2], nrm[0], nrm[1], nrm[2], a, b);
+				}
+			}
+		}
+	}
+
+	@Override
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public VertexList getReader() {
+		return reader;
+	}
+
+	@Override
+	public int vertexCount() {
+		return reader.getVertexCount();
+	}
+
+	@Override
+	public VertexType getType() {
+		return Formats.BLOCK;
+	}
+
+	@Override
+	public void delete() {
+	}
+
+	private static class ArrayVertexList implements VertexList {
+		private final int vertexCount;
+		private final float[] pos;
+		private final float[] normal;
+		private final float[] uv;
+
+		private ArrayVertexList(int vertexCount) {
+			this.vertexCount = vertexCount;
+			pos = new float[vertexCount * 3];
+			normal = new float[vertexCount * 3];
+			uv = new float[vertexCount * 2];
+		}
+
+		private void set(int i, float x, float y, float z, float nx, float ny, float nz, float u, float v) {
+			pos[i * 3] = x;
+			pos[i * 3 + 1] = y;
+			pos[i * 3 + 2] = z;
+			normal[i * 3] = nx;
+			normal[i * 3 + 1] = ny;
+			normal[i * 3 + 2] = nz;
+			uv[i * 2] = u;
+			uv[i * 2 + 1] = v;
+		}
+
+		@Override
+		public float getX(int index) {
+			return pos[index * 3];
+		}
+
+		@Override
+		public float getY(int index) {
+			return pos[index * 3 + 1];
+		}
+
+		@Override
+		public float getZ(int index) {
+			return pos[index * 3 + 2];
+		}
+
+		@Override
+		public byte getR(int index) {
+			return (byte) 0xFF;
+		}
+
+		@Override
+		public byte getG(int index) {
+			return (byte) 0xFF;
+		}
+
+		@Override
+		public byte getB(int index) {
+			return (byte) 0xFF;
+		}
+
+		@Override
+		public byte getA(int index) {
+			return (byte) 0xFF;
+		}
+
+		@Override
+		public float getU(int index) {
+			return uv[index * 2];
+		}
+
+		@Override
+		public float getV(int index) {
+			return uv[index * 2 + 1];
+		}
+
+		@Override
+		public int getLight(int index) {
+			return 0;
+		}
+
+		@Override
+		public float getNX(int index) {
+			return normal[index * 3];
+		}
+
+		@Override
+		public float getNY(int index) {
+			return normal[index * 3 + 1];
+		}
+
+		@Override
+		public float getNZ(int index) {
+			return normal[index * 3 + 2];
+		}
+
+		@Override
+		public int getVertexCount() {
+			return vertexCount;
+		}
+	}
+}
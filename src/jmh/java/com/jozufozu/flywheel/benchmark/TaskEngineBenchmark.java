@@ -0,0 +1,88 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.jozufozu.flywheel.backend.instancing.ParallelTaskEngine;
+
+/**
+ * Throughput of submitting a frame's worth of small jobs to the worker pool and waiting on them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskEngineBenchmark {
+
+	@Param({ "64", "1024" })
+	public int jobs;
+
+	/**
+	 * How much work each job does, in {@link Blackhole#consumeCPU} tokens.
+	 */
+	@Param({ "0", "1000" })
+	public int work;
+
+	private ParallelTaskEngine engine;
+	private List<Runnable> batch;
+
+	@Setup
+	public void setup() {
+		engine = new ParallelTaskEngine("Benchmark");
+		engine.startWorkers();
+
+		batch = new ArrayList<>(jobs);
+		for (int i = 0; i < jobs; i++) {
+			batch.add(this::job);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		engine.stopWorkers();
+	}
+
+	private void job() {
+		Blackhole.consumeCPU(work);
+	}
+
+	@Benchmark
+	public void submitAndSync() {
+		for (int i = 0; i < jobs; i++) {
+			engine.submit(this::job);
+		}
+		engine.syncPoint();
+	}
+
+	@Benchmark
+	public void submitAllAndSync() {
+		engine.submitAll(batch);
+		engine.syncPoint();
+	}
+
+	@Benchmark
+	public void workGroupAndSync(Blackhole bh) {
+		engine.group("Benchmark")
+				.addTasks(batch.stream())
+				.onComplete(() -> bh.consume(this))
+				.submit();
+		engine.syncPoint();
+	}
+}
@@ -0,0 +1,183 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import org.lwjgl.system.MemoryUtil;
+
+import com.jozufozu.flywheel.api.Instancer;
+import com.jozufozu.flywheel.backend.instancing.batching.BatchedMaterialGroup;
+import com.jozufozu.flywheel.backend.model.DirectVertexConsumer;
+import com.jozufozu.flywheel.core.materials.model.ModelData;
+import com.jozufozu.flywheel.core.materials.model.ModelType;
+import com.jozufozu.flywheel.core.materials.oriented.OrientedData;
+import com.jozufozu.flywheel.core.materials.oriented.OrientedType;
+import com.jozufozu.flywheel.core.model.ModelTransformer;
+import com.mojang.blaze3d.vertex.PoseStack;
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Checks that transforming an instance on the batching backend allocates nothing.
+ *
+ * <p>
+ *     Each path is warmed up until the JIT has had its go, then run again while counting the bytes this thread
+ *     allocates. Everything runs on this thread, so nothing is missed. {@code ModelTransformer.renderInto} is checked
+ *     on its own with both kinds of consumer, and then through {@link BatchedMaterialGroup} and CPUInstancer, which
+ *     also covers {@code Params.multiply} through OrientedType. The pose alternates between rounds so CPUInstancer
+ *     transforms every instance instead of copying last round's vertices.
+ * </p>
+ *
+ * <p>
+ *     The instancer path allocates a task and a couple of vertex consumers per 512 instances, well under a byte per
+ *     instance, while allocating anything per instance costs at least 16 bytes. So each path is allowed less than
+ *     one byte per instance, and the check exits with 1 if any path goes over.
+ * </p>
+ *
+ * <p>
+ *     Run with {@code gradlew checkAllocations}, which applies the matrix mixins like the benchmarks do. It is part
+ *     of {@code gradlew check}, so builds fail when the transform path starts allocating.
+ * </p>
+ */
+public class TransformAllocationCheck {
+
+	private static final double BUDGET = 1;
+
+	private static final int INSTANCES = 4096;
+	private static final int WARMUP_ROUNDS = 500;
+	private static final int ROUNDS = 100;
+
+	private static final RenderType RENDER_TYPE = RenderType.entitySolid(new ResourceLocation("textures/entity/chest/normal.png"));
+
+	private static final com.sun.management.ThreadMXBean THREADS = initThreads();
+
+	private final ModelType modelType = new ModelType();
+	private final OrientedType orientedType = new OrientedType();
+	private final SyntheticModel model = new SyntheticModel(2);
+	private final VertexFormat format = RENDER_TYPE.format();
+	private final PoseStack[] stacks = { new PoseStack(), new PoseStack() };
+	private final ModelTransformer.Params params = new ModelTransformer.Params();
+
+	private final ModelTransformer transformer = new ModelTransformer(model);
+	private final BenchInstancer<ModelData> instancer = new BenchInstancer<>(modelType, model);
+	private final BatchedMaterialGroup group = new BatchedMaterialGroup(RENDER_TYPE);
+
+	private final ByteBuffer target;
+
+	private TransformAllocationCheck() {
+		// diffuse shading looks up the client's level, and there is none out here
+		transformer.context.outputColorDiffuse = false;
+
+		stacks[0].translate(-8, -1, -8);
+		stacks[1].translate(-8, -2, -8);
+
+		for (int i = 0; i < INSTANCES; i++) {
+			instancer.createInstance()
+					.translate(i % 16, i / 256, (i / 16) % 16)
+					.rotateY(i * 7.5);
+		}
+
+		Instancer<ModelData> models = group.material(modelType)
+				.model("models", () -> model);
+		Instancer<OrientedData> oriented = group.material(orientedType)
+				.model("oriented", () -> model);
+		for (int i = 0; i < INSTANCES / 2; i++) {
+			models.createInstance()
+					.translate(i % 16, i / 256, (i / 16) % 16);
+			oriented.createInstance()
+					.setPosition(i % 16, i / 256, (i / 16) % 16)
+					.setRotation(0, 0.38268343f, 0, 0.9238795f);
+		}
+
+		target = MemoryUtil.memAlloc(format.getVertexSize() * model.vertexCount() * INSTANCES);
+	}
+
+	private void direct(int round) {
+		PoseStack stack = stacks[round & 1];
+		DirectVertexConsumer consumer = new DirectVertexConsumer(target, format, model.vertexCount() * INSTANCES);
+		for (ModelData d : instancer.getData()) {
+			params.loadDefault();
+			modelType.transform(d, params);
+			transformer.renderInto(params, stack, consumer);
+		}
+	}
+
+	private void generic(int round) {
+		PoseStack stack = stacks[round & 1];
+		DirectVertexConsumer consumer = new DirectVertexConsumer(target, format, model.vertexCount() * INSTANCES);
+		for (ModelData d : instancer.getData()) {
+			params.loadDefault();
+			modelType.transform(d, params);
+			// upcast to pick the VertexConsumer overload
+			transformer.renderInto(params, stack, (VertexConsumer) consumer);
+		}
+	}
+
+	private void instancers(int round) {
+		PoseStack stack = stacks[round & 1];
+		for (Runnable task : group.prepare(stack, vertices -> new DirectVertexConsumer(target, format, vertices))) {
+			task.run();
+		}
+	}
+
+	/**
+	 * @return {@code true} if the path stayed within budget.
+	 */
+	private boolean check(String name, Path path) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			path.round(i);
+		}
+
+		long start = THREADS.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < ROUNDS; i++) {
+			path.round(i);
+		}
+		long allocated = THREADS.getCurrentThreadAllocatedBytes() - start;
+
+		double perInstance = allocated / (double) ((long) ROUNDS * INSTANCES);
+		boolean ok = perInstance < BUDGET;
+		System.out.printf(Locale.ROOT, "%-24s %12d bytes %10.3f B/instance %s%n", name, allocated, perInstance, ok ? "ok" : "OVER BUDGET");
+		return ok;
+	}
+
+	private void delete() {
+		group.delete();
+		MemoryUtil.memFree(target);
+	}
+
+	private static com.sun.management.ThreadMXBean initThreads() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean sun && sun.isThreadAllocatedMemorySupported()) {
+			sun.setThreadAllocatedMemoryEnabled(true);
+			return sun;
+		}
+		return null;
+	}
+
+	@FunctionalInterface
+	private interface Path {
+		void round(int round);
+	}
+
+	public static void main(String[] args) {
+		if (THREADS == null) {
+			System.out.println("This JVM can't count allocated bytes per thread");
+			System.exit(1);
+		}
+
+		TransformAllocationCheck check = new TransformAllocationCheck();
+
+		boolean ok = check.check("renderInto, direct", check::direct);
+		ok &= check.check("renderInto, generic", check::generic);
+		ok &= check.check("CPUInstancer", check::instancers);
+
+		check.delete();
+
+		System.exit(ok ? 0 : 1);
+	}
+}
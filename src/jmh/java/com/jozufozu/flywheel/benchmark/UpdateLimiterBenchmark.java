@@ -0,0 +1,53 @@
+package com.jozufozu.flywheel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jozufozu.flywheel.backend.instancing.ratelimit.BandedPrimeLimiter;
+
+/**
+ * The distance based update limiter, asked once per dynamic instance per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateLimiterBenchmark {
+
+	private static final int RADIUS = 64;
+
+	private final BandedPrimeLimiter limiter = new BandedPrimeLimiter();
+
+	@Setup
+	public void setup() {
+		limiter.tick();
+	}
+
+	@Benchmark
+	public int shouldUpdate() {
+		int updates = 0;
+		for (int x = -RADIUS; x < RADIUS; x += 4) {
+			for (int y = -16; y < 16; y += 4) {
+				for (int z = -RADIUS; z < RADIUS; z += 4) {
+					if (limiter.shouldUpdate(x, y, z)) {
+						updates++;
+					}
+				}
+			}
+		}
+		limiter.tick();
+		return updates;
+	}
+}
@@ -0,0 +1,173 @@
+package com.jozufozu.flywheel.benchmark.agent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Applies a handful of mixins to the benchmark JVM, so benchmarks run the same code as the game.
+ *
+ * <p>
+ *     This is not Mixin. It only handles mixins that add interfaces and methods and shadow fields, which is all the
+ *     matrix mixins do, and fails loudly on anything else. Dev names are used on both sides, so there is nothing to
+ *     remap beyond the mixin class itself.
+ * </p>
+ *
+ * <p>
+ *     The jmh and simulate tasks load this with {@code -javaagent}, and JMH passes it on to the forked VMs.
+ * </p>
+ */
+public final class MixinAgent {
+
+	private static final String MIXIN = "Lorg/spongepowered/asm/mixin/Mixin;";
+	private static final String SHADOW = "Lorg/spongepowered/asm/mixin/Shadow;";
+	private static final String MIXIN_PACKAGE = "Lorg/spongepowered/";
+
+	private static final List<String> MIXINS = List.of(
+			"com/jozufozu/flywheel/mixin/matrix/Matrix3fMixin",
+			"com/jozufozu/flywheel/mixin/matrix/Matrix4fMixin",
+			"com/jozufozu/flywheel/mixin/matrix/PoseStackMixin");
+
+	private MixinAgent() {
+	}
+
+	public static void premain(String args, Instrumentation instrumentation) {
+		ClassLoader loader = MixinAgent.class.getClassLoader();
+
+		Map<String, ClassNode> byTarget = new HashMap<>();
+		for (String name : MIXINS) {
+			ClassNode mixin = readMixin(loader, name);
+			byTarget.put(targetOf(mixin), mixin);
+		}
+
+		instrumentation.addTransformer(new Transformer(byTarget));
+	}
+
+	private static ClassNode readMixin(ClassLoader loader, String name) {
+		try (InputStream in = loader.getResourceAsStream(name + ".class")) {
+			if (in == null) {
+				throw new IllegalStateException("Missing mixin class " + name);
+			}
+
+			ClassNode node = new ClassNode();
+			new ClassReader(in).accept(node, 0);
+			return node;
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read mixin class " + name, e);
+		}
+	}
+
+	private static String targetOf(ClassNode mixin) {
+		AnnotationNode annotation = find(mixin.invisibleAnnotations, MIXIN);
+		if (annotation == null || annotation.values == null) {
+			throw new IllegalStateException(mixin.name + " is not a mixin");
+		}
+
+		for (int i = 0; i < annotation.values.size(); i += 2) {
+			if ("value".equals(annotation.values.get(i)) && annotation.values.get(i + 1) instanceof List<?> targets && targets.size() == 1) {
+				return ((Type) targets.get(0)).getInternalName();
+			}
+		}
+
+		throw new IllegalStateException(mixin.name + " must target exactly one class");
+	}
+
+	private static AnnotationNode find(List<AnnotationNode> annotations, String desc) {
+		if (annotations != null) {
+			for (AnnotationNode annotation : annotations) {
+				if (annotation.desc.equals(desc)) {
+					return annotation;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean hasMixinAnnotation(List<AnnotationNode> visible, List<AnnotationNode> invisible) {
+		return hasMixinAnnotation(visible) || hasMixinAnnotation(invisible);
+	}
+
+	private static boolean hasMixinAnnotation(List<AnnotationNode> annotations) {
+		if (annotations != null) {
+			for (AnnotationNode annotation : annotations) {
+				if (annotation.desc.startsWith(MIXIN_PACKAGE)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static byte[] apply(byte[] classfile, String targetName, ClassNode mixin) {
+		ClassNode target = new ClassNode();
+		new ClassReader(classfile).accept(target, 0);
+
+		for (String itf : mixin.interfaces) {
+			if (!target.interfaces.contains(itf)) {
+				target.interfaces.add(itf);
+			}
+		}
+
+		for (FieldNode field : mixin.fields) {
+			if (find(field.visibleAnnotations, SHADOW) == null && find(field.invisibleAnnotations, SHADOW) == null) {
+				throw new UnsupportedOperationException(mixin.name + "." + field.name + " is not a shadow");
+			}
+		}
+
+		// references to the mixin class become references to the target
+		ClassNode remapped = new ClassNode();
+		mixin.accept(new ClassRemapper(remapped, new SimpleRemapper(mixin.name, targetName)));
+
+		for (MethodNode method : remapped.methods) {
+			if (method.name.equals("<init>")) continue;
+			if (find(method.visibleAnnotations, SHADOW) != null || find(method.invisibleAnnotations, SHADOW) != null) continue;
+
+			if (method.name.equals("<clinit>") || hasMixinAnnotation(method.visibleAnnotations, method.invisibleAnnotations)) {
+				throw new UnsupportedOperationException(mixin.name + "." + method.name + " does more than add a method");
+			}
+
+			target.methods.add(method);
+		}
+
+		// the copied methods keep their frames, and nothing else changed, so only the maxes need a look
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		target.accept(writer);
+		return writer.toByteArray();
+	}
+
+	private record Transformer(Map<String, ClassNode> byTarget) implements ClassFileTransformer {
+
+		@Override
+		public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+			ClassNode mixin = byTarget.get(className);
+			if (mixin == null) {
+				return null;
+			}
+
+			try {
+				return apply(classfileBuffer, className, mixin);
+			} catch (Throwable t) {
+				// the JVM swallows anything thrown from here, and running the benchmarks unmixed would be misleading
+				t.printStackTrace();
+				Runtime.getRuntime()
+						.halt(1);
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.jozufozu.flywheel.benchmark.simulation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Wall time and allocated bytes of one phase of the frame, recorded once per frame it runs in.
+ */
+public class PhaseStats {
+
+	private static final com.sun.management.ThreadMXBean THREADS = initThreads();
+
+	public final String name;
+
+	private long[] nanos = new long[256];
+	private long[] bytes = new long[256];
+	private int samples;
+
+	private long startNanos;
+	private long startBytes;
+
+	public PhaseStats(String name) {
+		this.name = name;
+	}
+
+	public void begin() {
+		startBytes = allocatedBytes();
+		startNanos = System.nanoTime();
+	}
+
+	public void end() {
+		long elapsed = System.nanoTime() - startNanos;
+		long allocated = allocatedBytes() - startBytes;
+
+		if (samples == nanos.length) {
+			nanos = Arrays.copyOf(nanos, samples * 2);
+			bytes = Arrays.copyOf(bytes, samples * 2);
+		}
+		nanos[samples] = elapsed;
+		bytes[samples] = allocated;
+		samples++;
+	}
+
+	public void reset() {
+		samples = 0;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public double meanMillis() {
+		return samples == 0 ? 0 : sum(nanos) / (double) samples / 1e6;
+	}
+
+	/**
+	 * @param p The percentile, between 0 and 100.
+	 */
+	public double percentileMillis(double p) {
+		if (samples == 0) return 0;
+
+		long[] sorted = Arrays.copyOf(nanos, samples);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(p / 100 * samples) - 1;
+		return sorted[Math.max(0, Math.min(index, samples - 1))] / 1e6;
+	}
+
+	public double meanAllocatedKiB() {
+		return samples == 0 ? 0 : sum(bytes) / (double) samples / 1024;
+	}
+
+	private long sum(long[] values) {
+		long sum = 0;
+		for (int i = 0; i < samples; i++) {
+			sum += values[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Bytes allocated by every live thread so far, so work done on the task engine's workers is counted too.
+	 * Threads that died in between are missed, which is fine since the workers live for the whole run.
+	 */
+	private static long allocatedBytes() {
+		if (THREADS == null) return 0;
+
+		long total = 0;
+		for (long allocated : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+			// -1 for threads that died since we got their ids
+			if (allocated > 0) total += allocated;
+		}
+		return total;
+	}
+
+	private static com.sun.management.ThreadMXBean initThreads() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean sun && sun.isThreadAllocatedMemorySupported()) {
+			sun.setThreadAllocatedMemoryEnabled(true);
+			return sun;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,202 @@
+package com.jozufozu.flywheel.benchmark.simulation;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.jozufozu.flywheel.backend.instancing.ParallelTaskEngine;
+import com.jozufozu.flywheel.backend.instancing.SerialTaskEngine;
+import com.jozufozu.flywheel.backend.instancing.TaskEngine;
+
+/**
+ * Runs Flywheel's CPU side frame pipeline over a scripted scene, with no game client, window or GL context.
+ *
+ * <p>
+ *     Objects are added, updated and removed through a real {@link com.jozufozu.flywheel.backend.instancing.InstanceManager},
+ *     which ticks and begins frames on its instances, and the batching backend's transform phase writes every
+ *     instance's vertices. Only the final draw is skipped. Each phase's wall time and allocations are reported at the
+ *     end.
+ * </p>
+ *
+ * <p>
+ *     Run with {@code gradlew simulate}, passing options as {@code -Psimulate.args="chests=10000 minecarts=2000"}.
+ *     Options are:
+ * </p>
+ * <ul>
+ *     <li>{@code chests}, {@code minecarts}: how many of each to place.</li>
+ *     <li>{@code frames}, {@code warmup}: how many frames to measure, after how many unmeasured ones.</li>
+ *     <li>{@code churn}: fraction of objects removed and replaced per tick.</li>
+ *     <li>{@code toggles}: fraction of chests opened or closed per tick.</li>
+ *     <li>{@code engine}: {@code parallel} or {@code serial}.</li>
+ *     <li>{@code seed}: seed for the scene's randomness.</li>
+ *     <li>{@code csv}: a file to also write the results to.</li>
+ *     <li>{@code budget}: if the 95th percentile frame takes longer than this many milliseconds, exit with 1.</li>
+ * </ul>
+ */
+public class RenderPathSimulator {
+
+	private static final int FRAMES_PER_TICK = 3;
+
+	private final SimulatedScene scene;
+	private final SimulatedMaterialManager materialManager = new SimulatedMaterialManager();
+	private final SimulatedInstanceManager instanceManager = new SimulatedInstanceManager(materialManager);
+	private final SimulatedCamera camera = new SimulatedCamera();
+	private final TaskEngine taskEngine;
+
+	private final PhaseStats scenePhase = new PhaseStats("scene");
+	private final PhaseStats tickPhase = new PhaseStats("tick");
+	private final PhaseStats beginFramePhase = new PhaseStats("beginFrame");
+	private final PhaseStats transformPhase = new PhaseStats("transform");
+	private final PhaseStats framePhase = new PhaseStats("frame");
+	private final List<PhaseStats> phases = List.of(scenePhase, tickPhase, beginFramePhase, transformPhase, framePhase);
+
+	private int frame;
+
+	public RenderPathSimulator(SimulatedScene scene, TaskEngine taskEngine) {
+		this.scene = scene;
+		this.taskEngine = taskEngine;
+	}
+
+	public void run(int warmup, int frames) {
+		scene.addAll(instanceManager);
+
+		for (int i = 0; i < warmup; i++) {
+			frame();
+		}
+
+		phases.forEach(PhaseStats::reset);
+
+		for (int i = 0; i < frames; i++) {
+			frame();
+		}
+	}
+
+	private void frame() {
+		framePhase.begin();
+
+		if (frame % FRAMES_PER_TICK == 0) {
+			scenePhase.begin();
+			scene.tick(instanceManager);
+			scenePhase.end();
+
+			tickPhase.begin();
+			instanceManager.tick(taskEngine, camera.getPosition().x, camera.getPosition().y, camera.getPosition().z);
+			taskEngine.syncPoint();
+			tickPhase.end();
+		}
+
+		scene.setPartialTicks((frame % FRAMES_PER_TICK) / (float) FRAMES_PER_TICK);
+		moveCamera();
+
+		beginFramePhase.begin();
+		instanceManager.beginFrame(taskEngine, camera);
+		taskEngine.syncPoint();
+		beginFramePhase.end();
+
+		transformPhase.begin();
+		materialManager.transform(taskEngine);
+		transformPhase.end();
+
+		framePhase.end();
+		frame++;
+	}
+
+	/**
+	 * Slowly circle the scene, looking at its centre, so distance based update limiting sees a moving camera.
+	 */
+	private void moveCamera() {
+		double angle = frame * 0.002;
+		double distance = scene.getRadius() * 0.75;
+		double x = Math.sin(angle) * distance;
+		double z = Math.cos(angle) * distance;
+		float yRot = (float) Math.toDegrees(Math.atan2(x, -z));
+		camera.moveTo(x, 80, z, yRot, 20);
+	}
+
+	public void report(PrintStream out) {
+		out.printf(Locale.ROOT, "%d objects, %d instances, %d vertices%n", instanceManager.getObjectCount(), materialManager.getInstanceCount(), materialManager.getVertexCount());
+		out.printf(Locale.ROOT, "%-12s %8s %9s %9s %9s %9s %9s %12s%n", "phase", "samples", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms", "alloc KiB");
+		for (PhaseStats phase : phases) {
+			out.printf(Locale.ROOT, "%-12s %8d %9.3f %9.3f %9.3f %9.3f %9.3f %12.1f%n", phase.name, phase.getSamples(), phase.meanMillis(), phase.percentileMillis(50), phase.percentileMillis(95), phase.percentileMillis(99), phase.percentileMillis(100), phase.meanAllocatedKiB());
+		}
+	}
+
+	public void writeCsv(Path path) throws IOException {
+		StringBuilder csv = new StringBuilder("phase,samples,mean_ms,p50_ms,p95_ms,p99_ms,max_ms,alloc_kib\n");
+		for (PhaseStats phase : phases) {
+			csv.append(String.format(Locale.ROOT, "%s,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.2f%n", phase.name, phase.getSamples(), phase.meanMillis(), phase.percentileMillis(50), phase.percentileMillis(95), phase.percentileMillis(99), phase.percentileMillis(100), phase.meanAllocatedKiB()));
+		}
+		Files.writeString(path, csv);
+	}
+
+	public double getFrameP95Millis() {
+		return framePhase.percentileMillis(95);
+	}
+
+	public void delete() {
+		instanceManager.invalidate();
+		materialManager.delete();
+	}
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("Expected key=value, got '" + arg + "'");
+			}
+			options.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+
+		int chests = Integer.parseInt(options.getOrDefault("chests", "10000"));
+		int minecarts = Integer.parseInt(options.getOrDefault("minecarts", "2000"));
+		int frames = Integer.parseInt(options.getOrDefault("frames", "1200"));
+		int warmup = Integer.parseInt(options.getOrDefault("warmup", "300"));
+		double churn = Double.parseDouble(options.getOrDefault("churn", "0.002"));
+		double toggles = Double.parseDouble(options.getOrDefault("toggles", "0.01"));
+		long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+		boolean parallel = !"serial".equals(options.getOrDefault("engine", "parallel"));
+
+		TaskEngine taskEngine;
+		if (parallel) {
+			ParallelTaskEngine engine = new ParallelTaskEngine("Simulator");
+			engine.startWorkers();
+			taskEngine = engine;
+		} else {
+			taskEngine = SerialTaskEngine.INSTANCE;
+		}
+
+		SimulatedScene scene = new SimulatedScene(chests, minecarts, churn, toggles, seed);
+		RenderPathSimulator simulator = new RenderPathSimulator(scene, taskEngine);
+
+		simulator.run(warmup, frames);
+		simulator.report(System.out);
+
+		if (options.containsKey("csv")) {
+			simulator.writeCsv(Path.of(options.get("csv")));
+		}
+
+		int status = 0;
+		if (options.containsKey("budget")) {
+			double budget = Double.parseDouble(options.get("budget"));
+			double p95 = simulator.getFrameP95Millis();
+			if (p95 > budget) {
+				System.out.printf(Locale.ROOT, "95th percentile frame took %.3f ms, over the budget of %.3f ms%n", p95, budget);
+				status = 1;
+			}
+		}
+
+		simulator.delete();
+		if (taskEngine instanceof ParallelTaskEngine engine) {
+			engine.stopWorkers();
+		}
+
+		// the light updater's global task engine is never stopped
+		System.exit(status);
+	}
+}
@@ -0,0 +1,14 @@
+package com.jozufozu.flywheel.benchmark.simulation;
+
+import net.minecraft.client.Camera;
+
+/**
+ * A camera that can be moved without an entity to follow.
+ */
+public class SimulatedCamera extends Camera {
+
+	public void moveTo(double x, double y, double z, float yRot, float xRot) {
+		setPosition(x, y, z);
+		setRotation(yRot, xRot);
+	}
+}
@@ -0,0 +1,98 @@
+package com.jozufozu.flywheel.benchmark.simulation;
+
+import com.jozufozu.flywheel.api.Material;
+import com.jozufozu.flywheel.api.MaterialManager;
+import com.jozufozu.flywheel.api.instance.DynamicInstance;
+import com.jozufozu.flywheel.backend.instancing.AbstractInstance;
+import com.jozufozu.flywheel.benchmark.SyntheticModel;
+import com.jozufozu.flywheel.core.materials.model.ModelData;
+
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * A chest: static, except for the lid swinging open and shut now and then.
+ */
+public class SimulatedChest extends SimulatedObject {
+
+	private static final RenderType RENDER_TYPE = RenderType.entitySolid(new ResourceLocation("textures/entity/chest/normal.png"));
+	private static final SyntheticModel BASE = new SyntheticModel(1);
+	private static final SyntheticModel LID = new SyntheticModel(2);
+
+	/**
+	 * Written by the scene on the main thread, read by the instance in beginFrame.
+	 */
+	volatile boolean open;
+
+	public SimulatedChest(SimulatedScene scene, BlockPos blockPos) {
+		super(scene, blockPos);
+	}
+
+	@Override
+	public AbstractInstance createInstance(MaterialManager materialManager) {
+		return new Instance(materialManager, this);
+	}
+
+	private static class Instance extends AbstractInstance implements DynamicInstance {
+
+		private final SimulatedChest chest;
+
+		private ModelData base;
+		private ModelData lid;
+		private float lidProgress = -1;
+
+		private Instance(MaterialManager materialManager, SimulatedChest chest) {
+			super(materialManager, null);
+			this.chest = chest;
+		}
+
+		@Override
+		public void init() {
+			Material<ModelData> material = materialManager.solid(RENDER_TYPE)
+					.material(SimulatedMaterialManager.TRANSFORMED);
+
+			base = material.model("chest_base", () -> BASE)
+					.createInstance();
+			lid = material.model("chest_lid", () -> LID)
+					.createInstance();
+
+			base.loadIdentity()
+					.translate(chest.blockPos);
+		}
+
+		@Override
+		public void beginFrame() {
+			float target = chest.open ? 1 : 0;
+			if (lidProgress == target) return;
+
+			lidProgress = lidProgress < 0 ? target : approach(lidProgress, target, 0.1f);
+
+			lid.loadIdentity()
+					.translate(chest.blockPos)
+					.translate(0, 0.5625, 0.0625)
+					.rotateX(-90 * lidProgress)
+					.translateBack(0, 0.5625, 0.0625);
+		}
+
+		private static float approach(float from, float to, float step) {
+			return from < to ? Math.min(from + step, to) : Math.max(from - step, to);
+		}
+
+		@Override
+		public void updateLight() {
+			relight(15, 15, base, lid);
+		}
+
+		@Override
+		protected void remove() {
+			base.delete();
+			lid.delete();
+		}
+
+		@Override
+		public BlockPos getWorldPosition() {
+			return chest.blockPos;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.jozufozu.flywheel.benchmark.simulation;
+
+import javax.annotation.Nullable;
+
+import com.jozufozu.flywheel.api.MaterialManager;
+import com.jozufozu.flywheel.backend.instancing.AbstractInstance;
+import com.jozufozu.flywheel.backend.instancing.InstanceManager;
+import com.jozufozu.flywheel.backend.instancing.ratelimit.BandedPrimeLimiter;
+import com.jozufozu.flywheel.backend.instancing.ratelimit.DistanceUpdateLimiter;
+
+public class SimulatedInstanceManager extends InstanceManager<SimulatedObject> {
+
+	public SimulatedInstanceManager(MaterialManager materialManager) {
+		super(materialManager);
+	}
+
+	@Override
+	protected DistanceUpdateLimiter createUpdateLimiter() {
+		// the default reads the config, which isn't loaded here
+		return new BandedPrimeLimiter();
+	}
+
+	@Override
+	protected boolean canInstance(SimulatedObject obj) {
+		return true;
+	}
+
+	@Override
+	protected boolean canCreateInstance(SimulatedObject obj) {
+		return true;
+	}
+
+	@Nullable
+	@Override
+	protected AbstractInstance createRaw(SimulatedObject obj) {
+		return obj.createInstance(materialManager);
+	}
+}
@@ -0,0 +1,108 @@
+package com.jozufozu.flywheel.benchmark.simulation;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.system.MemoryUtil;
+
+import com.jozufozu.flywheel.api.MaterialGroup;
+import com.jozufozu.flywheel.api.MaterialManager;
+import com.jozufozu.flywheel.backend.RenderLayer;
+import com.jozufozu.flywheel.backend.instancing.TaskEngine;
+import com.jozufozu.flywheel.backend.instancing.batching.BatchedMaterialGroup;
+import com.jozufozu.flywheel.backend.instancing.batching.BatchingEngine;
+import com.jozufozu.flywheel.backend.model.DirectVertexConsumer;
+import com.jozufozu.flywheel.core.materials.model.ModelData;
+import com.jozufozu.flywheel.core.materials.model.ModelType;
+import com.jozufozu.flywheel.core.materials.oriented.OrientedData;
+import com.jozufozu.flywheel.core.materials.oriented.OrientedType;
+import com.mojang.blaze3d.vertex.PoseStack;
+import com.mojang.blaze3d.vertex.VertexFormat;
+
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Vec3i;
+
+/**
+ * The batching backend with the GL half cut off.
+ *
+ * <p>
+ *     Instances land in real {@link BatchedMaterialGroup}s and are transformed by the same tasks
+ *     {@link BatchingEngine} runs, but the vertices are written to plain off-heap buffers and never drawn.
+ * </p>
+ */
+public class SimulatedMaterialManager implements MaterialManager {
+
+	// Materials' constants would pull in the mod class, so keep our own. Groups key materials by type instance.
+	public static final ModelType TRANSFORMED = new ModelType();
+	public static final OrientedType ORIENTED = new OrientedType();
+
+	private final Map<RenderType, BatchedMaterialGroup> groups = new HashMap<>();
+	private final Map<RenderType, ByteBuffer> buffers = new HashMap<>();
+	private final PoseStack originStack = new PoseStack();
+
+	@Override
+	public MaterialGroup state(RenderLayer layer, RenderType state) {
+		return groups.computeIfAbsent(state, BatchedMaterialGroup::new);
+	}
+
+	@Override
+	public Vec3i getOriginCoordinate() {
+		return BlockPos.ZERO;
+	}
+
+	/**
+	 * Write every instance's vertices, the way {@link BatchingEngine#render} does before drawing.
+	 */
+	public void transform(TaskEngine taskEngine) {
+		for (BatchedMaterialGroup group : groups.values()) {
+			RenderType type = group.getRenderType();
+			List<Runnable> tasks = group.prepare(originStack, vertices -> begin(type, vertices));
+			taskEngine.submitAll(tasks);
+		}
+
+		taskEngine.syncPoint();
+	}
+
+	private DirectVertexConsumer begin(RenderType type, int vertexCount) {
+		VertexFormat format = type.format();
+		int byteSize = Math.max(format.getVertexSize() * vertexCount, 1);
+
+		ByteBuffer buffer = buffers.get(type);
+		if (buffer == null) {
+			buffer = MemoryUtil.memAlloc(byteSize);
+			buffers.put(type, buffer);
+		} else if (byteSize > buffer.capacity()) {
+			buffer = MemoryUtil.memRealloc(buffer, byteSize);
+			buffers.put(type, buffer);
+		}
+
+		return new DirectVertexConsumer(buffer, format, vertexCount);
+	}
+
+	public int getInstanceCount() {
+		return groups.values()
+				.stream()
+				.mapToInt(BatchedMaterialGroup::getInstanceCount)
+				.sum();
+	}
+
+	public int getVertexCount() {
+		return groups.values()
+				.stream()
+				.mapToInt(BatchedMaterialGroup::getVertexCount)
+				.sum();
+	}
+
+	public void delete() {
+		groups.values()
+				.forEach(BatchedMaterialGroup::delete);
+		groups.clear();
+
+		buffers.values()
+				.forEach(MemoryUtil::memFree);
+		buffers.clear();
+	}
+}
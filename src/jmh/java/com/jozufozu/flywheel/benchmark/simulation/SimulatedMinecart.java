@@ -0,0 +1,115 @@
+package com.jozufozu.flywheel.benchmark.simulation;
+
+import com.jozufozu.flywheel.api.MaterialManager;
+import com.jozufozu.flywheel.api.instance.DynamicInstance;
+import com.jozufozu.flywheel.api.instance.TickableInstance;
+import com.jozufozu.flywheel.backend.instancing.AbstractInstance;
+import com.jozufozu.flywheel.benchmark.SyntheticModel;
+import com.jozufozu.flywheel.core.materials.oriented.OrientedData;
+import com.mojang.math.Vector3f;
+
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.Mth;
+
+/**
+ * A minecart rolling back and forth along the x axis, so its instance moves every frame.
+ */
+public class SimulatedMinecart extends SimulatedObject {
+
+	private static final RenderType RENDER_TYPE = RenderType.entitySolid(new ResourceLocation("textures/entity/minecart.png"));
+	private static final SyntheticModel BODY = new SyntheticModel(6);
+
+	private final double minX;
+	private final double maxX;
+	private final double y;
+	private final double z;
+
+	private double x;
+	private double xOld;
+	private double speed;
+
+	public SimulatedMinecart(SimulatedScene scene, double x, double y, double z, double range, double speed) {
+		super(scene, new BlockPos(x, y, z));
+		this.minX = x - range;
+		this.maxX = x + range;
+		this.x = this.xOld = x;
+		this.y = y;
+		this.z = z;
+		this.speed = speed;
+	}
+
+	@Override
+	public void tick() {
+		xOld = x;
+		x += speed;
+		if (x < minX || x > maxX) {
+			speed = -speed;
+			x = Mth.clamp(x, minX, maxX);
+		}
+
+		int blockX = Mth.floor(x);
+		if (blockX != blockPos.getX()) {
+			blockPos = new BlockPos(blockX, blockPos.getY(), blockPos.getZ());
+		}
+	}
+
+	@Override
+	public AbstractInstance createInstance(MaterialManager materialManager) {
+		return new Instance(materialManager, this);
+	}
+
+	private static class Instance extends AbstractInstance implements DynamicInstance, TickableInstance {
+
+		private final SimulatedMinecart cart;
+
+		private OrientedData body;
+		private BlockPos worldPos;
+
+		private Instance(MaterialManager materialManager, SimulatedMinecart cart) {
+			super(materialManager, null);
+			this.cart = cart;
+			this.worldPos = cart.blockPos;
+		}
+
+		@Override
+		public void init() {
+			body = materialManager.solid(RENDER_TYPE)
+					.material(SimulatedMaterialManager.ORIENTED)
+					.model("minecart", () -> BODY)
+					.createInstance();
+
+			body.setPivot(0.5f, 0.5f, 0.5f);
+		}
+
+		@Override
+		public void tick() {
+			worldPos = cart.blockPos;
+		}
+
+		@Override
+		public void beginFrame() {
+			float pt = cart.scene.getPartialTicks();
+			double x = Mth.lerp(pt, cart.xOld, cart.x);
+
+			body.setPosition((float) x, (float) cart.y, (float) cart.z)
+					.setRotation(Vector3f.YP.rotationDegrees(cart.speed > 0 ? 0 : 180));
+		}
+
+		@Override
+		public void updateLight() {
+			relight(15, 15, body);
+		}
+
+		@Override
+		protected void remove() {
+			body.delete();
+		}
+
+		@Override
+		public BlockPos getWorldPosition() {
+			return worldPos;
+		}
+	}
+}
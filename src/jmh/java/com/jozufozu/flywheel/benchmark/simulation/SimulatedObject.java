@@ -0,0 +1,32 @@
+package com.jozufozu.flywheel.benchmark.simulation;
+
+import com.jozufozu.flywheel.api.MaterialManager;
+import com.jozufozu.flywheel.backend.instancing.AbstractInstance;
+
+import net.minecraft.core.BlockPos;
+
+/**
+ * Something in the simulated world that Flywheel would draw, standing in for a block entity or an entity.
+ */
+public abstract class SimulatedObject {
+
+	protected final SimulatedScene scene;
+	protected BlockPos blockPos;
+
+	protected SimulatedObject(SimulatedScene scene, BlockPos blockPos) {
+		this.scene = scene;
+		this.blockPos = blockPos;
+	}
+
+	public BlockPos getBlockPos() {
+		return blockPos;
+	}
+
+	/**
+	 * Advance the object's own game logic by one tick.
+	 */
+	public void tick() {
+	}
+
+	public abstract AbstractInstance createInstance(MaterialManager materialManager);
+}
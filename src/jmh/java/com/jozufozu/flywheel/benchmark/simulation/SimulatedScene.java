@@ -0,0 +1,127 @@
+package com.jozufozu.flywheel.benchmark.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import com.jozufozu.flywheel.backend.instancing.InstanceManager;
+
+import net.minecraft.core.BlockPos;
+
+/**
+ * A scripted world: a grid of chests with a few opening and closing, minecarts rolling through it, and a steady
+ * trickle of things being removed and placed.
+ */
+public class SimulatedScene {
+
+	private static final int FLOOR = 64;
+	private static final int SPACING = 3;
+
+	private final Random random;
+	private final List<SimulatedChest> chests = new ArrayList<>();
+	private final List<SimulatedMinecart> minecarts = new ArrayList<>();
+
+	private final int radius;
+	private final double churn;
+	private final double toggles;
+
+	private volatile float partialTicks;
+
+	/**
+	 * @param churn The fraction of objects removed and replaced each tick.
+	 * @param toggles The fraction of chests opened or closed each tick.
+	 */
+	public SimulatedScene(int chestCount, int minecartCount, double churn, double toggles, long seed) {
+		this.random = new Random(seed);
+		this.churn = churn;
+		this.toggles = toggles;
+
+		int side = (int) Math.ceil(Math.sqrt(chestCount));
+		this.radius = side * SPACING / 2;
+
+		for (int i = 0; i < chestCount; i++) {
+			chests.add(new SimulatedChest(this, gridPos(i % side, i / side)));
+		}
+
+		for (int i = 0; i < minecartCount; i++) {
+			minecarts.add(newMinecart());
+		}
+	}
+
+	private BlockPos gridPos(int gx, int gz) {
+		return new BlockPos(gx * SPACING - radius, FLOOR, gz * SPACING - radius);
+	}
+
+	private SimulatedMinecart newMinecart() {
+		double x = random.nextInt(2 * radius + 1) - radius;
+		// between the rows of chests
+		double z = random.nextInt(Math.max(2 * radius / SPACING, 1)) * SPACING - radius + 1;
+		double speed = 0.1 + random.nextDouble() * 0.3;
+		return new SimulatedMinecart(this, x, FLOOR, z, 8 + random.nextInt(24), random.nextBoolean() ? speed : -speed);
+	}
+
+	public int getRadius() {
+		return radius;
+	}
+
+	public float getPartialTicks() {
+		return partialTicks;
+	}
+
+	public void setPartialTicks(float partialTicks) {
+		this.partialTicks = partialTicks;
+	}
+
+	/**
+	 * Hand every object to the manager, like a level being loaded.
+	 */
+	public void addAll(InstanceManager<SimulatedObject> manager) {
+		manager.queueAddAll(chests);
+		manager.queueAddAll(minecarts);
+	}
+
+	/**
+	 * Run one tick of game logic, telling the manager about everything that changed.
+	 */
+	public void tick(InstanceManager<SimulatedObject> manager) {
+		for (SimulatedMinecart minecart : minecarts) {
+			minecart.tick();
+		}
+
+		int toggled = count(chests.size(), toggles);
+		for (int i = 0; i < toggled; i++) {
+			SimulatedChest chest = chests.get(random.nextInt(chests.size()));
+			chest.open = !chest.open;
+			manager.queueUpdate(chest);
+		}
+
+		replace(manager, chests, count(chests.size(), churn), this::replaceChest);
+		replace(manager, minecarts, count(minecarts.size(), churn), $ -> newMinecart());
+	}
+
+	private SimulatedChest replaceChest(SimulatedChest old) {
+		return new SimulatedChest(this, old.getBlockPos());
+	}
+
+	private <T extends SimulatedObject> void replace(InstanceManager<SimulatedObject> manager, List<T> objects, int count, UnaryOperator<T> factory) {
+		for (int i = 0; i < count && !objects.isEmpty(); i++) {
+			int index = random.nextInt(objects.size());
+			T old = objects.get(index);
+			manager.remove(old);
+
+			T replacement = factory.apply(old);
+			objects.set(index, replacement);
+			manager.queueAdd(replacement);
+		}
+	}
+
+	/**
+	 * Scale by a fraction, carrying the remainder over randomly so small fractions still happen on average.
+	 */
+	private int count(int total, double fraction) {
+		double exact = total * fraction;
+		int whole = (int) exact;
+		return random.nextDouble() < exact - whole ? whole + 1 : whole;
+	}
+}
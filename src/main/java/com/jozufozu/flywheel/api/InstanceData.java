@@ -3,18 +3,19 @@ package com.jozufozu.flywheel.api;
 public abstract class InstanceData {
 
 	private Instancer<?> owner;
+	private int index = -1;
 
 	private boolean dirty;
 	private boolean removed;
 
 	public final void markDirty() {
 		dirty = true;
-		owner.notifyDirty();
+		owner.notifyDirty(index);
 	}
 
 	public final void delete() {
 		removed = true;
-		owner.notifyRemoval();
+		owner.notifyRemoval(index);
 	}
 
 	public final boolean checkDirtyAndClear() {
@@ -26,6 +27,10 @@ public abstract class InstanceData {
 		}
 	}
 
+	public final boolean isDirty() {
+		return dirty;
+	}
+
 	public final boolean isRemoved() {
 		return removed;
 	}
@@ -38,4 +43,16 @@ public abstract class InstanceData {
 		this.owner = owner;
 		return this;
 	}
+
+	/**
+	 * @return The position of this data in its owner's storage, as last assigned by the owner.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public InstanceData setIndex(int index) {
+		this.index = index;
+		return this;
+	}
 }
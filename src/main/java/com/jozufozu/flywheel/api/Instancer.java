@@ -42,6 +42,19 @@ public interface Instancer<D extends InstanceData> {
 	 */
 	void notifyDirty();
 
+	/**
+	 * Notify the Instancer that the data at the given index needs updating.
+	 *
+	 * <p>
+	 *     Instancers that track which instances changed can use this to avoid scanning all of them.
+	 * </p>
+	 *
+	 * @param index The index the instancer assigned to the data, or -1 if it never assigned one.
+	 */
+	default void notifyDirty(int index) {
+		notifyDirty();
+	}
+
 	/**
 	 * Notify the Instances that some of its data should be removed.
 	 *
@@ -51,6 +64,15 @@ public interface Instancer<D extends InstanceData> {
 	 */
 	void notifyRemoval();
 
+	/**
+	 * Notify the Instancer that the data at the given index should be removed.
+	 *
+	 * @param index The index the instancer assigned to the data, or -1 if it never assigned one.
+	 */
+	default void notifyRemoval(int index) {
+		notifyRemoval();
+	}
+
 	/**
 	 * Populate arr with new instances of this model.
 	 * @param arr An array to fill.
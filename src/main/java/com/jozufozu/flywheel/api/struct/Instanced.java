@@ -1,6 +1,7 @@
 package com.jozufozu.flywheel.api.struct;
 
 import com.jozufozu.flywheel.backend.gl.buffer.VecBuffer;
+import com.mojang.math.Vector4f;
 
 import net.minecraft.resources.ResourceLocation;
 
@@ -14,4 +15,28 @@ public interface Instanced<S> extends StructType<S> {
 
 	ResourceLocation getProgramSpec();
 
+	/**
+	 * @return true if {@link #transformBoundingSphere} works for every instance of this type, so its instancers can
+	 * be culled on the GPU.
+	 */
+	default boolean supportsCulling() {
+		return false;
+	}
+
+	/**
+	 * Transform a model space bounding sphere into the space the instance is drawn in, for GPU culling.
+	 * <p>
+	 *     Only called if {@link #supportsCulling} returns true. Types that don't support culling should return false
+	 *     for every struct.
+	 * </p>
+	 *
+	 * @param struct The instance.
+	 * @param modelSphere The bounding sphere of the model, xyz is the center and w is the radius.
+	 * @param out Where to store the transformed sphere, in the same format.
+	 * @return true if the sphere was written.
+	 */
+	default boolean transformBoundingSphere(S struct, Vector4f modelSphere, Vector4f out) {
+		return false;
+	}
+
 }
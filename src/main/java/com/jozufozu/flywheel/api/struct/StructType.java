@@ -18,4 +18,15 @@ public interface StructType<S> {
 	 */
 	BufferLayout getLayout();
 
+	/**
+	 * Instancers normally fill the hole left by a removed instance with their last instance, which reorders the
+	 * instances but only touches one slot. Types whose instances must stay in creation order can opt out of that here,
+	 * at the cost of shifting (and re-uploading) everything after a removed instance.
+	 *
+	 * @return true if instances must keep their relative order.
+	 */
+	default boolean preserveInstanceOrder() {
+		return false;
+	}
+
 }
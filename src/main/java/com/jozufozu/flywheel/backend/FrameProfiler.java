@@ -0,0 +1,257 @@
+package com.jozufozu.flywheel.backend;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import com.jozufozu.flywheel.util.StringUtil;
+
+/**
+ * Rolling per-frame measurements of Flywheel's share of the frame, for chasing frame time spikes.
+ *
+ * <p>
+ *     While recording, each {@link Metric} is summed over a frame and the sums of the last {@link #WINDOW} frames are
+ *     kept, so percentiles always reflect recent frames. Metrics may be added to from any thread.
+ *     When not recording, everything here is a field read and a branch.
+ * </p>
+ */
+public final class FrameProfiler {
+
+	/**
+	 * How many frames of history to keep.
+	 */
+	public static final int WINDOW = 1200;
+
+	private static final Metric[] METRICS = Metric.values();
+	private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH.mm.ss");
+
+	private static final LongAdder[] current = new LongAdder[METRICS.length];
+	private static final long[][] history = new long[METRICS.length][WINDOW];
+	// the next slot to write to
+	private static int head;
+	private static int frames;
+
+	private static volatile boolean recording;
+
+	static {
+		for (int i = 0; i < current.length; i++) {
+			current[i] = new LongAdder();
+		}
+	}
+
+	private FrameProfiler() {
+	}
+
+	public static boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * Throw away what was recorded so far and start recording.
+	 */
+	public static void start() {
+		reset();
+		recording = true;
+	}
+
+	/**
+	 * Stop recording, keeping the history around to be looked at.
+	 */
+	public static void stop() {
+		recording = false;
+	}
+
+	public static void reset() {
+		for (LongAdder adder : current) {
+			adder.reset();
+		}
+		head = 0;
+		frames = 0;
+	}
+
+	/**
+	 * @return The number of frames in the history.
+	 */
+	public static int getFrameCount() {
+		return frames;
+	}
+
+	public static void add(Metric metric, long amount) {
+		if (recording) {
+			current[metric.ordinal()].add(amount);
+		}
+	}
+
+	/**
+	 * Count draw calls towards the given layer.
+	 *
+	 * @param layer The layer, or null when drawing outside of any layer, in which case nothing is counted.
+	 */
+	public static void addDraws(@Nullable RenderLayer layer, long draws) {
+		if (layer != null) {
+			add(Metric.draws(layer), draws);
+		}
+	}
+
+	/**
+	 * Start timing something.
+	 *
+	 * @return The value to pass to {@link #end}.
+	 */
+	public static long begin() {
+		return recording ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Add the time since {@link #begin} was called to the given metric.
+	 */
+	public static void end(Metric metric, long begin) {
+		if (recording && begin != 0) {
+			current[metric.ordinal()].add(System.nanoTime() - begin);
+		}
+	}
+
+	/**
+	 * Move this frame's sums into the history. Call once per frame, from the render thread.
+	 */
+	public static void endFrame() {
+		if (!recording) return;
+
+		for (int i = 0; i < METRICS.length; i++) {
+			history[i][head] = current[i].sumThenReset();
+		}
+
+		head = (head + 1) % WINDOW;
+		frames = Math.min(frames + 1, WINDOW);
+	}
+
+	/**
+	 * @param p The percentile, between 0 and 100.
+	 * @return The given percentile of the metric's per-frame sums over the history, or 0 if there is none.
+	 */
+	public static long percentile(Metric metric, double p) {
+		if (frames == 0) return 0;
+
+		long[] sorted = Arrays.copyOf(history[metric.ordinal()], frames);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(p / 100 * frames) - 1;
+		return sorted[Math.max(0, Math.min(index, frames - 1))];
+	}
+
+	/**
+	 * Write every frame in the history to a new CSV file in the given directory, oldest first.
+	 *
+	 * @return The file written.
+	 */
+	public static Path dump(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		Path file = directory.resolve("profile_" + LocalDateTime.now().format(FILE_DATE) + ".csv");
+
+		try (Writer writer = Files.newBufferedWriter(file)) {
+			writer.write("frame");
+			for (Metric metric : METRICS) {
+				writer.write(',');
+				writer.write(metric.column());
+			}
+			writer.write('\n');
+
+			// before the window fills up, the oldest frame is at 0
+			int oldest = frames < WINDOW ? 0 : head;
+			for (int f = 0; f < frames; f++) {
+				int slot = (oldest + f) % WINDOW;
+				writer.write(Integer.toString(f));
+				for (int i = 0; i < METRICS.length; i++) {
+					writer.write(',');
+					writer.write(Long.toString(history[i][slot]));
+				}
+				writer.write('\n');
+			}
+		}
+
+		return file;
+	}
+
+	public enum Metric {
+		/**
+		 * Wall time of the per-frame setup, including queued additions and dispatching dynamic updates.
+		 */
+		BEGIN_FRAME("beginFrame", Unit.NANOS),
+		/**
+		 * Wall time spent creating instances for newly added objects.
+		 */
+		QUEUED_ADDITIONS("queuedAdditions", Unit.NANOS),
+		/**
+		 * Time spent in {@code DynamicInstance#beginFrame}, summed over all threads.
+		 */
+		DYNAMIC_UPDATES("dynamicUpdates", Unit.NANOS),
+		/**
+		 * Time the render thread spent blocked waiting on workers.
+		 */
+		SYNC_WAIT("syncWait", Unit.NANOS),
+		/**
+		 * Wall time of drawing all layers, including the CPU side of uploads.
+		 */
+		RENDER("render", Unit.NANOS),
+		/**
+		 * Wall time spent uploading models to the shared model buffers.
+		 */
+		MODEL_POOL_FLUSH("modelPoolFlush", Unit.NANOS),
+		/**
+		 * Time listeners spent handling queued light updates, summed over all threads.
+		 */
+		LIGHT_UPDATES("lightUpdates", Unit.NANOS),
+		INSTANCE_UPLOAD("instanceUpload", Unit.BYTES),
+		PROGRAM_BINDS("programBinds", Unit.COUNT),
+		DRAWS_SOLID("drawsSolid", Unit.COUNT),
+		DRAWS_CUTOUT("drawsCutout", Unit.COUNT),
+		DRAWS_TRANSPARENT("drawsTransparent", Unit.COUNT),
+		;
+
+		public final String label;
+		public final Unit unit;
+
+		Metric(String label, Unit unit) {
+			this.label = label;
+			this.unit = unit;
+		}
+
+		public static Metric draws(RenderLayer layer) {
+			return switch (layer) {
+				case SOLID -> DRAWS_SOLID;
+				case CUTOUT -> DRAWS_CUTOUT;
+				case TRANSPARENT -> DRAWS_TRANSPARENT;
+			};
+		}
+
+		private String column() {
+			return switch (unit) {
+				case NANOS -> label + "_ns";
+				case BYTES -> label + "_bytes";
+				case COUNT -> label;
+			};
+		}
+	}
+
+	public enum Unit {
+		NANOS,
+		BYTES,
+		COUNT,
+		;
+
+		public String format(long value) {
+			return switch (this) {
+				case NANOS -> String.format(Locale.ROOT, "%.3fms", value / 1e6);
+				case BYTES -> StringUtil.formatBytes(value);
+				case COUNT -> Long.toString(value);
+			};
+		}
+	}
+}
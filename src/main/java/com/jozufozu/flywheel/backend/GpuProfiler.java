@@ -0,0 +1,287 @@
+package com.jozufozu.flywheel.backend;
+
+import static org.lwjgl.opengl.GL15C.GL_QUERY_RESULT;
+import static org.lwjgl.opengl.GL15C.GL_QUERY_RESULT_AVAILABLE;
+import static org.lwjgl.opengl.GL15C.glDeleteQueries;
+import static org.lwjgl.opengl.GL15C.glGenQueries;
+import static org.lwjgl.opengl.GL15C.glGetQueryObjecti;
+import static org.lwjgl.opengl.GL33C.GL_TIMESTAMP;
+import static org.lwjgl.opengl.GL33C.glGetQueryObjectui64;
+import static org.lwjgl.opengl.GL33C.glQueryCounter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import javax.annotation.Nullable;
+
+import com.jozufozu.flywheel.backend.gl.versioned.GlCompat;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.minecraft.client.renderer.RenderType;
+
+/**
+ * Measures how long the GPU spends on each layer and material with timestamp queries.
+ *
+ * <p>
+ *     Timestamps are used instead of {@code GL_TIME_ELAPSED} because elapsed time queries can't nest, and we want to
+ *     time materials inside of layers. Results are only read once the GPU says they're available, a few frames
+ *     later, so the CPU never waits on them.
+ * </p>
+ *
+ * <p>
+ *     Must only be used from the render thread.
+ * </p>
+ */
+public final class GpuProfiler {
+
+	/**
+	 * Frames still waiting for results past this are thrown away, so a stuck query can't pile up work.
+	 */
+	private static final int MAX_PENDING_FRAMES = 8;
+	/**
+	 * How much each new frame moves the running averages.
+	 */
+	private static final double SMOOTHING = 0.05;
+
+	private static final Map<RenderLayer, String> LAYER_LABELS = new EnumMap<>(RenderLayer.class);
+
+	static {
+		for (RenderLayer layer : RenderLayer.values()) {
+			LAYER_LABELS.put(layer, "layer " + layer.name().toLowerCase());
+		}
+	}
+
+	private static boolean enabled;
+
+	private static Frame current = new Frame();
+	private static final ArrayDeque<Frame> pending = new ArrayDeque<>();
+	private static final ArrayDeque<Frame> spareFrames = new ArrayDeque<>();
+	private static final IntArrayList freeQueries = new IntArrayList();
+
+	private static final Map<String, Timing> timings = new HashMap<>();
+
+	private GpuProfiler() {
+	}
+
+	public static boolean isSupported() {
+		return GlCompat.getInstance().timerQueriesSupported();
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Start measuring, throwing away previous measurements.
+	 */
+	public static void start() {
+		if (!isSupported()) return;
+
+		timings.clear();
+		enabled = true;
+	}
+
+	/**
+	 * Stop measuring and free all queries. The measurements so far are kept.
+	 */
+	public static void stop() {
+		enabled = false;
+
+		discard(current);
+		while (!pending.isEmpty()) {
+			discard(pending.poll());
+		}
+
+		if (!freeQueries.isEmpty()) {
+			glDeleteQueries(freeQueries.toIntArray());
+			freeQueries.clear();
+		}
+	}
+
+	/**
+	 * Record a timestamp before the work to be timed.
+	 *
+	 * @param label What's being timed. Measurements with the same label are summed per frame.
+	 * @return A handle to pass to {@link #end}, or -1 if not measuring.
+	 */
+	public static int begin(String label) {
+		if (!enabled) return -1;
+
+		int query = nextQuery();
+		glQueryCounter(query, GL_TIMESTAMP);
+
+		current.labels.add(label);
+		current.starts.add(query);
+		current.ends.add(0);
+		return current.labels.size() - 1;
+	}
+
+	/**
+	 * Record a timestamp after the work started with {@link #begin}.
+	 */
+	public static void end(int handle) {
+		if (handle < 0 || !enabled) return;
+
+		int query = nextQuery();
+		glQueryCounter(query, GL_TIMESTAMP);
+
+		current.ends.set(handle, query);
+	}
+
+	/**
+	 * Close this frame's queries and read back whatever the GPU has finished since last time. Call once per frame.
+	 */
+	public static void endFrame() {
+		if (!enabled) return;
+
+		if (!current.labels.isEmpty()) {
+			pending.add(current);
+			current = spareFrames.isEmpty() ? new Frame() : spareFrames.poll();
+		}
+
+		// frames finish in order, so stop at the first one that isn't done
+		while (!pending.isEmpty() && pending.peek().isAvailable()) {
+			Frame frame = pending.poll();
+			frame.read();
+			recycle(frame);
+		}
+
+		while (pending.size() > MAX_PENDING_FRAMES) {
+			discard(pending.poll());
+		}
+	}
+
+	/**
+	 * @return Everything measured so far, most expensive first.
+	 */
+	public static List<Timing> getTimings() {
+		List<Timing> out = new ArrayList<>(timings.values());
+		out.sort(Comparator.comparingDouble(Timing::getAverageNanos).reversed());
+		return out;
+	}
+
+	public static String layerLabel(@Nullable RenderLayer layer) {
+		return layer == null ? "crumbling" : LAYER_LABELS.get(layer);
+	}
+
+	/**
+	 * Get a short name for a RenderType, without its whole state.
+	 */
+	public static String describe(RenderType type) {
+		// CompositeRenderType#toString is "RenderType[name:state]"
+		String string = type.toString();
+		int colon = string.indexOf(':');
+		if (string.startsWith("RenderType[") && colon > 0) {
+			return string.substring("RenderType[".length(), colon);
+		}
+		return string;
+	}
+
+	private static int nextQuery() {
+		if (freeQueries.isEmpty()) {
+			return glGenQueries();
+		}
+		return freeQueries.removeInt(freeQueries.size() - 1);
+	}
+
+	private static void recycle(Frame frame) {
+		frame.forEachQuery(freeQueries::add);
+		frame.clear();
+		spareFrames.add(frame);
+	}
+
+	private static void discard(Frame frame) {
+		// deleting queries the GPU hasn't gotten to yet is fine
+		frame.forEachQuery(query -> glDeleteQueries(query));
+		frame.clear();
+		spareFrames.add(frame);
+	}
+
+	private static class Frame {
+		private final List<String> labels = new ArrayList<>();
+		private final IntArrayList starts = new IntArrayList();
+		private final IntArrayList ends = new IntArrayList();
+		private final Object2LongOpenHashMap<String> sums = new Object2LongOpenHashMap<>();
+
+		private boolean isAvailable() {
+			// the last query issued is the last one to finish
+			int last = 0;
+			for (int i = ends.size() - 1; i >= 0 && last == 0; i--) {
+				last = ends.getInt(i);
+			}
+			return last == 0 || glGetQueryObjecti(last, GL_QUERY_RESULT_AVAILABLE) != 0;
+		}
+
+		private void read() {
+			for (int i = 0; i < labels.size(); i++) {
+				int end = ends.getInt(i);
+				// never ended, probably because something threw
+				if (end == 0) continue;
+
+				long nanos = glGetQueryObjectui64(end, GL_QUERY_RESULT) - glGetQueryObjectui64(starts.getInt(i), GL_QUERY_RESULT);
+				sums.addTo(labels.get(i), nanos);
+			}
+
+			for (Object2LongMap.Entry<String> entry : sums.object2LongEntrySet()) {
+				timings.computeIfAbsent(entry.getKey(), Timing::new)
+						.add(entry.getLongValue());
+			}
+			sums.clear();
+		}
+
+		private void forEachQuery(IntConsumer consumer) {
+			starts.forEach(consumer);
+			for (int i = 0; i < ends.size(); i++) {
+				int end = ends.getInt(i);
+				if (end != 0) consumer.accept(end);
+			}
+		}
+
+		private void clear() {
+			labels.clear();
+			starts.clear();
+			ends.clear();
+		}
+	}
+
+	/**
+	 * The GPU time of one label, summed per frame and averaged over frames.
+	 */
+	public static class Timing {
+		public final String label;
+
+		private double averageNanos = -1;
+		private long lastNanos;
+		private long maxNanos;
+
+		private Timing(String label) {
+			this.label = label;
+		}
+
+		private void add(long nanos) {
+			lastNanos = nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+			averageNanos = averageNanos < 0 ? nanos : averageNanos + (nanos - averageNanos) * SMOOTHING;
+		}
+
+		public double getAverageNanos() {
+			return averageNanos;
+		}
+
+		public long getLastNanos() {
+			return lastNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+	}
+}
@@ -4,7 +4,6 @@ import static org.lwjgl.opengl.GL32.GL_ALREADY_SIGNALED;
 import static org.lwjgl.opengl.GL32.GL_CONDITION_SATISFIED;
 import static org.lwjgl.opengl.GL32.GL_SYNC_FLUSH_COMMANDS_BIT;
 import static org.lwjgl.opengl.GL32.GL_SYNC_GPU_COMMANDS_COMPLETE;
-import static org.lwjgl.opengl.GL32.GL_UNSIGNALED;
 import static org.lwjgl.opengl.GL32.glClientWaitSync;
 import static org.lwjgl.opengl.GL32.glDeleteSync;
 import static org.lwjgl.opengl.GL32.glFenceSync;
@@ -26,10 +25,17 @@ public class GlFence {
 		}
 	}
 
-	public void waitSync() {
+	/**
+	 * Block until the GPU has passed this fence.
+	 *
+	 * @return true if the GPU had not passed it yet and we actually had to wait.
+	 */
+	public boolean waitSync() {
+		boolean blocked = false;
 		if (fence != 0) {
-			int waitReturn = GL_UNSIGNALED;
+			int waitReturn = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, 0);
 			while (waitReturn != GL_ALREADY_SIGNALED && waitReturn != GL_CONDITION_SATISFIED) {
+				blocked = true;
 				waitReturn = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, 1);
 			}
 
@@ -37,5 +43,6 @@ public class GlFence {
 		}
 
 		fence = 0;
+		return blocked;
 	}
 }
@@ -36,9 +36,24 @@ public class GlVertexArray extends GlObject {
 	}
 
 	public void bindAttributes(int startIndex, BufferLayout type) {
-		int offset = 0;
+		bindAttributes(startIndex, type, 0);
+	}
+
+	/**
+	 * Bind the attributes of a layout, starting the given number of bytes into the bound ARRAY_BUFFER.
+	 */
+	public void bindAttributes(int startIndex, BufferLayout type, int baseOffset) {
+		bindAttributes(startIndex, type, baseOffset, type.getStride());
+	}
+
+	/**
+	 * Bind the attributes of a layout whose elements are {@code stride} bytes apart in the bound ARRAY_BUFFER,
+	 * which may be more than the layout's own stride.
+	 */
+	public void bindAttributes(int startIndex, BufferLayout type, int baseOffset, int stride) {
+		int offset = baseOffset;
 		for (LayoutItem spec : type.getLayoutItems()) {
-			spec.vertexAttribPointer(type.getStride(), startIndex, offset);
+			spec.vertexAttribPointer(stride, startIndex, offset);
 			startIndex += spec.attributeCount();
 			offset += spec.size();
 		}
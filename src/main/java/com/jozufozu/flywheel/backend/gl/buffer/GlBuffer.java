@@ -60,6 +60,18 @@ public abstract class GlBuffer extends GlObject {
 
 	public abstract MappedBuffer getBuffer(long offset, long length);
 
+	/**
+	 * Map a range of the buffer where only the sub-ranges passed to {@link MappedBuffer#flushRange} need to be
+	 * made visible to the GPU.
+	 *
+	 * <p>
+	 *     Buffers that are always coherent just return their regular mapping.
+	 * </p>
+	 */
+	public MappedBuffer getBufferExplicit(long offset, long length) {
+		return getBuffer(offset, length);
+	}
+
 	/**
 	 * Ensure that the buffer has at least enough room to store size bytes.
 	 *
@@ -75,6 +87,18 @@ public abstract class GlBuffer extends GlObject {
 		return false;
 	}
 
+	/**
+	 * Get the byte offset of the region that this frame's writes land in and draws should read from.
+	 *
+	 * <p>
+	 *     Only ring buffered implementations ever return anything but 0. The result can change after
+	 *     {@link #doneForThisFrame()}, so vertex attributes pointing into this buffer should be re-bound when it does.
+	 * </p>
+	 */
+	public long getFrameOffset() {
+		return 0;
+	}
+
 	/**
 	 * Call this after all draw calls using this buffer are complete.
 	 */
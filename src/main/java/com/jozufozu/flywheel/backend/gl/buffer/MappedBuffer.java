@@ -3,18 +3,41 @@ package com.jozufozu.flywheel.backend.gl.buffer;
 import java.nio.ByteBuffer;
 
 import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
 
 public class MappedBuffer extends VecBuffer implements AutoCloseable {
 
 	protected final long offset;
 	protected final long length;
 	protected final Mappable owner;
+	protected final boolean explicitFlush;
 
 	public MappedBuffer(Mappable owner, ByteBuffer internal, long offset, long length) {
+		this(owner, internal, offset, length, false);
+	}
+
+	public MappedBuffer(Mappable owner, ByteBuffer internal, long offset, long length, boolean explicitFlush) {
 		this.internal = internal;
 		this.owner = owner;
 		this.offset = offset;
 		this.length = length;
+		this.explicitFlush = explicitFlush;
+	}
+
+	/**
+	 * Make the changes to a sub-range available to the GPU before the buffer is unmapped.
+	 *
+	 * <p>
+	 *     Only does anything if the buffer was mapped with {@link GlBuffer#getBufferExplicit}.
+	 * </p>
+	 *
+	 * @param offset The offset in bytes from the start of the GL buffer, not the start of the mapping.
+	 * @param length The length in bytes of the range to flush.
+	 */
+	public void flushRange(long offset, long length) {
+		if (!explicitFlush || internal == null) return;
+
+		GL30.glFlushMappedBufferRange(owner.getType().glEnum, offset - this.offset, length);
 	}
 
 	/**
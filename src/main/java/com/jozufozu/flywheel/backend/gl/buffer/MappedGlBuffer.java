@@ -25,6 +25,13 @@ public class MappedGlBuffer extends GlBuffer implements Mappable {
 		GL15.glBufferData(type.glEnum, size, usage.glEnum);
 	}
 
+	/**
+	 * Throw away the contents of the buffer, so the next map doesn't wait for the GPU to finish reading them.
+	 */
+	public void orphan() {
+		alloc(capacity);
+	}
+
 	public void upload(ByteBuffer directBuffer) {
 		GL15.glBufferData(type.glEnum, directBuffer, usage.glEnum);
 	}
@@ -39,6 +46,17 @@ public class MappedGlBuffer extends GlBuffer implements Mappable {
 		return new MappedBuffer(this, byteBuffer, offset, length);
 	}
 
+	@Override
+	public MappedBuffer getBufferExplicit(long offset, long length) {
+		ByteBuffer byteBuffer = GL30.glMapBufferRange(type.glEnum, offset, length, GL30.GL_MAP_WRITE_BIT | GL30.GL_MAP_FLUSH_EXPLICIT_BIT);
+
+		if (byteBuffer == null) {
+			throw new GlException(GlError.poll(), "Could not map buffer");
+		}
+
+		return new MappedBuffer(this, byteBuffer, offset, length, true);
+	}
+
 	@Override
 	public GlBufferType getType() {
 		return type;
@@ -7,54 +7,166 @@ import static org.lwjgl.opengl.GL44.GL_MAP_PERSISTENT_BIT;
 import java.nio.ByteBuffer;
 
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.system.MemoryUtil;
 
 import com.jozufozu.flywheel.backend.gl.GlFence;
 import com.jozufozu.flywheel.backend.gl.error.GlError;
 import com.jozufozu.flywheel.backend.gl.error.GlException;
 import com.jozufozu.flywheel.backend.gl.versioned.GlCompat;
 
+/**
+ * A persistently mapped buffer split into a ring of {@link #SEGMENTS} segments.
+ *
+ * <p>
+ *     Each frame writes to and draws from a different segment, so the CPU only has to wait on a fence when the
+ *     GPU is more than {@code SEGMENTS - 1} frames behind. Users must draw from {@link #getFrameOffset()}.
+ * </p>
+ * <p>
+ *     Writes go to a CPU side copy of the buffer, and are copied into the current segment when the mapping is
+ *     closed. The written ranges are remembered for the other segments, so they catch up when they come around.
+ * </p>
+ */
 public class PersistentGlBuffer extends GlBuffer implements Mappable {
 
-	private MappedBuffer buffer;
+	public static final int SEGMENTS = 3;
+
+	/**
+	 * Past this many pending ranges a segment just copies everything between the first and last.
+	 */
+	private static final int MAX_PENDING_RANGES = 64;
+
+	private static long stallNanos;
+	private static int stallCount;
+	private static long lastStallNanos;
+	private static int lastStallCount;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final ShadowBuffer shadowView = new ShadowBuffer();
+
+	private ByteBuffer mapped;
 	int flags;
 
 	long size;
-	GlFence fence;
+
+	private long shadowPtr;
+	private int current;
+	private boolean advance;
 
 	public PersistentGlBuffer(GlBufferType type) {
 		super(type);
 
 		flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
-		fence = new GlFence();
+
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(i);
+		}
+	}
+
+	/**
+	 * Roll over the fence stall statistics. Call once per frame.
+	 */
+	public static void endFrame() {
+		lastStallNanos = stallNanos;
+		lastStallCount = stallCount;
+		stallNanos = 0;
+		stallCount = 0;
+	}
+
+	/**
+	 * @return The time the CPU spent waiting for the GPU to release a segment last frame.
+	 */
+	public static long getLastStallNanos() {
+		return lastStallNanos;
+	}
+
+	/**
+	 * @return The number of waits that actually blocked last frame.
+	 */
+	public static int getLastStallCount() {
+		return lastStallCount;
 	}
 
 	@Override
 	public void doneForThisFrame() {
-		fence.post();
+		segments[current].fence.post();
+		advance = true;
+	}
+
+	@Override
+	public long getFrameOffset() {
+		acquire();
+		return current * size;
+	}
+
+	/**
+	 * Get the address of this frame's segment, for buffers whose contents are rewritten in full every frame.
+	 *
+	 * <p>
+	 *     Writes through this address go straight to the mapping, skipping the CPU side copy, so they are not carried
+	 *     over to the other segments. Don't mix them with {@link #getBuffer}.
+	 * </p>
+	 */
+	public long getSegmentAddress() {
+		acquire();
+		return MemoryUtil.memAddress(mapped) + current * size;
+	}
+
+	/**
+	 * Move to the next segment if the last frame is done, and bring it up to date.
+	 */
+	private void acquire() {
+		if (!advance) return;
+
+		advance = false;
+		current = (current + 1) % SEGMENTS;
+
+		Segment segment = segments[current];
+
+		long start = System.nanoTime();
+		if (segment.fence.waitSync()) {
+			stallNanos += System.nanoTime() - start;
+			stallCount++;
+		}
+
+		segment.applyPending();
 	}
 
 	@Override
 	protected void alloc(long size) {
+		long oldSize = this.size;
 		this.size = size;
 
-		if (buffer != null) {
+		if (mapped != null) {
 			deleteInternal(handle());
 			_create();
 
 			bind();
 		}
 
-		fence.clear();
+		for (Segment segment : segments) {
+			segment.fence.clear();
+		}
 
-        GlCompat.getInstance().bufferStorage.bufferStorage(type, size, flags);
+		GlCompat.getInstance().bufferStorage.bufferStorage(type, size * SEGMENTS, flags);
 
-		ByteBuffer byteBuffer = GL30.glMapBufferRange(type.glEnum, 0, size, flags);
+		mapped = GL30.glMapBufferRange(type.glEnum, 0, size * SEGMENTS, flags);
 
-		if (byteBuffer == null) {
+		if (mapped == null) {
 			throw new GlException(GlError.poll(), "Could not map buffer");
 		}
 
-		buffer = new MappedBuffer(this, byteBuffer, 0, size);
+		shadowPtr = MemoryUtil.nmemRealloc(shadowPtr, size);
+		if (size > oldSize) {
+			MemoryUtil.memSet(shadowPtr + oldSize, 0, size - oldSize);
+		}
+		shadowView.wrap(MemoryUtil.memByteBuffer(shadowPtr, (int) size));
+
+		// the new storage is empty, so every segment needs the whole thing
+		for (Segment segment : segments) {
+			segment.clearPending();
+			segment.addPending(0, size);
+		}
+		segments[current].applyPending();
 	}
 
 	@Override
@@ -64,12 +176,46 @@ public class PersistentGlBuffer extends GlBuffer implements Mappable {
 
 	@Override
 	public MappedBuffer getBuffer(long offset, long length) {
+		return map(offset, length, false);
+	}
+
+	@Override
+	public MappedBuffer getBufferExplicit(long offset, long length) {
+		return map(offset, length, true);
+	}
+
+	private MappedBuffer map(long offset, long length, boolean explicit) {
+		acquire();
+
+		shadowView.begin(offset, length, explicit);
+
+		return shadowView;
+	}
 
-		fence.waitSync();
+	@Override
+	public void delete() {
+		super.delete();
+
+		for (Segment segment : segments) {
+			segment.fence.clear();
+		}
+
+		MemoryUtil.nmemFree(shadowPtr);
+		shadowPtr = 0;
+		mapped = null;
+	}
 
-		buffer.position((int) offset);
+	/**
+	 * Called when the user is done writing a range of the shadow copy.
+	 */
+	private void commit(long offset, long length) {
+		if (length <= 0) return;
 
-		return buffer;
+		segments[current].copy(offset, length);
+
+		for (int i = 0; i < SEGMENTS; i++) {
+			if (i != current) segments[i].addPending(offset, length);
+		}
 	}
 
 	@Override
@@ -81,4 +227,109 @@ public class PersistentGlBuffer extends GlBuffer implements Mappable {
 	public boolean isPersistent() {
 		return true;
 	}
+
+	private class Segment {
+		private final int index;
+		private final GlFence fence = new GlFence();
+
+		// [start, end) byte pairs written since this segment was last current
+		private long[] pending = new long[8];
+		private int pendingCount;
+
+		private Segment(int index) {
+			this.index = index;
+		}
+
+		private void addPending(long offset, long length) {
+			long end = offset + length;
+
+			if (pendingCount > 0) {
+				int last = (pendingCount - 1) * 2;
+				if (pending[last + 1] == offset) {
+					pending[last + 1] = end;
+					return;
+				}
+			}
+
+			if (pendingCount == MAX_PENDING_RANGES) {
+				long min = Math.min(pending[0], offset);
+				long max = end;
+				for (int i = 0; i < pendingCount; i++) {
+					max = Math.max(max, pending[i * 2 + 1]);
+					min = Math.min(min, pending[i * 2]);
+				}
+				pending[0] = min;
+				pending[1] = max;
+				pendingCount = 1;
+				return;
+			}
+
+			if (pendingCount * 2 + 2 > pending.length) {
+				long[] grown = new long[pending.length * 2];
+				System.arraycopy(pending, 0, grown, 0, pending.length);
+				pending = grown;
+			}
+
+			pending[pendingCount * 2] = offset;
+			pending[pendingCount * 2 + 1] = end;
+			pendingCount++;
+		}
+
+		private void applyPending() {
+			for (int i = 0; i < pendingCount; i++) {
+				long start = pending[i * 2];
+				copy(start, pending[i * 2 + 1] - start);
+			}
+			clearPending();
+		}
+
+		private void clearPending() {
+			pendingCount = 0;
+		}
+
+		private void copy(long offset, long length) {
+			long end = Math.min(offset + length, size);
+			if (end <= offset) return;
+
+			long segmentStart = MemoryUtil.memAddress(mapped) + index * size;
+			MemoryUtil.memCopy(shadowPtr + offset, segmentStart + offset, end - offset);
+		}
+	}
+
+	/**
+	 * A view of the whole shadow copy, positioned at the requested offset.
+	 */
+	private class ShadowBuffer extends MappedBuffer {
+		private long mapOffset;
+		private long mapLength;
+		private boolean explicit;
+
+		private ShadowBuffer() {
+			super(PersistentGlBuffer.this, null, 0, Long.MAX_VALUE);
+		}
+
+		private void wrap(ByteBuffer shadow) {
+			internal = shadow;
+		}
+
+		private void begin(long offset, long length, boolean explicit) {
+			this.mapOffset = offset;
+			this.mapLength = length;
+			this.explicit = explicit;
+			internal.clear();
+			position((int) offset);
+		}
+
+		@Override
+		public void flushRange(long offset, long length) {
+			if (explicit) commit(offset, length);
+		}
+
+		@Override
+		public void flush() {
+			if (!explicit) commit(mapOffset, mapLength);
+			// only commit once
+			explicit = true;
+		}
+	}
 }
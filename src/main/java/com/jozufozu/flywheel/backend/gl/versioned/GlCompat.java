@@ -32,11 +32,19 @@ public class GlCompat {
 	public final InstancedArrays instancedArrays;
 	public final BufferStorage bufferStorage;
 	public final boolean amd;
+	private final boolean multiDrawIndirect;
+	private final boolean computeCulling;
+	private final boolean timerQueries;
 
 	private GlCompat() {
 		GLCapabilities caps = GL.createCapabilities();
 		instancedArrays = getLatest(InstancedArrays.class, caps);
 		bufferStorage = getLatest(BufferStorage.class, caps);
+		multiDrawIndirect = caps.OpenGL43 || (caps.GL_ARB_multi_draw_indirect
+				&& caps.GL_ARB_base_instance);
+		computeCulling = multiDrawIndirect && (caps.OpenGL43 || (caps.GL_ARB_compute_shader
+				&& caps.GL_ARB_shader_storage_buffer_object));
+		timerQueries = caps.OpenGL33 || caps.GL_ARB_timer_query;
 
 		if (Util.getPlatform() == Util.OS.WINDOWS) {
 			String vendor = GL20C.glGetString(GL20C.GL_VENDOR);
@@ -59,6 +67,27 @@ public class GlCompat {
 		return bufferStorage != BufferStorage.UNSUPPORTED;
 	}
 
+	/**
+	 * Can we draw many models with one call, each reading instances from its own offset into a shared buffer?
+	 */
+	public boolean multiDrawIndirectSupported() {
+		return multiDrawIndirect;
+	}
+
+	/**
+	 * Can we cull instances in a compute shader and draw the survivors with multi-draw-indirect?
+	 */
+	public boolean computeCullingSupported() {
+		return computeCulling;
+	}
+
+	/**
+	 * Can we read GPU timestamps with {@code glQueryCounter}?
+	 */
+	public boolean timerQueriesSupported() {
+		return timerQueries;
+	}
+
 	/**
 	 * Get the most compatible version of a specific OpenGL feature by iterating over enum constants in order.
 	 *
@@ -95,6 +95,16 @@ public abstract class AbstractInstance implements Instance, LightListener {
 		updateLight();
 	}
 
+	@Override
+	public void onLightUpdate(ImmutableBox changed, boolean block, boolean sky) {
+		if (OVERRIDES_LAYER_UPDATE.get(getClass())) {
+			LightListener.super.onLightUpdate(changed, block, sky);
+		} else {
+			// both layers are read anyway, so one relight covers both
+			updateLight();
+		}
+	}
+
 	protected void relight(BlockPos pos, FlatLit<?>... models) {
 		relight(world.getBrightness(LightLayer.BLOCK, pos), world.getBrightness(LightLayer.SKY, pos), models);
 	}
@@ -112,4 +122,15 @@ public abstract class AbstractInstance implements Instance, LightListener {
 				.setSkyLight(sky));
 	}
 
+	private static final ClassValue<Boolean> OVERRIDES_LAYER_UPDATE = new ClassValue<>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			try {
+				return type.getMethod("onLightUpdate", LightLayer.class, ImmutableBox.class)
+						.getDeclaringClass() != AbstractInstance.class;
+			} catch (NoSuchMethodException e) {
+				return false;
+			}
+		}
+	};
 }
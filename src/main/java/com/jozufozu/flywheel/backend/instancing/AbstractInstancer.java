@@ -8,17 +8,35 @@ import com.jozufozu.flywheel.api.InstanceData;
 import com.jozufozu.flywheel.api.Instancer;
 import com.jozufozu.flywheel.core.model.Model;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
 public abstract class AbstractInstancer<D extends InstanceData> implements Instancer<D> {
 
 	protected final Supplier<D> factory;
 	protected final Model modelData;
 	protected final ArrayList<D> data = new ArrayList<>();
 
+	/**
+	 * If true, removals shift survivors down to keep them in order instead of swapping in the last instance.
+	 */
+	protected final boolean ordered;
+
 	protected boolean anyToRemove;
 
+	// Indices passed to notifyRemoval since the last removeDeletedInstances.
+	private final IntArrayList removedIndices = new IntArrayList();
+	// Set if something was removed without telling us where it was, so we have to scan for it.
+	private boolean unknownRemovals;
+
 	protected AbstractInstancer(Supplier<D> factory, Model modelData) {
+		this(factory, modelData, false);
+	}
+
+	protected AbstractInstancer(Supplier<D> factory, Model modelData, boolean ordered) {
 		this.factory = factory;
 		this.modelData = modelData;
+		this.ordered = ordered;
 	}
 
 	/**
@@ -41,12 +59,26 @@ public abstract class AbstractInstancer<D extends InstanceData> implements Insta
 
 		// Changing the owner reference will delete it in the other instancer
 		inOther.getOwner()
-				.notifyRemoval();
+				.notifyRemoval(inOther.getIndex());
 		_add(inOther);
 	}
 
 	@Override
 	public void notifyRemoval() {
+		unknownRemovals = true;
+		anyToRemove = true;
+	}
+
+	@Override
+	public void notifyRemoval(int index) {
+		if (index < 0) {
+			notifyRemoval();
+			return;
+		}
+
+		synchronized (removedIndices) {
+			removedIndices.add(index);
+		}
 		anyToRemove = true;
 	}
 
@@ -55,6 +87,10 @@ public abstract class AbstractInstancer<D extends InstanceData> implements Insta
 	 */
 	public void clear() {
 		data.clear();
+		synchronized (removedIndices) {
+			removedIndices.clear();
+		}
+		unknownRemovals = false;
 		anyToRemove = true;
 	}
 
@@ -71,13 +107,100 @@ public abstract class AbstractInstancer<D extends InstanceData> implements Insta
 	}
 
 	protected void removeDeletedInstances() {
+		if (ordered || unknownRemovals) {
+			synchronized (removedIndices) {
+				removedIndices.clear();
+			}
+			unknownRemovals = false;
+
+			if (ordered) {
+				removeDeletedInstancesOrdered();
+			} else {
+				removeDeletedInstancesScan();
+			}
+		} else {
+			removeDeletedInstancesIndexed();
+		}
+	}
+
+	/**
+	 * Remove only the recorded indices, filling each hole with the current last instance.
+	 * Each removal re-uploads at most one slot.
+	 */
+	private void removeDeletedInstancesIndexed() {
+		int[] indices;
+		int count;
+		synchronized (removedIndices) {
+			count = removedIndices.size();
+			indices = removedIndices.toIntArray();
+			removedIndices.clear();
+		}
+
+		// Going from the back means everything past the current index is already settled,
+		// so the last element is always a survivor (or the one being removed).
+		IntArrays.quickSort(indices, 0, count);
+
+		int size = data.size();
+		int previous = -1;
+		for (int k = count - 1; k >= 0; k--) {
+			int index = indices[k];
+			if (index == previous || index >= size) continue;
+			previous = index;
+
+			if (!isDeleted(data.get(index))) continue;
+
+			size--;
+			// only possible if something was removed behind our back, but never move a dead instance into the hole
+			while (size > index && isDeleted(data.get(size))) {
+				size--;
+			}
+			if (index != size) {
+				moveInto(data.get(size), index);
+			}
+		}
+
+		data.subList(size, data.size())
+				.clear();
+	}
+
+	/**
+	 * Find removed instances with a full scan, filling each hole with the last surviving instance.
+	 */
+	private void removeDeletedInstancesScan() {
+		int size = data.size();
+
+		for (int i = 0; i < size; ) {
+			if (isDeleted(data.get(i))) {
+				size--;
+				if (i != size) {
+					// the last element might be removed too, so don't advance until we've checked it
+					data.set(i, data.get(size));
+				}
+			} else {
+				D element = data.get(i);
+				if (element.getIndex() != i) {
+					element.setIndex(i);
+					element.markDirty();
+				}
+				i++;
+			}
+		}
+
+		data.subList(size, data.size())
+				.clear();
+	}
+
+	/**
+	 * Shift survivors left over the removed instances, keeping their relative order.
+	 */
+	private void removeDeletedInstancesOrdered() {
 		// Figure out which elements are to be removed.
 		final int oldSize = this.data.size();
 		int removeCount = 0;
 		final BitSet removeSet = new BitSet(oldSize);
 		for (int i = 0; i < oldSize; i++) {
 			final D element = this.data.get(i);
-			if (element.isRemoved() || element.getOwner() != this) {
+			if (isDeleted(element)) {
 				removeSet.set(i);
 				removeCount++;
 			}
@@ -90,12 +213,7 @@ public abstract class AbstractInstancer<D extends InstanceData> implements Insta
 			i = removeSet.nextClearBit(i);
 
 			if (i != j) {
-				D element = data.get(i);
-				data.set(j, element);
-				// Marking the data dirty marks us dirty too.
-				// Perhaps there will be some wasted cycles, but the JVM should be able to
-				// generate code that moves the repeated segment out of the loop.
-				element.markDirty();
+				moveInto(data.get(i), j);
 			}
 		}
 
@@ -104,13 +222,25 @@ public abstract class AbstractInstancer<D extends InstanceData> implements Insta
 
 	}
 
+	private boolean isDeleted(D element) {
+		return element.isRemoved() || element.getOwner() != this;
+	}
+
+	private void moveInto(D element, int index) {
+		data.set(index, element);
+		element.setIndex(index);
+		// Marking the data dirty marks us dirty too.
+		element.markDirty();
+	}
+
 	private D _add(D instanceData) {
 		instanceData.setOwner(this);
 
-		instanceData.markDirty();
 		synchronized (data) {
+			instanceData.setIndex(data.size());
 			data.add(instanceData);
 		}
+		instanceData.markDirty();
 
 		return instanceData;
 	}
@@ -12,6 +12,8 @@ import net.minecraft.client.renderer.RenderType;
 public class BatchDrawingTracker {
 
 	protected final Set<RenderType> activeTypes = new HashSet<>();
+	// every type we've handed out a consumer for, so their draw buffers can be freed
+	private final Set<RenderType> usedTypes = new HashSet<>();
 	private final BufferBuilder scratch;
 
 	public BatchDrawingTracker() {
@@ -28,6 +30,7 @@ public class BatchDrawingTracker {
 	 */
 	public DirectVertexConsumer getDirectConsumer(RenderType renderType, int vertexCount) {
 		activeTypes.add(renderType);
+		usedTypes.add(renderType);
 		return RenderTypeExtension.getDrawBuffer(renderType)
 				.begin(vertexCount);
 	}
@@ -36,11 +39,21 @@ public class BatchDrawingTracker {
 	 * Draws all active DrawBuffers and reset them.
 	 */
 	public void endBatch() {
+		endBatch(0, 0, 0);
+	}
+
+	/**
+	 * Draws all active DrawBuffers and reset them.
+	 * @param sortX The x coordinate of the camera in the space the vertices were written in, for sorting translucent quads.
+	 * @param sortY The y coordinate of the camera.
+	 * @param sortZ The z coordinate of the camera.
+	 */
+	public void endBatch(int sortX, int sortY, int sortZ) {
 		// TODO: when/if this causes trouble with shaders, try to inject our BufferBuilders
 		//  into the RenderBuffers from context.
 
 		for (RenderType renderType : activeTypes) {
-			_draw(renderType);
+			_draw(renderType, sortX, sortY, sortZ);
 		}
 
 		activeTypes.clear();
@@ -51,7 +64,16 @@ public class BatchDrawingTracker {
 	 * @param renderType The RenderType to draw.
 	 */
 	public void endBatch(RenderType renderType) {
-		_draw(renderType);
+		endBatch(renderType, 0, 0, 0);
+	}
+
+	/**
+	 * Draw and reset the DrawBuffer for the given RenderType.
+	 * @param renderType The RenderType to draw.
+	 * @see #endBatch(int, int, int)
+	 */
+	public void endBatch(RenderType renderType, int sortX, int sortY, int sortZ) {
+		_draw(renderType, sortX, sortY, sortZ);
 
 		activeTypes.remove(renderType);
 	}
@@ -67,14 +89,30 @@ public class BatchDrawingTracker {
 		activeTypes.clear();
 	}
 
-	private void _draw(RenderType renderType) {
+	/**
+	 * Free the GL resources of every DrawBuffer this tracker has used. They are recreated if drawn to again.
+	 */
+	public void delete() {
+		for (RenderType type : usedTypes) {
+			RenderTypeExtension.getDrawBuffer(type)
+					.delete();
+		}
+		usedTypes.clear();
+		activeTypes.clear();
+	}
+
+	private void _draw(RenderType renderType, int sortX, int sortY, int sortZ) {
 		DrawBuffer drawBuffer = RenderTypeExtension.getDrawBuffer(renderType);
 
 		BufferBuilderExtension scratch = (BufferBuilderExtension) this.scratch;
 		if (drawBuffer.hasVertices()) {
-			drawBuffer.inject(scratch);
+			if (drawBuffer.isPersistent()) {
+				drawBuffer.draw();
+			} else {
+				drawBuffer.inject(scratch);
 
-			renderType.end(this.scratch, 0, 0, 0);
+				renderType.end(this.scratch, sortX, sortY, sortZ);
+			}
 
 			drawBuffer.reset();
 		}
@@ -0,0 +1,83 @@
+package com.jozufozu.flywheel.backend.instancing;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.minecraft.util.Mth;
+
+/**
+ * Picks how many instances to hand to each parallel task, based on how long instances took to update last time.
+ * <p>
+ *     Cheap instances (chests) want large chunks so the per-task overhead doesn't dominate, expensive ones want small
+ *     chunks so the work still spreads evenly over all threads.
+ * </p>
+ */
+public class ChunkSizer {
+	/**
+	 * How long we'd like a single task to run for.
+	 */
+	private static final long TARGET_CHUNK_NANOS = 100_000;
+	/**
+	 * How many tasks each thread should get at minimum, so stealing can even out the load.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+	private static final int MIN_CHUNK_SIZE = 16;
+	private static final int MAX_CHUNK_SIZE = 4096;
+	private static final int DEFAULT_CHUNK_SIZE = 500;
+
+	private final AtomicLong nanos = new AtomicLong();
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * Smoothed nanoseconds per instance, or a negative number if we haven't measured anything yet.
+	 */
+	private double nanosPerInstance = -1;
+
+	/**
+	 * Fold the measurements from the last round into the running estimate. Call before submitting a new round.
+	 */
+	public void update() {
+		long n = nanos.getAndSet(0);
+		int c = count.getAndSet(0);
+
+		if (c == 0) {
+			return;
+		}
+
+		double sample = (double) n / c;
+
+		if (nanosPerInstance < 0) {
+			nanosPerInstance = sample;
+		} else {
+			// exponential moving average so one hitch doesn't swing the chunk size around
+			nanosPerInstance += (sample - nanosPerInstance) * 0.25;
+		}
+	}
+
+	/**
+	 * @param size        The total number of instances to update.
+	 * @param threadCount The number of threads that will be working on the instances.
+	 * @return The number of instances each task should process.
+	 */
+	public int getChunkSize(int size, int threadCount) {
+		int chunks = threadCount * CHUNKS_PER_THREAD;
+		int byBalance = (size + chunks - 1) / chunks;
+
+		int byTime;
+		if (nanosPerInstance <= 0) {
+			byTime = DEFAULT_CHUNK_SIZE;
+		} else {
+			byTime = (int) Math.min(TARGET_CHUNK_NANOS / nanosPerInstance, MAX_CHUNK_SIZE);
+		}
+
+		return Mth.clamp(Math.min(byTime, byBalance), MIN_CHUNK_SIZE, MAX_CHUNK_SIZE);
+	}
+
+	/**
+	 * Record the time it took to process a chunk. Thread safe.
+	 */
+	public void record(long elapsedNanos, int instances) {
+		nanos.addAndGet(elapsedNanos);
+		count.addAndGet(instances);
+	}
+}
@@ -3,18 +3,39 @@ package com.jozufozu.flywheel.backend.instancing;
 import java.nio.ByteBuffer;
 
 import org.jetbrains.annotations.ApiStatus;
+import org.lwjgl.opengl.GL32;
 import org.lwjgl.system.MemoryUtil;
 
+import com.jozufozu.flywheel.backend.gl.GlPrimitive;
+import com.jozufozu.flywheel.backend.gl.GlVertexArray;
+import com.jozufozu.flywheel.backend.gl.buffer.GlBufferType;
+import com.jozufozu.flywheel.backend.gl.buffer.PersistentGlBuffer;
+import com.jozufozu.flywheel.backend.gl.versioned.GlCompat;
 import com.jozufozu.flywheel.backend.model.BufferBuilderExtension;
 import com.jozufozu.flywheel.backend.model.DirectVertexConsumer;
+import com.jozufozu.flywheel.backend.model.ElementBuffer;
+import com.jozufozu.flywheel.config.FlwConfig;
+import com.jozufozu.flywheel.core.QuadConverter;
+import com.mojang.blaze3d.platform.Window;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferUploader;
 import com.mojang.blaze3d.vertex.VertexFormat;
 
+import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.renderer.ShaderInstance;
+import net.minecraft.util.Mth;
 
 /**
  * A byte buffer that can be used to draw vertices through a {@link DirectVertexConsumer}.
  *
  * The number of vertices needs to be known ahead of time.
+ *
+ * <p>
+ *     If enabled in the config and supported, vertices are written straight into a persistently mapped GL buffer
+ *     and drawn from there with {@link #draw()}, instead of being copied into a vanilla buffer first. RenderTypes
+ *     that sort their quads, or that aren't made of quads, always go through vanilla.
+ * </p>
  */
 public class DrawBuffer {
 
@@ -22,6 +43,12 @@ public class DrawBuffer {
 	private ByteBuffer backingBuffer;
 	private int expectedVertices;
 
+	private PersistentGlBuffer persistentBuffer;
+	private GlVertexArray vao;
+	// set when the vao's attributes need to be pointed at the persistent buffer again
+	private boolean vaoStale = true;
+	private boolean persistent;
+
 	@ApiStatus.Internal
 	public DrawBuffer(RenderType parent) {
 		this.parent = parent;
@@ -42,6 +69,11 @@ public class DrawBuffer {
 
 		VertexFormat format = parent.format();
 
+		persistent = shouldUsePersistent();
+		if (persistent) {
+			return beginPersistent(format, vertexCount);
+		}
+
 		// Add one extra vertex to uphold the vanilla assumption that BufferBuilders have at least
 		// enough buffer space for one more vertex. Rubidium checks for this extra space when popNextBuffer
 		// is called and reallocates the buffer if there is not space for one more vertex.
@@ -57,6 +89,39 @@ public class DrawBuffer {
 		return new DirectVertexConsumer(backingBuffer, format, vertexCount);
 	}
 
+	private boolean shouldUsePersistent() {
+		return FlwConfig.get().persistentDrawBuffers()
+				&& GlCompat.getInstance().bufferStorageSupported()
+				// draw() indexes everything as quads
+				&& parent.mode() == VertexFormat.Mode.QUADS
+				&& !((RenderTypeExtension) parent).flywheel$sortsOnUpload();
+	}
+
+	private DirectVertexConsumer beginPersistent(VertexFormat format, int vertexCount) {
+		int vertexSize = format.getVertexSize();
+
+		if (persistentBuffer == null) {
+			persistentBuffer = new PersistentGlBuffer(GlBufferType.ARRAY_BUFFER);
+			// keep the segment size a whole number of vertices so draws can address them with a base vertex
+			persistentBuffer.setGrowthMargin(vertexSize * 1024);
+			vao = new GlVertexArray();
+		}
+
+		int byteSize = vertexSize * vertexCount;
+
+		// XXX ARRAY_BUFFER is bound and restored
+		int oldBuffer = GlBufferType.ARRAY_BUFFER.getBoundBuffer();
+		persistentBuffer.bind();
+		if (persistentBuffer.ensureCapacity(Math.max(byteSize, vertexSize))) {
+			// reallocation deletes the old buffer, and the new one may well get the same name back
+			vaoStale = true;
+		}
+		long ptr = persistentBuffer.getSegmentAddress();
+		GlBufferType.ARRAY_BUFFER.bind(oldBuffer);
+
+		return new DirectVertexConsumer(MemoryUtil.memByteBuffer(ptr, byteSize), format, vertexCount);
+	}
+
 	/**
 	 * Injects the backing buffer into the given builder and prepares it for rendering.
 	 * @param bufferBuilder The buffer builder to inject into.
@@ -65,6 +130,118 @@ public class DrawBuffer {
 		bufferBuilder.flywheel$injectForRender(backingBuffer, parent.format(), expectedVertices);
 	}
 
+	/**
+	 * @return {@code true} if this frame's vertices are in a persistent buffer, and must be drawn with {@link #draw()}.
+	 */
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	/**
+	 * Draw this frame's vertices straight out of the persistent buffer.
+	 *
+	 * <p>
+	 *     Does the same as {@link RenderType#end} would with the vertices injected into a BufferBuilder, minus the
+	 *     upload.
+	 * </p>
+	 */
+	public void draw() {
+		VertexFormat format = parent.format();
+
+		parent.setupRenderState();
+
+		// XXX Vanilla's cached buffer bindings are reset before and after
+		BufferUploader.reset();
+
+		ShaderInstance shader = RenderSystem.getShader();
+		if (shader != null) {
+			setupShader(shader);
+			shader.apply();
+
+			// XXX VAO is bound and reset
+			vao.bind();
+			if (vaoStale) {
+				// the vao remembers which buffer the attributes read from
+				persistentBuffer.bind();
+				format.setupBufferState();
+				vaoStale = false;
+			}
+
+			int quads = expectedVertices / 4;
+			// round up so we only ever ask for a handful of different element buffers
+			ElementBuffer ebo = QuadConverter.getInstance()
+					.quads2Tris(Mth.smallestEncompassingPowerOfTwo(quads));
+			ebo.bind();
+
+			int baseVertex = (int) (persistentBuffer.getFrameOffset() / format.getVertexSize());
+			GL32.glDrawElementsBaseVertex(GlPrimitive.TRIANGLES.glEnum, quads * 6, ebo.getEboIndexType().asGLType, 0, baseVertex);
+
+			shader.clear();
+		}
+
+		BufferUploader.reset();
+
+		parent.clearRenderState();
+
+		persistentBuffer.doneForThisFrame();
+	}
+
+	/**
+	 * Upload the same uniforms vanilla does before drawing an immediate mode buffer.
+	 */
+	private static void setupShader(ShaderInstance shader) {
+		for (int i = 0; i < 8; i++) {
+			shader.setSampler("Sampler" + i, RenderSystem.getShaderTexture(i));
+		}
+
+		if (shader.MODEL_VIEW_MATRIX != null) {
+			shader.MODEL_VIEW_MATRIX.set(RenderSystem.getModelViewMatrix());
+		}
+
+		if (shader.PROJECTION_MATRIX != null) {
+			shader.PROJECTION_MATRIX.set(RenderSystem.getProjectionMatrix());
+		}
+
+		if (shader.COLOR_MODULATOR != null) {
+			shader.COLOR_MODULATOR.set(RenderSystem.getShaderColor());
+		}
+
+		if (shader.FOG_START != null) {
+			shader.FOG_START.set(RenderSystem.getShaderFogStart());
+		}
+
+		if (shader.FOG_END != null) {
+			shader.FOG_END.set(RenderSystem.getShaderFogEnd());
+		}
+
+		if (shader.FOG_COLOR != null) {
+			shader.FOG_COLOR.set(RenderSystem.getShaderFogColor());
+		}
+
+		if (shader.FOG_SHAPE != null) {
+			shader.FOG_SHAPE.set(RenderSystem.getShaderFogShape().getIndex());
+		}
+
+		if (shader.TEXTURE_MATRIX != null) {
+			shader.TEXTURE_MATRIX.set(RenderSystem.getTextureMatrix());
+		}
+
+		if (shader.GAME_TIME != null) {
+			shader.GAME_TIME.set(RenderSystem.getShaderGameTime());
+		}
+
+		if (shader.SCREEN_SIZE != null) {
+			Window window = Minecraft.getInstance().getWindow();
+			shader.SCREEN_SIZE.set((float) window.getWidth(), (float) window.getHeight());
+		}
+
+		if (shader.LINE_WIDTH != null) {
+			shader.LINE_WIDTH.set(RenderSystem.getShaderLineWidth());
+		}
+
+		RenderSystem.setupShaderLights(shader);
+	}
+
 	/**
 	 * @return {@code true} if the buffer has any vertices.
 	 */
@@ -72,6 +249,27 @@ public class DrawBuffer {
 		return expectedVertices > 0;
 	}
 
+	/**
+	 * Free the persistent buffer, its vertex array and the backing buffer. The draw buffer can still be used
+	 * afterwards; everything is allocated again on the next {@link #begin}.
+	 */
+	public void delete() {
+		if (persistentBuffer != null) {
+			persistentBuffer.delete();
+			vao.delete();
+			persistentBuffer = null;
+			vao = null;
+			vaoStale = true;
+		}
+
+		if (backingBuffer != null) {
+			MemoryUtil.memFree(backingBuffer);
+			backingBuffer = null;
+		}
+
+		reset();
+	}
+
 	/**
 	 * Reset the draw buffer to have no vertices.
 	 *
@@ -0,0 +1,88 @@
+package com.jozufozu.flywheel.backend.instancing;
+
+import com.jozufozu.flywheel.api.instance.DynamicInstance;
+import com.jozufozu.flywheel.backend.instancing.entity.EntityInstance;
+import com.jozufozu.flywheel.mixin.FrustumAccessor;
+import com.jozufozu.flywheel.util.box.ImmutableBox;
+
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import net.minecraft.client.renderer.culling.Frustum;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+
+/**
+ * Frustum tests for {@link DynamicInstance}s, so instances the camera can't see don't have to animate.
+ * <p>
+ *     Block-aligned instances are first tested by the chunk section they sit in. Each section is tested against the
+ *     frustum once and the result is kept until the next {@link #begin}, so every instance in a hidden section is
+ *     rejected with a hash lookup. Not thread safe: keep one per worker thread and call {@link #begin} at the start
+ *     of every task.
+ * </p>
+ */
+public class InstanceCuller {
+	/**
+	 * How far past its block an instance's model may reach. Chest lids, bells, etc. all stay well within this.
+	 */
+	private static final double MARGIN = 1;
+
+	private static final byte UNKNOWN = 0;
+	private static final byte VISIBLE = 1;
+	private static final byte HIDDEN = 2;
+
+	private final Long2ByteOpenHashMap sections = new Long2ByteOpenHashMap();
+
+	private FrustumAccessor frustum;
+	private int frame = -1;
+
+	public InstanceCuller() {
+		sections.defaultReturnValue(UNKNOWN);
+	}
+
+	/**
+	 * Get ready to test against the given frustum.
+	 *
+	 * @param frame Identifies the pass; the section results are only thrown away when this or the frustum changes,
+	 *              so tasks of the same pass that land on the same thread share them.
+	 */
+	public void begin(Frustum frustum, int frame) {
+		FrustumAccessor accessor = (FrustumAccessor) frustum;
+		if (accessor != this.frustum || frame != this.frame) {
+			this.frustum = accessor;
+			this.frame = frame;
+			sections.clear();
+		}
+	}
+
+	public boolean isVisible(DynamicInstance instance) {
+		if (instance instanceof EntityInstance<?> entityInstance) {
+			ImmutableBox box = entityInstance.getVolume();
+			return frustum.flywheel$cubeInFrustum(box.getMinX() - MARGIN, box.getMinY() - MARGIN, box.getMinZ() - MARGIN, box.getMaxX() + MARGIN, box.getMaxY() + MARGIN, box.getMaxZ() + MARGIN);
+		}
+
+		BlockPos pos = instance.getWorldPosition();
+		int x = pos.getX();
+		int y = pos.getY();
+		int z = pos.getZ();
+
+		if (!isSectionVisible(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(y), SectionPos.blockToSectionCoord(z))) {
+			return false;
+		}
+
+		return frustum.flywheel$cubeInFrustum(x - MARGIN, y - MARGIN, z - MARGIN, x + 1 + MARGIN, y + 1 + MARGIN, z + 1 + MARGIN);
+	}
+
+	private boolean isSectionVisible(int sectionX, int sectionY, int sectionZ) {
+		long section = SectionPos.asLong(sectionX, sectionY, sectionZ);
+
+		byte state = sections.get(section);
+		if (state == UNKNOWN) {
+			int sX = SectionPos.sectionToBlockCoord(sectionX);
+			int sY = SectionPos.sectionToBlockCoord(sectionY);
+			int sZ = SectionPos.sectionToBlockCoord(sectionZ);
+			state = frustum.flywheel$cubeInFrustum(sX - MARGIN, sY - MARGIN, sZ - MARGIN, sX + 16 + MARGIN, sY + 16 + MARGIN, sZ + 16 + MARGIN) ? VISIBLE : HIDDEN;
+			sections.put(section, state);
+		}
+
+		return state == VISIBLE;
+	}
+}
@@ -14,19 +14,28 @@ import com.jozufozu.flywheel.api.MaterialManager;
 import com.jozufozu.flywheel.api.instance.DynamicInstance;
 import com.jozufozu.flywheel.api.instance.TickableInstance;
 import com.jozufozu.flywheel.backend.Backend;
-import com.jozufozu.flywheel.backend.instancing.instancing.InstancingEngine;
+import com.jozufozu.flywheel.backend.FrameProfiler;
 import com.jozufozu.flywheel.backend.instancing.ratelimit.BandedPrimeLimiter;
 import com.jozufozu.flywheel.backend.instancing.ratelimit.DistanceUpdateLimiter;
 import com.jozufozu.flywheel.backend.instancing.ratelimit.NonLimiter;
 import com.jozufozu.flywheel.config.FlwConfig;
 import com.jozufozu.flywheel.light.LightUpdater;
+import com.jozufozu.flywheel.util.DenseArrayMap;
 import com.mojang.math.Vector3f;
 
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import net.minecraft.client.Camera;
+import net.minecraft.client.renderer.culling.Frustum;
 import net.minecraft.core.BlockPos;
 
-public abstract class InstanceManager<T> implements InstancingEngine.OriginShiftListener {
+public abstract class InstanceManager<T> implements OriginShiftListener {
+
+	private static final ThreadLocal<InstanceCuller> CULLERS = ThreadLocal.withInitial(InstanceCuller::new);
+
+	/**
+	 * Bumped for every culled frame, so each worker's culler knows when to forget the sections it has tested.
+	 * Only touched on the render thread.
+	 */
+	private static int cullFrame;
 
 	public final MaterialManager materialManager;
 
@@ -34,20 +43,31 @@ public abstract class InstanceManager<T> implements InstancingEngine.OriginShift
 	private final Set<T> queuedUpdates;
 
 	protected final Map<T, AbstractInstance> instances;
-	protected final Object2ObjectOpenHashMap<T, TickableInstance> tickableInstances;
-	protected final Object2ObjectOpenHashMap<T, DynamicInstance> dynamicInstances;
+	// Dense so the per-frame and per-tick loops walk a flat array without copying it first.
+	protected final DenseArrayMap<T, TickableInstance> tickableInstances;
+	protected final DenseArrayMap<T, DynamicInstance> dynamicInstances;
 
 	protected DistanceUpdateLimiter frame;
 	protected DistanceUpdateLimiter tick;
 
+	private final ChunkSizer frameChunks = new ChunkSizer();
+	private final ChunkSizer tickChunks = new ChunkSizer();
+
+	/**
+	 * The engine running tasks that walk {@link #tickableInstances} or {@link #dynamicInstances}, if they might not
+	 * have finished yet.
+	 */
+	@Nullable
+	private TaskEngine runningTasks;
+
 	public InstanceManager(MaterialManager materialManager) {
 		this.materialManager = materialManager;
 		this.queuedUpdates = new HashSet<>(64);
 		this.queuedAdditions = new HashSet<>(64);
 		this.instances = new HashMap<>();
 
-		this.dynamicInstances = new Object2ObjectOpenHashMap<>();
-		this.tickableInstances = new Object2ObjectOpenHashMap<>();
+		this.dynamicInstances = new DenseArrayMap<>();
+		this.tickableInstances = new DenseArrayMap<>();
 
 		frame = createUpdateLimiter();
 		tick = createUpdateLimiter();
@@ -109,22 +129,27 @@ public abstract class InstanceManager<T> implements InstancingEngine.OriginShift
 		int cY = (int) cameraY;
 		int cZ = (int) cameraZ;
 
-		ArrayList<TickableInstance> instances = new ArrayList<>(tickableInstances.values());
-		int incr = 500;
+		DenseArrayMap<T, TickableInstance> instances = tickableInstances;
 		int size = instances.size();
-		int start = 0;
-		while (start < size) {
-			int end = Math.min(start + incr, size);
-
-			List<TickableInstance> sub = instances.subList(start, end);
-			taskEngine.submit(() -> {
-				for (TickableInstance instance : sub) {
-					tickInstance(cX, cY, cZ, instance);
+
+		tickChunks.update();
+		int incr = tickChunks.getChunkSize(size, taskEngine.getThreadCount());
+		List<Runnable> tasks = new ArrayList<>(size / incr + 1);
+		for (int start = 0; start < size; start += incr) {
+			int from = start;
+			int to = Math.min(start + incr, size);
+
+			tasks.add(() -> {
+				long begin = System.nanoTime();
+				for (int i = from; i < to; i++) {
+					// removals wait for these tasks, so every slot is filled
+					tickInstance(cX, cY, cZ, instances.valueAt(i));
 				}
+				tickChunks.record(System.nanoTime() - begin, to - from);
 			});
-
-			start += incr;
 		}
+		taskEngine.submitAll(tasks);
+		runningTasks = taskEngine;
 	}
 
 	protected void tickInstance(int cX, int cY, int cZ, TickableInstance instance) {
@@ -143,6 +168,16 @@ public abstract class InstanceManager<T> implements InstancingEngine.OriginShift
 	}
 
 	public void beginFrame(TaskEngine taskEngine, Camera info) {
+		beginFrame(taskEngine, info, null);
+	}
+
+	/**
+	 * Call {@link DynamicInstance#beginFrame()} on all dynamic instances that need it this frame.
+	 *
+	 * @param frustum If not null, instances that opt in to distance based rate limiting are also skipped when they
+	 *                are outside of the frustum.
+	 */
+	public void beginFrame(TaskEngine taskEngine, Camera info, @Nullable Frustum frustum) {
 		frame.tick();
 		processQueuedAdditions();
 
@@ -156,22 +191,39 @@ public abstract class InstanceManager<T> implements InstancingEngine.OriginShift
 		int cY = (int) info.getPosition().y;
 		int cZ = (int) info.getPosition().z;
 
-		ArrayList<DynamicInstance> instances = new ArrayList<>(dynamicInstances.values());
-		int incr = 500;
+		DenseArrayMap<T, DynamicInstance> instances = dynamicInstances;
 		int size = instances.size();
-		int start = 0;
-		while (start < size) {
-			int end = Math.min(start + incr, size);
 
-			List<DynamicInstance> sub = instances.subList(start, end);
-			taskEngine.submit(() -> {
-				for (DynamicInstance dyn : sub) {
+		int cullFrame = frustum != null ? ++InstanceManager.cullFrame : 0;
+
+		frameChunks.update();
+		int incr = frameChunks.getChunkSize(size, taskEngine.getThreadCount());
+		List<Runnable> tasks = new ArrayList<>(size / incr + 1);
+		for (int start = 0; start < size; start += incr) {
+			int from = start;
+			int to = Math.min(start + incr, size);
+
+			tasks.add(() -> {
+				long begin = System.nanoTime();
+				InstanceCuller culler = null;
+				if (frustum != null) {
+					culler = CULLERS.get();
+					culler.begin(frustum, cullFrame);
+				}
+				for (int i = from; i < to; i++) {
+					DynamicInstance dyn = instances.valueAt(i);
+
+					if (culler != null && dyn.decreaseFramerateWithDistance() && !culler.isVisible(dyn)) continue;
+
 					updateInstance(dyn, lookX, lookY, lookZ, cX, cY, cZ);
 				}
+				long elapsed = System.nanoTime() - begin;
+				frameChunks.record(elapsed, to - from);
+				FrameProfiler.add(FrameProfiler.Metric.DYNAMIC_UPDATES, elapsed);
 			});
-
-			start += incr;
 		}
+		taskEngine.submitAll(tasks);
+		runningTasks = taskEngine;
 	}
 
 	protected void updateInstance(DynamicInstance dyn, float lookX, float lookY, float lookZ, int cX, int cY, int cZ) {
@@ -261,6 +313,7 @@ public abstract class InstanceManager<T> implements InstancingEngine.OriginShift
 	}
 
 	public void invalidate() {
+		awaitTasks();
 		instances.values().forEach(AbstractInstance::removeAndMark);
 		instances.clear();
 		dynamicInstances.clear();
@@ -287,7 +340,9 @@ public abstract class InstanceManager<T> implements InstancingEngine.OriginShift
 		}
 
 		if (!queued.isEmpty()) {
+			long start = FrameProfiler.begin();
 			queued.forEach(this::addInternal);
+			FrameProfiler.end(FrameProfiler.Metric.QUEUED_ADDITIONS, start);
 		}
 	}
 
@@ -315,6 +370,7 @@ public abstract class InstanceManager<T> implements InstancingEngine.OriginShift
 	}
 
 	protected void removeInternal(T obj, AbstractInstance instance) {
+		awaitTasks();
 		instance.removeAndMark();
 		instances.remove(obj);
 		dynamicInstances.remove(obj);
@@ -348,6 +404,22 @@ public abstract class InstanceManager<T> implements InstancingEngine.OriginShift
 		return renderer;
 	}
 
+	/**
+	 * Wait for the tick and frame tasks to finish before removing from the dense maps.
+	 * <p>
+	 *     The tasks walk the maps by index, and a swap-remove moves another instance into the removed slot, so
+	 *     removing while they run could skip an instance or update one twice at the same time. Appending is fine:
+	 *     the tasks only look at the indices that existed when they were submitted.
+	 * </p>
+	 */
+	protected void awaitTasks() {
+		TaskEngine engine = runningTasks;
+		if (engine != null) {
+			runningTasks = null;
+			engine.syncPoint();
+		}
+	}
+
 	@Override
 	public void onOriginShift() {
 		ArrayList<T> instanced = new ArrayList<>(instances.keySet());
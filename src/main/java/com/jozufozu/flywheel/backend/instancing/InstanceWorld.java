@@ -3,14 +3,19 @@ package com.jozufozu.flywheel.backend.instancing;
 import com.jozufozu.flywheel.api.instance.DynamicInstance;
 import com.jozufozu.flywheel.api.instance.TickableInstance;
 import com.jozufozu.flywheel.backend.Backend;
+import com.jozufozu.flywheel.backend.FrameProfiler;
+import com.jozufozu.flywheel.backend.GpuProfiler;
+import com.jozufozu.flywheel.backend.gl.buffer.PersistentGlBuffer;
 import com.jozufozu.flywheel.backend.instancing.batching.BatchingEngine;
 import com.jozufozu.flywheel.backend.instancing.blockentity.BlockEntityInstanceManager;
 import com.jozufozu.flywheel.backend.instancing.entity.EntityInstanceManager;
+import com.jozufozu.flywheel.backend.instancing.indirect.IndirectEngine;
 import com.jozufozu.flywheel.backend.instancing.instancing.InstancingEngine;
 import com.jozufozu.flywheel.core.Contexts;
 import com.jozufozu.flywheel.core.shader.WorldProgram;
 import com.jozufozu.flywheel.event.BeginFrameEvent;
 import com.jozufozu.flywheel.event.RenderLayerEvent;
+import com.jozufozu.flywheel.light.LightUpdater;
 import com.jozufozu.flywheel.util.ClientLevelExtension;
 
 import net.minecraft.client.Minecraft;
@@ -45,6 +50,16 @@ public class InstanceWorld {
 			manager.addListener(blockEntityInstanceManager);
 			yield new InstanceWorld(manager, entityInstanceManager, blockEntityInstanceManager);
 		}
+		case INDIRECT -> {
+			var manager = new IndirectEngine<>(Contexts.WORLD);
+
+			var entityInstanceManager = new EntityInstanceManager(manager);
+			var blockEntityInstanceManager = new BlockEntityInstanceManager(manager);
+
+			manager.addListener(entityInstanceManager);
+			manager.addListener(blockEntityInstanceManager);
+			yield new InstanceWorld(manager, entityInstanceManager, blockEntityInstanceManager);
+		}
 		case BATCHING -> {
 			var manager = new BatchingEngine();
 			var entityInstanceManager = new EntityInstanceManager(manager);
@@ -85,16 +100,33 @@ public class InstanceWorld {
 	 * <p>
 	 *     Check and shift the origin coordinate.
 	 *     <br>
+	 *     Deliver queued light updates.
+	 *     <br>
 	 *     Call {@link DynamicInstance#beginFrame()} on all instances in this world.
 	 * </p>
 	 */
 	public void beginFrame(BeginFrameEvent event) {
+		taskEngine.endFrame();
+		PersistentGlBuffer.endFrame();
+
+		FrameProfiler.add(FrameProfiler.Metric.SYNC_WAIT, taskEngine.getLastWaitNanos());
+		FrameProfiler.endFrame();
+		GpuProfiler.endFrame();
+		long start = FrameProfiler.begin();
+
 		engine.beginFrame(event.getCamera());
 
 		taskEngine.syncPoint();
 
-		blockEntityInstanceManager.beginFrame(taskEngine, event.getCamera());
-		entityInstanceManager.beginFrame(taskEngine, event.getCamera());
+		// after the sync so no tick tasks are still touching the listeners
+		if (LightUpdater.dispatchAll(taskEngine)) {
+			taskEngine.syncPoint();
+		}
+
+		blockEntityInstanceManager.beginFrame(taskEngine, event.getCamera(), event.getFrustum());
+		entityInstanceManager.beginFrame(taskEngine, event.getCamera(), event.getFrustum());
+
+		FrameProfiler.end(FrameProfiler.Metric.BEGIN_FRAME, start);
 	}
 
 	/**
@@ -117,11 +149,15 @@ public class InstanceWorld {
 	 * Draw the given layer.
 	 */
 	public void renderLayer(RenderLayerEvent event) {
+		long start = FrameProfiler.begin();
+
 		taskEngine.syncPoint();
 		event.stack.pushPose();
 		event.stack.translate(-event.camX, -event.camY, -event.camZ);
 		engine.render(taskEngine, event);
 		event.stack.popPose();
+
+		FrameProfiler.end(FrameProfiler.Metric.RENDER, start);
 	}
 
 	/**
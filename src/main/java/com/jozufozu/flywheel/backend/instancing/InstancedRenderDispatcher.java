@@ -4,11 +4,14 @@ import java.util.List;
 
 import com.jozufozu.flywheel.Flywheel;
 import com.jozufozu.flywheel.backend.Backend;
+import com.jozufozu.flywheel.backend.FrameProfiler;
+import com.jozufozu.flywheel.backend.GpuProfiler;
 import com.jozufozu.flywheel.config.FlwCommands;
 import com.jozufozu.flywheel.config.FlwConfig;
 import com.jozufozu.flywheel.event.BeginFrameEvent;
 import com.jozufozu.flywheel.event.ReloadRenderersEvent;
 import com.jozufozu.flywheel.event.RenderLayerEvent;
+import com.jozufozu.flywheel.light.LightUpdater;
 import com.jozufozu.flywheel.util.AnimationTickHolder;
 import com.jozufozu.flywheel.util.WorldAttached;
 
@@ -91,9 +94,14 @@ public class InstancedRenderDispatcher {
 
 	@SubscribeEvent
 	public static void onBeginFrame(BeginFrameEvent event) {
-		if (Backend.isGameActive() && Backend.isOn()) {
+		if (!Backend.isGameActive()) return;
+
+		if (Backend.isOn()) {
 			instanceWorlds.get(event.getWorld())
 					.beginFrame(event);
+		} else {
+			// there may still be light volumes listening without instancing
+			LightUpdater.dispatchAll(SerialTaskEngine.INSTANCE);
 		}
 	}
 
@@ -145,6 +153,17 @@ public class InstancedRenderDispatcher {
 			debug.add("Update limiting: " + FlwCommands.boolToText(FlwConfig.get().limitUpdates()).getString());
 			debug.add("B: " + instanceWorld.blockEntityInstanceManager.getObjectCount() + ", E: " + instanceWorld.entityInstanceManager.getObjectCount());
 			instanceWorld.engine.addDebugInfo(debug);
+			instanceWorld.taskEngine.addDebugInfo(debug);
+			if (FrameProfiler.isRecording()) {
+				debug.add("Profiler p99: beginFrame " + FrameProfiler.Unit.NANOS.format(FrameProfiler.percentile(FrameProfiler.Metric.BEGIN_FRAME, 99))
+						+ ", render " + FrameProfiler.Unit.NANOS.format(FrameProfiler.percentile(FrameProfiler.Metric.RENDER, 99)));
+			}
+			if (GpuProfiler.isEnabled()) {
+				GpuProfiler.getTimings()
+						.stream()
+						.limit(5)
+						.forEach(timing -> debug.add(String.format("GPU %.3fms %s", timing.getAverageNanos() / 1e6, timing.label)));
+			}
 		} else {
 			debug.add("Disabled");
 		}
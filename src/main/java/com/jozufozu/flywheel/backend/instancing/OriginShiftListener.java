@@ -0,0 +1,9 @@
+package com.jozufozu.flywheel.backend.instancing;
+
+/**
+ * Notified after a {@link RenderOrigin} moves, so anything positioned relative to it can be rebuilt.
+ */
+@FunctionalInterface
+public interface OriginShiftListener {
+	void onOriginShift();
+}
@@ -1,12 +1,15 @@
 package com.jozufozu.flywheel.backend.instancing;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.jetbrains.annotations.NotNull;
@@ -20,6 +23,14 @@ import com.jozufozu.flywheel.backend.instancing.batching.WaitGroup;
 import net.minecraft.util.Mth;
 
 // https://github.com/CaffeineMC/sodium-fabric/blob/5d364ed5ba63f9067fcf72a078ca310bff4db3e9/src/main/java/me/jellysquid/mods/sodium/client/render/chunk/compile/ChunkBuilder.java
+/**
+ * A work-stealing thread pool.
+ * <p>
+ *     Each worker owns a deque. Workers pop their own jobs LIFO from the tail and steal other workers' jobs FIFO from
+ *     the head. Jobs submitted from outside the pool are spread round-robin over the workers' deques. Idle workers
+ *     park instead of waiting on a shared monitor, and are only unparked when there is new work for them.
+ * </p>
+ */
 public class ParallelTaskEngine implements TaskEngine {
 	private static final Logger LOGGER = LoggerFactory.getLogger("BatchExecutor");
 
@@ -32,22 +43,51 @@ public class ParallelTaskEngine implements TaskEngine {
 	private final WaitGroup wg = new WaitGroup();
 
 	private final Deque<Runnable> syncTasks = new ConcurrentLinkedDeque<>();
-	private final Deque<Runnable> jobQueue = new ConcurrentLinkedDeque<>();
-	private final List<Thread> threads = new ArrayList<>();
+	private final List<WorkerThread> threads = new ArrayList<>();
 
-	private final Object jobNotifier = new Object();
+	/**
+	 * One deque per worker, indexed by {@link WorkerThread#index}.
+	 */
+	private final Deque<Runnable>[] queues;
+	private final AtomicInteger nextQueue = new AtomicInteger(0);
 
 	private final int threadCount;
 
+	// Stats for the frame in progress. Only touched by the thread calling syncPoint.
+	private long syncNanos;
+	private long waitNanos;
+	private int syncJobs;
+	private int syncCount;
+
+	// Stats for the last completed frame.
+	private long lastSyncNanos;
+	private long lastWaitNanos;
+	private int lastSyncJobs;
+	private int lastSyncCount;
+
+	@SuppressWarnings("unchecked")
 	public ParallelTaskEngine(String name) {
 		this.name = name;
 		threadCount = getOptimalThreadCount();
+
+		queues = new Deque[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			queues[i] = new ConcurrentLinkedDeque<>();
+		}
 	}
 
 	public WorkGroupBuilder group(String name) {
 		return new WorkGroupBuilder(name);
 	}
 
+	/**
+	 * @return The number of worker threads this engine runs, plus the thread calling {@link #syncPoint()}.
+	 */
+	@Override
+	public int getThreadCount() {
+		return threadCount + 1;
+	}
+
 	/**
 	 * Spawns a number of work-stealing threads to process results in the build queue. If the builder is already
 	 * running, this method does nothing and exits.
@@ -63,7 +103,7 @@ public class ParallelTaskEngine implements TaskEngine {
 
 		for (int i = 0; i < this.threadCount; i++) {
 
-			Thread thread = new Thread(new WorkerRunnable(), name + " " + i);
+			WorkerThread thread = new WorkerThread(i, name + " " + i);
 			thread.setPriority(Math.max(0, Thread.NORM_PRIORITY - 2));
 			thread.start();
 
@@ -82,8 +122,8 @@ public class ParallelTaskEngine implements TaskEngine {
 			throw new IllegalStateException("No threads are alive but the executor is in the RUNNING state");
 		}
 
-		synchronized (this.jobNotifier) {
-			this.jobNotifier.notifyAll();
+		for (WorkerThread thread : this.threads) {
+			LockSupport.unpark(thread);
 		}
 
 		try {
@@ -95,7 +135,9 @@ public class ParallelTaskEngine implements TaskEngine {
 
 		this.threads.clear();
 
-		this.jobQueue.clear();
+		for (Deque<Runnable> queue : this.queues) {
+			queue.clear();
+		}
 	}
 
 	/**
@@ -103,51 +145,165 @@ public class ParallelTaskEngine implements TaskEngine {
 	 */
 	@Override
 	public void submit(@NotNull Runnable command) {
-		this.jobQueue.add(command);
 		this.wg.add(1);
+		this.enqueue(command);
 
-		synchronized (this.jobNotifier) {
-			this.jobNotifier.notify();
+		this.wakeWorkers(1);
+	}
+
+	/**
+	 * Submit many tasks to the pool at once.
+	 * <p>
+	 *     Workers are woken once after all the tasks have been queued, rather than once per task.
+	 * </p>
+	 */
+	@Override
+	public void submitAll(@NotNull Collection<? extends Runnable> commands) {
+		if (commands.isEmpty()) {
+			return;
 		}
+
+		this.wg.add(commands.size());
+		for (Runnable command : commands) {
+			this.enqueue(command);
+		}
+
+		this.wakeWorkers(commands.size());
 	}
 
 	/**
 	 * Wait for all running jobs to finish.
+	 * <p>
+	 *     Work group finalizers are run on the calling thread as soon as their group completes, while the rest of the
+	 *     jobs are still running.
+	 * </p>
 	 */
 	@Override
 	public void syncPoint() {
-		Runnable job;
+		long start = System.nanoTime();
 
-		// Finish everyone else's work...
-		while ((job = this.jobQueue.pollLast()) != null) {
-			processTask(job);
-		}
+		while (true) {
+			runSyncTasks();
 
-		// and wait for any stragglers.
-		try {
-			this.wg.await();
-		} catch (InterruptedException ignored) {
+			// Finish everyone else's work...
+			Runnable job = this.steal(0);
+			if (job != null) {
+				processTask(job);
+				syncJobs++;
+				continue;
+			}
+
+			// and wait for any stragglers, or for a group to finish.
+			long waitStart = System.nanoTime();
+			boolean done = true;
+			try {
+				done = this.wg.await();
+			} catch (InterruptedException ignored) {
+			}
+			waitNanos += System.nanoTime() - waitStart;
+
+			if (done) {
+				break;
+			}
 		}
 
-		while ((job = this.syncTasks.pollLast()) != null) {
+		runSyncTasks();
+
+		syncNanos += System.nanoTime() - start;
+		syncCount++;
+	}
+
+	private void runSyncTasks() {
+		Runnable job;
+		while ((job = this.syncTasks.pollFirst()) != null) {
 			job.run();
 		}
 	}
 
+	/**
+	 * Roll over the per-frame sync statistics. Call once per frame from the thread that calls {@link #syncPoint()}.
+	 */
+	public void endFrame() {
+		lastSyncNanos = syncNanos;
+		lastWaitNanos = waitNanos;
+		lastSyncJobs = syncJobs;
+		lastSyncCount = syncCount;
+
+		syncNanos = 0;
+		waitNanos = 0;
+		syncJobs = 0;
+		syncCount = 0;
+	}
+
+	/**
+	 * @return How long the last frame spent blocked in {@link #syncPoint()} waiting on workers, in nanoseconds.
+	 */
+	public long getLastWaitNanos() {
+		return lastWaitNanos;
+	}
+
+	/**
+	 * @return How long the last frame spent in {@link #syncPoint()} in total, including helping with work.
+	 */
+	public long getLastSyncNanos() {
+		return lastSyncNanos;
+	}
+
+	public void addDebugInfo(List<String> info) {
+		info.add("Workers: " + threads.size() + ", Pending: " + wg.pending());
+		info.add(String.format("Sync: %d calls, %.3fms (%.3fms waiting, %d jobs helped)", lastSyncCount, lastSyncNanos / 1e6, lastWaitNanos / 1e6, lastSyncJobs));
+	}
+
+	private void enqueue(Runnable command) {
+		// Workers spawning more work keep it local, everyone else spreads it around.
+		if (Thread.currentThread() instanceof WorkerThread worker && worker.getEngine() == this) {
+			this.queues[worker.index].addLast(command);
+		} else {
+			this.queues[Math.floorMod(this.nextQueue.getAndIncrement(), this.threadCount)].addLast(command);
+		}
+	}
+
+	/**
+	 * Unpark up to {@code count} idle workers.
+	 */
+	private void wakeWorkers(int count) {
+		for (WorkerThread thread : this.threads) {
+			if (count <= 0) {
+				return;
+			}
+
+			if (thread.parked.compareAndSet(true, false)) {
+				LockSupport.unpark(thread);
+				count--;
+			}
+		}
+	}
+
+	/**
+	 * Try to take a job from the head of any queue, starting at the given index.
+	 */
 	@Nullable
-	private Runnable getNextTask() {
-		Runnable job = this.jobQueue.pollFirst();
-
-		if (job == null) {
-			synchronized (ParallelTaskEngine.this.jobNotifier) {
-				try {
-					ParallelTaskEngine.this.jobNotifier.wait();
-				} catch (InterruptedException ignored) {
-				}
+	private Runnable steal(int start) {
+		for (int i = 0; i < this.threadCount; i++) {
+			Runnable job = this.queues[(start + i) % this.threadCount].pollFirst();
+
+			if (job != null) {
+				return job;
 			}
 		}
 
-		return job;
+		return null;
+	}
+
+	@Nullable
+	private Runnable getNextTask(WorkerThread worker) {
+		Runnable job = this.queues[worker.index].pollLast();
+
+		if (job != null) {
+			return job;
+		}
+
+		return this.steal(worker.index + 1);
 	}
 
 	// TODO: job context
@@ -173,18 +329,48 @@ public class ParallelTaskEngine implements TaskEngine {
 		return Runtime.getRuntime().availableProcessors();
 	}
 
-	private class WorkerRunnable implements Runnable {
+	private class WorkerThread extends Thread {
 
 		private final AtomicBoolean running = ParallelTaskEngine.this.running;
 
+		/**
+		 * Set by the worker right before it parks, cleared by whoever unparks it.
+		 */
+		private final AtomicBoolean parked = new AtomicBoolean(false);
+
+		private final int index;
+
+		private WorkerThread(int index, String name) {
+			super(name);
+			this.index = index;
+		}
+
+		private ParallelTaskEngine getEngine() {
+			return ParallelTaskEngine.this;
+		}
+
 		@Override
 		public void run() {
 			// Run until the chunk builder shuts down
 			while (this.running.get()) {
-				Runnable job = ParallelTaskEngine.this.getNextTask();
+				Runnable job = ParallelTaskEngine.this.getNextTask(this);
 
 				if (job == null) {
-					continue;
+					this.parked.set(true);
+
+					// Re-check after publishing that we're about to park, otherwise a submit racing with us could
+					// see us as awake and skip the unpark.
+					job = ParallelTaskEngine.this.getNextTask(this);
+
+					if (job == null) {
+						if (this.running.get()) {
+							LockSupport.park(ParallelTaskEngine.this);
+						}
+						this.parked.set(false);
+						continue;
+					}
+
+					this.parked.set(false);
 				}
 
 				ParallelTaskEngine.this.processTask(job);
@@ -230,7 +416,17 @@ public class ParallelTaskEngine implements TaskEngine {
 
 			WorkGroup workGroup = new WorkGroup(name, finalizer);
 
-			tasks.map(task -> new WorkGroupTask(workGroup, task)).forEach(ParallelTaskEngine.this::submit);
+			// Collect first so the group knows its full size before any task can finish.
+			List<WorkGroupTask> groupTasks = tasks.map(task -> new WorkGroupTask(workGroup, task))
+					.collect(Collectors.toList());
+
+			if (groupTasks.isEmpty()) {
+				// Nothing to wait for.
+				workGroup.complete();
+				return;
+			}
+
+			ParallelTaskEngine.this.submitAll(groupTasks);
 		}
 
 	}
@@ -249,9 +445,11 @@ public class ParallelTaskEngine implements TaskEngine {
 
 		@Override
 		public void run() {
-			this.wrapped.run();
-
-			this.parent.oneDown();
+			try {
+				this.wrapped.run();
+			} finally {
+				this.parent.oneDown();
+			}
 		}
 	}
 
@@ -269,9 +467,15 @@ public class ParallelTaskEngine implements TaskEngine {
 
 		public void oneDown() {
 			if (running.decrementAndGet() == 0) {
-				if (finalizer != null) {
-					ParallelTaskEngine.this.syncTasks.add(finalizer);
-				}
+				complete();
+			}
+		}
+
+		private void complete() {
+			if (finalizer != null) {
+				ParallelTaskEngine.this.syncTasks.add(finalizer);
+				// let syncPoint run it now rather than after every other job is done
+				ParallelTaskEngine.this.wg.signal();
 			}
 		}
 	}
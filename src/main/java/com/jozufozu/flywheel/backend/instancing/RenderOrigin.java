@@ -0,0 +1,64 @@
+package com.jozufozu.flywheel.backend.instancing;
+
+import com.jozufozu.flywheel.util.WeakHashSet;
+
+import net.minecraft.client.Camera;
+import net.minecraft.core.BlockPos;
+import net.minecraft.util.Mth;
+
+/**
+ * An integer origin that engines render relative to, kept within {@link #MAX_ORIGIN_DISTANCE} blocks of the camera
+ * in all directions.
+ *
+ * <p>
+ *     This prevents floating point precision issues at high coordinates. Moving the origin invalidates anything
+ *     positioned relative to it, so the engine clears its own state when {@link #update} returns true and then calls
+ *     {@link #notifyListeners}.
+ * </p>
+ */
+public class RenderOrigin {
+
+	public static int MAX_ORIGIN_DISTANCE = 100;
+
+	private final WeakHashSet<OriginShiftListener> listeners = new WeakHashSet<>();
+
+	private BlockPos origin = BlockPos.ZERO;
+
+	public BlockPos get() {
+		return origin;
+	}
+
+	public void addListener(OriginShiftListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Move the origin to the camera if the camera is too far away from it.
+	 *
+	 * @return true if the origin moved.
+	 */
+	public boolean update(Camera info) {
+		int cX = Mth.floor(info.getPosition().x);
+		int cY = Mth.floor(info.getPosition().y);
+		int cZ = Mth.floor(info.getPosition().z);
+
+		int dX = cX - origin.getX();
+		int dY = cY - origin.getY();
+		int dZ = cZ - origin.getZ();
+
+		if (Math.abs(dX) > MAX_ORIGIN_DISTANCE || Math.abs(dY) > MAX_ORIGIN_DISTANCE || Math.abs(dZ) > MAX_ORIGIN_DISTANCE) {
+			origin = new BlockPos(cX, cY, cZ);
+			return true;
+		}
+
+		return false;
+	}
+
+	public void notifyListeners() {
+		listeners.forEach(OriginShiftListener::onOriginShift);
+	}
+
+	public String describe() {
+		return origin.getX() + ", " + origin.getY() + ", " + origin.getZ();
+	}
+}
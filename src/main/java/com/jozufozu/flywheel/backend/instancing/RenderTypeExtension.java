@@ -14,6 +14,11 @@ public interface RenderTypeExtension {
 	 */
 	DrawBuffer flywheel$getDrawBuffer();
 
+	/**
+	 * @return {@code true} if the RenderType sorts its quads before uploading them, like translucent types do.
+	 */
+	boolean flywheel$sortsOnUpload();
+
 	/**
 	 * Helper function to cast a RenderType to a RenderTypeExtension and get its DrawBuffer.
 	 * @param type The RenderType to get the DrawBuffer from.
@@ -1,10 +1,28 @@
 package com.jozufozu.flywheel.backend.instancing;
 
+import java.util.Collection;
+
 import org.jetbrains.annotations.NotNull;
 
 public interface TaskEngine {
 	void submit(@NotNull Runnable command);
 
+	/**
+	 * Submit a batch of tasks. Implementations may use this to amortize the cost of waking up workers.
+	 */
+	default void submitAll(@NotNull Collection<? extends Runnable> commands) {
+		for (Runnable command : commands) {
+			submit(command);
+		}
+	}
+
+	/**
+	 * @return How many threads will be working on submitted tasks, used to decide how finely to split work.
+	 */
+	default int getThreadCount() {
+		return 1;
+	}
+
 	/**
 	 * Wait for all running jobs to finish.
 	 */
@@ -1,7 +1,10 @@
 package com.jozufozu.flywheel.backend.instancing.batching;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.IntFunction;
 
 import com.jozufozu.flywheel.api.InstanceData;
 import com.jozufozu.flywheel.api.MaterialGroup;
@@ -9,7 +12,6 @@ import com.jozufozu.flywheel.api.struct.Batched;
 import com.jozufozu.flywheel.api.struct.StructType;
 import com.jozufozu.flywheel.backend.ShadersModHandler;
 import com.jozufozu.flywheel.backend.instancing.BatchDrawingTracker;
-import com.jozufozu.flywheel.backend.instancing.TaskEngine;
 import com.jozufozu.flywheel.backend.model.DirectVertexConsumer;
 import com.mojang.blaze3d.vertex.PoseStack;
 
@@ -37,7 +39,26 @@ public class BatchedMaterialGroup implements MaterialGroup {
 		}
 	}
 
-	public void render(PoseStack stack, BatchDrawingTracker source, TaskEngine pool) {
+	public RenderType getRenderType() {
+		return state;
+	}
+
+	/**
+	 * Reserve this frame's vertices in the draw buffer and split the work of filling it into tasks.
+	 *
+	 * @return The tasks to run. The draw buffer is ready once all of them are done.
+	 */
+	public List<Runnable> prepare(PoseStack stack, BatchDrawingTracker source) {
+		return prepare(stack, vertices -> source.getDirectConsumer(state, vertices));
+	}
+
+	/**
+	 * Like {@link #prepare(PoseStack, BatchDrawingTracker)}, but the vertices go wherever {@code buffers} says.
+	 *
+	 * @param buffers Given this frame's vertex count, returns the consumer to write the vertices into.
+	 * @return The tasks to run. The consumer is filled once all of them are done.
+	 */
+	public List<Runnable> prepare(PoseStack stack, IntFunction<DirectVertexConsumer> buffers) {
 
 		vertexCount = 0;
 		instanceCount = 0;
@@ -49,17 +70,20 @@ public class BatchedMaterialGroup implements MaterialGroup {
 			}
 		}
 
-		DirectVertexConsumer consumer = source.getDirectConsumer(state, vertexCount);
+		DirectVertexConsumer consumer = buffers.apply(vertexCount);
+		List<Runnable> tasks = new ArrayList<>();
 
-		// avoids rendering garbage, but doesn't fix the issue of some instances not being buffered
-		consumer.memSetZero();
+		// No need to clear the buffer: every instancer copies its whole range in, transformed this frame or not.
 
 		for (BatchedMaterial<?> material : materials.values()) {
 			for (CPUInstancer<?> instancer : material.models.values()) {
 				instancer.sbb.context.outputColorDiffuse = !consumer.hasOverlay() && !ShadersModHandler.isShaderPackInUse();
-				instancer.submitTasks(stack, pool, consumer);
+				instancer.prepareCache(stack, consumer.format);
+				instancer.collectTasks(stack, tasks, consumer);
 			}
 		}
+
+		return tasks;
 	}
 
 	public void clear() {
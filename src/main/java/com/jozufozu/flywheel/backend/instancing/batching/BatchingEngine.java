@@ -6,25 +6,38 @@ import java.util.List;
 import java.util.Map;
 
 import com.jozufozu.flywheel.api.MaterialGroup;
+import com.jozufozu.flywheel.backend.FrameProfiler;
 import com.jozufozu.flywheel.backend.RenderLayer;
 import com.jozufozu.flywheel.backend.instancing.BatchDrawingTracker;
 import com.jozufozu.flywheel.backend.instancing.Engine;
+import com.jozufozu.flywheel.backend.instancing.ParallelTaskEngine;
+import com.jozufozu.flywheel.backend.instancing.RenderOrigin;
 import com.jozufozu.flywheel.backend.instancing.TaskEngine;
 import com.jozufozu.flywheel.event.RenderLayerEvent;
 import com.jozufozu.flywheel.util.FlwUtil;
 import com.mojang.blaze3d.platform.Lighting;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.PoseStack;
 import com.mojang.math.Matrix4f;
 
 import net.minecraft.client.Camera;
 import net.minecraft.client.renderer.RenderType;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Vec3i;
+import net.minecraft.util.Mth;
 
 public class BatchingEngine implements Engine {
 
 	private final Map<RenderLayer, Map<RenderType, BatchedMaterialGroup>> layers;
 	private final BatchDrawingTracker batchTracker = new BatchDrawingTracker();
 
+	/**
+	 * Vertices are written relative to this instead of the camera, so they stay the same from frame to frame
+	 * and instancers can reuse them. The camera transform is applied through the model view matrix instead.
+	 */
+	private final RenderOrigin renderOrigin = new RenderOrigin();
+	private final PoseStack originStack = new PoseStack();
+
 	public BatchingEngine() {
 		this.layers = new EnumMap<>(RenderLayer.class);
 		for (RenderLayer value : RenderLayer.values()) {
@@ -42,13 +55,16 @@ public class BatchingEngine implements Engine {
 		return BlockPos.ZERO;
 	}
 
+	/**
+	 * Transform and draw every instance in the layer.
+	 *
+	 * <p>
+	 *     With a {@link ParallelTaskEngine} each RenderType's tasks form their own work group, and the type is drawn
+	 *     as soon as its group finishes, while the other types are still being transformed.
+	 * </p>
+	 */
 	@Override
 	public void render(TaskEngine taskEngine, RenderLayerEvent event) {
-		Map<RenderType, BatchedMaterialGroup> groups = layers.get(event.getLayer());
-		for (BatchedMaterialGroup group : groups.values()) {
-			group.render(event.stack, batchTracker, taskEngine);
-		}
-
 		// FIXME: this probably breaks some vanilla stuff but it works much better for flywheel
 		Matrix4f mat = new Matrix4f();
 		mat.setIdentity();
@@ -58,8 +74,48 @@ public class BatchingEngine implements Engine {
 			Lighting.setupLevel(mat);
 		}
 
+		// XXX Model view matrix is changed and restored
+		PoseStack modelViewStack = RenderSystem.getModelViewStack();
+		modelViewStack.pushPose();
+		modelViewStack.mulPoseMatrix(event.stack.last()
+				.pose());
+		BlockPos origin = renderOrigin.get();
+		modelViewStack.translate(origin.getX(), origin.getY(), origin.getZ());
+		RenderSystem.applyModelViewMatrix();
+
+		final int sortX = Mth.floor(event.camX) - origin.getX();
+		final int sortY = Mth.floor(event.camY) - origin.getY();
+		final int sortZ = Mth.floor(event.camZ) - origin.getZ();
+
+		int draws = 0;
+		Map<RenderType, BatchedMaterialGroup> groups = layers.get(event.getLayer());
+		for (BatchedMaterialGroup group : groups.values()) {
+			List<Runnable> tasks = group.prepare(originStack, batchTracker);
+			if (group.getVertexCount() > 0) {
+				draws++;
+			}
+
+			if (taskEngine instanceof ParallelTaskEngine parallel) {
+				RenderType type = group.getRenderType();
+				// finalizers run on this thread inside syncPoint
+				parallel.group("Batching")
+						.addTasks(tasks.stream())
+						.onComplete(() -> batchTracker.endBatch(type, sortX, sortY, sortZ))
+						.submit();
+			} else {
+				taskEngine.submitAll(tasks);
+			}
+		}
+
 		taskEngine.syncPoint();
-		batchTracker.endBatch();
+
+		// anything not drawn by a finalizer
+		batchTracker.endBatch(sortX, sortY, sortZ);
+
+		FrameProfiler.addDraws(event.getLayer(), draws);
+
+		modelViewStack.popPose();
+		RenderSystem.applyModelViewMatrix();
 	}
 
 	@Override
@@ -67,10 +123,23 @@ public class BatchingEngine implements Engine {
 		for (Map<RenderType, BatchedMaterialGroup> groups : layers.values()) {
 			groups.values().forEach(BatchedMaterialGroup::delete);
 		}
+
+		batchTracker.delete();
 	}
 
+	/**
+	 * Keep the render origin within a certain distance from the camera, so vertices stay small enough to be precise.
+	 * Moving it makes every instancer transform all its instances again.
+	 *
+	 * @see RenderOrigin
+	 */
 	@Override
 	public void beginFrame(Camera info) {
+		if (renderOrigin.update(info)) {
+			BlockPos origin = renderOrigin.get();
+			originStack.setIdentity();
+			originStack.translate(-origin.getX(), -origin.getY(), -origin.getZ());
+		}
 	}
 
 	@Override
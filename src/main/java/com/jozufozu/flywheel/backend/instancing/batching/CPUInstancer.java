@@ -1,21 +1,44 @@
 package com.jozufozu.flywheel.backend.instancing.batching;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.lwjgl.system.MemoryUtil;
+
 import com.jozufozu.flywheel.api.InstanceData;
 import com.jozufozu.flywheel.api.struct.Batched;
 import com.jozufozu.flywheel.backend.instancing.AbstractInstancer;
-import com.jozufozu.flywheel.backend.instancing.TaskEngine;
 import com.jozufozu.flywheel.backend.model.DirectVertexConsumer;
 import com.jozufozu.flywheel.core.model.Model;
 import com.jozufozu.flywheel.core.model.ModelTransformer;
 import com.mojang.blaze3d.vertex.PoseStack;
 import com.mojang.blaze3d.vertex.VertexConsumer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import com.mojang.math.Matrix3f;
+import com.mojang.math.Matrix4f;
 
 public class CPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 
+	// drawRange runs on worker threads, so each thread gets its own
+	private static final ThreadLocal<ModelTransformer.Params> PARAMS = ThreadLocal.withInitial(ModelTransformer.Params::new);
+
 	private final Batched<D> batchingType;
 
 	final ModelTransformer sbb;
 
+	/**
+	 * Last frame's transformed vertices, one model's worth per instance in instance order.
+	 * Only dirty instances are transformed again, everything else is copied out of here.
+	 */
+	private ByteBuffer vertexCache;
+	private VertexFormat cacheFormat;
+	// what the cached vertices were transformed with
+	private final Matrix4f cachedPose = new Matrix4f();
+	private final Matrix3f cachedNormal = new Matrix3f();
+	private boolean cachedDiffuse;
+	// set for frames where the cache can't be trusted, read by the worker threads
+	private boolean rebuildAll = true;
+
 	public CPUInstancer(Batched<D> type, Model modelData) {
 		super(type::create, modelData);
 		batchingType = type;
@@ -23,7 +46,34 @@ public class CPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 		sbb = new ModelTransformer(modelData);
 	}
 
-	void submitTasks(PoseStack stack, TaskEngine pool, DirectVertexConsumer consumer) {
+	/**
+	 * Make room for this frame's instances and check whether last frame's vertices can be reused.
+	 * Must be called after {@link #setup} and before {@link #collectTasks}.
+	 */
+	void prepareCache(PoseStack stack, VertexFormat format) {
+		PoseStack.Pose pose = stack.last();
+		boolean diffuse = sbb.context.outputColorDiffuse;
+
+		rebuildAll = format != cacheFormat
+				|| diffuse != cachedDiffuse
+				|| !pose.pose().equals(cachedPose)
+				|| !pose.normal().equals(cachedNormal);
+
+		cacheFormat = format;
+		cachedDiffuse = diffuse;
+		cachedPose.load(pose.pose());
+		cachedNormal.load(pose.normal());
+
+		int byteSize = format.getVertexSize() * getVertexCount();
+		if (vertexCache == null) {
+			vertexCache = MemoryUtil.memAlloc(Math.max(byteSize, 1));
+		} else if (byteSize > vertexCache.capacity()) {
+			// existing instances keep their vertices
+			vertexCache = MemoryUtil.memRealloc(vertexCache, byteSize);
+		}
+	}
+
+	void collectTasks(PoseStack stack, List<Runnable> tasks, DirectVertexConsumer consumer) {
 		int instances = getInstanceCount();
 
 		while (instances > 0) {
@@ -35,24 +85,38 @@ public class CPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 
 			DirectVertexConsumer sub = consumer.split(verts);
 
-			pool.submit(() -> drawRange(stack, sub, start, end));
+			tasks.add(() -> drawRange(stack, sub, start, end));
 		}
 	}
 
-	private void drawRange(PoseStack stack, VertexConsumer buffer, int from, int to) {
-		ModelTransformer.Params params = new ModelTransformer.Params();
+	private void drawRange(PoseStack stack, DirectVertexConsumer buffer, int from, int to) {
+		ModelTransformer.Params params = PARAMS.get();
+		int modelVertexCount = getModelVertexCount();
+
+		DirectVertexConsumer cache = new DirectVertexConsumer(vertexCache, cacheFormat, getVertexCount());
+		cache.skip(from * modelVertexCount);
+
+		for (int i = from; i < to; i++) {
+			D d = data.get(i);
+			if (!d.checkDirtyAndClear() && !rebuildAll) {
+				cache.skip(modelVertexCount);
+				continue;
+			}
 
-		for (D d : data.subList(from, to)) {
 			params.loadDefault();
 
 			batchingType.transform(d, params);
 
-			sbb.renderInto(params, stack, buffer);
+			sbb.renderInto(params, stack, cache);
 		}
+
+		int vertexCount = modelVertexCount * (to - from);
+		long bytes = (long) vertexCount * buffer.getStride();
+		MemoryUtil.memCopy(MemoryUtil.memAddress(vertexCache) + (long) from * modelVertexCount * buffer.getStride(), buffer.claim(vertexCount), bytes);
 	}
 
 	void drawAll(PoseStack stack, VertexConsumer buffer) {
-		ModelTransformer.Params params = new ModelTransformer.Params();
+		ModelTransformer.Params params = PARAMS.get();
 		for (D d : data) {
 			params.loadDefault();
 
@@ -64,7 +128,8 @@ public class CPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 
 	void setup() {
 		if (anyToRemove) {
-			data.removeIf(InstanceData::isRemoved);
+			// instances that get moved are marked dirty, so their cached vertices are rewritten in their new slot
+			removeDeletedInstances();
 			anyToRemove = false;
 		}
 	}
@@ -76,5 +141,10 @@ public class CPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 
 	public void delete() {
 		modelData.delete();
+
+		if (vertexCache != null) {
+			MemoryUtil.memFree(vertexCache);
+			vertexCache = null;
+		}
 	}
 }
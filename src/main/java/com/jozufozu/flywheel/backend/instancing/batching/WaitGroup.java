@@ -1,23 +1,98 @@
 package com.jozufozu.flywheel.backend.instancing.batching;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A completion barrier for a pool of jobs.
+ * <p>
+ *     {@link #add} and {@link #done} are a single atomic operation each, so job submission and completion never
+ *     contend on a monitor. {@link #await} spins for a short while before parking, since most frames the remaining
+ *     jobs finish within a few microseconds of the render thread running out of work to steal.
+ * </p>
+ * <p>
+ *     The waiting thread can also be woken early with {@link #signal}, for when it has something else to do
+ *     before all the jobs are done.
+ * </p>
+ * Only one thread may {@link #await} at a time.
+ */
 // https://stackoverflow.com/questions/29655531
 public class WaitGroup {
 
-	private int jobs = 0;
+	/**
+	 * How many times to spin before parking the waiting thread.
+	 */
+	private static final int SPIN_COUNT = 1 << 10;
+
+	private final AtomicInteger jobs = new AtomicInteger(0);
+
+	private volatile Thread waiter;
+	private volatile boolean signalled;
 
-	public synchronized void add(int i) {
-		jobs += i;
+	public void add(int i) {
+		jobs.addAndGet(i);
 	}
 
-	public synchronized void done() {
-		if (--jobs == 0) {
-			notifyAll();
+	public void done() {
+		if (jobs.decrementAndGet() == 0) {
+			Thread waiter = this.waiter;
+			if (waiter != null) {
+				LockSupport.unpark(waiter);
+			}
 		}
 	}
 
-	public synchronized void await() throws InterruptedException {
-		while (jobs > 0) {
-			wait();
+	public int pending() {
+		return jobs.get();
+	}
+
+	/**
+	 * Make the current or next call to {@link #await} return, even if there are jobs left.
+	 */
+	public void signal() {
+		signalled = true;
+		Thread waiter = this.waiter;
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * Wait until all jobs are done, or until {@link #signal} is called.
+	 * @return true if all jobs are done, false if woken by a signal.
+	 */
+	public boolean await() throws InterruptedException {
+		try {
+			for (int i = 0; i < SPIN_COUNT; i++) {
+				if (jobs.get() <= 0) {
+					return true;
+				}
+				if (signalled) {
+					return false;
+				}
+				Thread.onSpinWait();
+			}
+
+			waiter = Thread.currentThread();
+			try {
+				// Re-check after publishing ourselves so a concurrent done() or signal() can't miss us.
+				while (jobs.get() > 0) {
+					if (signalled) {
+						return false;
+					}
+
+					LockSupport.park(this);
+
+					if (Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+				}
+				return true;
+			} finally {
+				waiter = null;
+			}
+		} finally {
+			signalled = false;
 		}
 	}
 
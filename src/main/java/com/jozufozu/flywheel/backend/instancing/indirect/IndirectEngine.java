@@ -0,0 +1,140 @@
+package com.jozufozu.flywheel.backend.instancing.indirect;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import com.jozufozu.flywheel.api.MaterialGroup;
+import com.jozufozu.flywheel.backend.RenderLayer;
+import com.jozufozu.flywheel.backend.gl.GlStateTracker;
+import com.jozufozu.flywheel.backend.gl.buffer.PersistentGlBuffer;
+import com.jozufozu.flywheel.backend.gl.versioned.GlCompat;
+import com.jozufozu.flywheel.backend.instancing.Engine;
+import com.jozufozu.flywheel.backend.instancing.OriginShiftListener;
+import com.jozufozu.flywheel.backend.instancing.RenderOrigin;
+import com.jozufozu.flywheel.backend.instancing.TaskEngine;
+import com.jozufozu.flywheel.core.compile.ProgramCompiler;
+import com.jozufozu.flywheel.core.shader.WorldProgram;
+import com.jozufozu.flywheel.event.RenderLayerEvent;
+import com.jozufozu.flywheel.util.FlwUtil;
+import com.mojang.math.Matrix4f;
+
+import net.minecraft.client.Camera;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Vec3i;
+
+/**
+ * An engine that packs every instance of a material into one shared buffer.
+ *
+ * <p>
+ *     Each model drawn by a material gets a contiguous range of that buffer, and one indirect draw command that
+ *     points at the range with its base instance. All the models of a material are then submitted with a single
+ *     {@code glMultiDrawElementsIndirect} call, instead of one instanced draw call per model.
+ * </p>
+ */
+public class IndirectEngine<P extends WorldProgram> implements Engine {
+
+	protected final RenderOrigin origin = new RenderOrigin();
+
+	protected final ProgramCompiler<P> context;
+
+	protected final Map<RenderLayer, Map<RenderType, IndirectMaterialGroup<P>>> layers;
+
+	public IndirectEngine(ProgramCompiler<P> context) {
+		this.context = context;
+
+		this.layers = new EnumMap<>(RenderLayer.class);
+		for (RenderLayer value : RenderLayer.values()) {
+			layers.put(value, new HashMap<>());
+		}
+	}
+
+	@Override
+	public MaterialGroup state(RenderLayer layer, RenderType type) {
+		return layers.get(layer).computeIfAbsent(type, t -> new IndirectMaterialGroup<>(this, t));
+	}
+
+	/**
+	 * Render every model for every material.
+	 */
+	@Override
+	public void render(TaskEngine taskEngine, RenderLayerEvent event) {
+		// XXX Restore state
+		GlStateTracker.State restoreState = GlStateTracker.getRestoreState();
+
+		BlockPos originCoordinate = origin.get();
+		double camX = event.camX - originCoordinate.getX();
+		double camY = event.camY - originCoordinate.getY();
+		double camZ = event.camZ - originCoordinate.getZ();
+
+		Matrix4f viewProjection = Matrix4f.createTranslateMatrix((float) -camX, (float) -camY, (float) -camZ);
+		viewProjection.multiplyBackward(event.viewProjection);
+
+		getGroupsToRender(event.getLayer()).forEach(group -> group.render(viewProjection, camX, camY, camZ, event.getLayer()));
+
+		restoreState.restore();
+	}
+
+	private Stream<IndirectMaterialGroup<P>> getGroupsToRender(@Nullable RenderLayer layer) {
+		if (layer != null) {
+			return layers.get(layer)
+					.values()
+					.stream();
+		} else {
+			return layers.values()
+					.stream()
+					.flatMap(FlwUtil::mapValues);
+		}
+	}
+
+	@Override
+	public void delete() {
+		for (Map<RenderType, IndirectMaterialGroup<P>> groups : layers.values()) {
+			groups.values().forEach(IndirectMaterialGroup::delete);
+		}
+	}
+
+	@Override
+	public Vec3i getOriginCoordinate() {
+		return origin.get();
+	}
+
+	public void addListener(OriginShiftListener listener) {
+		origin.addListener(listener);
+	}
+
+	/**
+	 * Keep the origin close to the camera, and rebuild everything positioned relative to it when it moves.
+	 *
+	 * @see RenderOrigin
+	 */
+	@Override
+	public void beginFrame(Camera info) {
+		if (origin.update(info)) {
+			for (Map<RenderType, IndirectMaterialGroup<P>> groups : layers.values()) {
+				groups.values().forEach(IndirectMaterialGroup::clear);
+			}
+
+			origin.notifyListeners();
+		}
+	}
+
+	@Override
+	public void addDebugInfo(List<String> info) {
+		info.add("GL43 Multi-Draw Indirect");
+		info.add("Instances: " + getGroupsToRender(null).mapToInt(IndirectMaterialGroup::getInstanceCount).sum());
+		info.add("Vertices: " + getGroupsToRender(null).mapToInt(IndirectMaterialGroup::getVertexCount).sum());
+		info.add("Draws: " + getGroupsToRender(null).mapToInt(IndirectMaterialGroup::getDrawCount).sum()
+				+ " in " + getGroupsToRender(null).mapToInt(IndirectMaterialGroup::getDrawCallCount).sum() + " calls");
+		if (GlCompat.getInstance().bufferStorageSupported()) {
+			info.add(String.format("Buffer ring: %d segments, stalled %.2f ms in %d waits", PersistentGlBuffer.SEGMENTS,
+					PersistentGlBuffer.getLastStallNanos() / 1e6, PersistentGlBuffer.getLastStallCount()));
+		}
+		info.add("Origin: " + origin.describe());
+	}
+}
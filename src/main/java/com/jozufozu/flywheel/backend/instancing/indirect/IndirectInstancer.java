@@ -0,0 +1,173 @@
+package com.jozufozu.flywheel.backend.instancing.indirect;
+
+import com.jozufozu.flywheel.api.InstanceData;
+import com.jozufozu.flywheel.api.struct.Instanced;
+import com.jozufozu.flywheel.api.struct.StructWriter;
+import com.jozufozu.flywheel.backend.gl.buffer.MappedBuffer;
+import com.jozufozu.flywheel.backend.instancing.AbstractInstancer;
+import com.jozufozu.flywheel.backend.model.BufferedModel;
+import com.jozufozu.flywheel.backend.model.ModelAllocator;
+import com.jozufozu.flywheel.core.model.Model;
+
+/**
+ * One model's slice of an {@link IndirectMaterial}'s shared instance buffer.
+ *
+ * <p>
+ *     The instancer owns no GL objects besides its model; it only remembers where its range of the shared buffer
+ *     starts and how many instances fit in it, so the material can write them and point a draw command at them.
+ * </p>
+ */
+public class IndirectInstancer<D extends InstanceData> extends AbstractInstancer<D> {
+
+	/**
+	 * The least room to grow an instancer is given when placed.
+	 */
+	private static final int MIN_SLACK = 16;
+
+	private final int stride;
+
+	private BufferedModel model;
+	private boolean deleted;
+
+	/**
+	 * The index of this instancer's first instance in the shared buffer, or -1 if it has not been placed yet.
+	 */
+	private int baseInstance = -1;
+	/**
+	 * How many instances fit in this instancer's range.
+	 */
+	private int capacity;
+	private boolean moved;
+
+	protected boolean anyToUpdate;
+
+	public IndirectInstancer(Instanced<D> type, Model model) {
+		super(type::create, model, type.preserveInstanceOrder());
+		this.stride = type.getLayout().getStride();
+	}
+
+	@Override
+	public void notifyDirty() {
+		anyToUpdate = true;
+	}
+
+	public void init(ModelAllocator modelAllocator, ModelAllocator.Callback callback) {
+		if (model != null) return;
+
+		model = modelAllocator.alloc(modelData, callback);
+	}
+
+	public boolean isInitialized() {
+		return model != null;
+	}
+
+	public BufferedModel getModel() {
+		return model;
+	}
+
+	public int getBaseInstance() {
+		return baseInstance;
+	}
+
+	void removeDeleted() {
+		if (anyToRemove) {
+			removeDeletedInstances();
+			anyToRemove = false;
+		}
+	}
+
+	public boolean isPlaced() {
+		return baseInstance >= 0;
+	}
+
+	/**
+	 * @return true if all instances fit in this instancer's current range.
+	 */
+	public boolean fits() {
+		return data.size() <= capacity;
+	}
+
+	/**
+	 * Move this instancer's range to start at the given base instance, with room for its instances to grow by a
+	 * quarter.
+	 *
+	 * @return The end of the range.
+	 */
+	int place(int baseInstance) {
+		int size = data.size();
+		capacity = size + Math.max(size >> 2, MIN_SLACK);
+
+		if (this.baseInstance != baseInstance) {
+			this.baseInstance = baseInstance;
+			moved = true;
+		}
+
+		return baseInstance + capacity;
+	}
+
+	/**
+	 * Write changed instances into the shared buffer.
+	 *
+	 * @param writer A writer over the whole shared buffer.
+	 * @param mapped The mapping the writer writes to, to flush the written ranges.
+	 * @param force Write every instance, e.g. because the buffer was reallocated.
+	 */
+	void write(StructWriter<D> writer, MappedBuffer mapped, boolean force) {
+		final int size = data.size();
+
+		if (force || moved) {
+			writer.seek(baseInstance);
+			for (int i = 0; i < size; i++) {
+				D element = data.get(i);
+				element.checkDirtyAndClear();
+				writer.write(element);
+			}
+			flush(mapped, 0, size);
+		} else if (anyToUpdate) {
+			int runStart = -1;
+			for (int i = 0; i < size; i++) {
+				final D element = data.get(i);
+				if (element.checkDirtyAndClear()) {
+					if (runStart < 0) {
+						writer.seek(baseInstance + i);
+						runStart = i;
+					}
+					writer.write(element);
+				} else if (runStart >= 0) {
+					flush(mapped, runStart, i);
+					runStart = -1;
+				}
+			}
+			if (runStart >= 0) {
+				flush(mapped, runStart, size);
+			}
+		}
+
+		moved = anyToUpdate = false;
+	}
+
+	private void flush(MappedBuffer mapped, int start, int end) {
+		if (end > start) {
+			mapped.flushRange((long) (baseInstance + start) * stride, (long) (end - start) * stride);
+		}
+	}
+
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * Free acquired resources. All other Instancer methods are undefined behavior after calling delete.
+	 */
+	public void delete() {
+		if (deleted) return;
+
+		deleted = true;
+
+		if (model != null) {
+			model.delete();
+		}
+
+		modelData.delete();
+	}
+}
@@ -0,0 +1,342 @@
+package com.jozufozu.flywheel.backend.instancing.indirect;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.system.MemoryUtil;
+
+import com.jozufozu.flywheel.Flywheel;
+import com.jozufozu.flywheel.api.InstanceData;
+import com.jozufozu.flywheel.api.Instancer;
+import com.jozufozu.flywheel.api.Material;
+import com.jozufozu.flywheel.api.struct.Instanced;
+import com.jozufozu.flywheel.api.struct.StructWriter;
+import com.jozufozu.flywheel.backend.gl.GlPrimitive;
+import com.jozufozu.flywheel.backend.gl.GlVertexArray;
+import com.jozufozu.flywheel.backend.gl.buffer.GlBuffer;
+import com.jozufozu.flywheel.backend.gl.buffer.GlBufferType;
+import com.jozufozu.flywheel.backend.gl.buffer.GlBufferUsage;
+import com.jozufozu.flywheel.backend.gl.buffer.MappedBuffer;
+import com.jozufozu.flywheel.backend.gl.buffer.MappedGlBuffer;
+import com.jozufozu.flywheel.backend.gl.versioned.GlCompat;
+import com.jozufozu.flywheel.backend.model.BufferedModel;
+import com.jozufozu.flywheel.backend.model.ElementBuffer;
+import com.jozufozu.flywheel.backend.model.ModelAllocator;
+import com.jozufozu.flywheel.backend.model.ModelPool;
+import com.jozufozu.flywheel.core.Formats;
+import com.jozufozu.flywheel.core.layout.BufferLayout;
+import com.jozufozu.flywheel.core.model.Model;
+
+/**
+ * A collection of instancers that all have the same format, drawn together with one multi-draw-indirect call.
+ *
+ * <p>
+ *     Every instancer gets a range of one shared buffer, with some room to grow, so instancers only move when one
+ *     of them outgrows its range. Each frame the material writes a {@code DrawElementsIndirectCommand} per model,
+ *     whose base instance points at that model's range. Models that share an element buffer are drawn in the same
+ *     call; with the default quad element buffer that is all of them.
+ * </p>
+ * @param <D>
+ */
+public class IndirectMaterial<D extends InstanceData> implements Material<D> {
+
+	/**
+	 * The size of a {@code DrawElementsIndirectCommand}: count, instanceCount, firstIndex, baseVertex, baseInstance.
+	 */
+	public static final int COMMAND_SIZE = 20;
+
+	protected final Map<Object, IndirectInstancer<D>> models = new HashMap<>();
+	protected final Instanced<D> type;
+	protected final List<IndirectInstancer<D>> uninitialized = new ArrayList<>();
+
+	// draw order, and the order instances are packed in
+	private final List<IndirectInstancer<D>> instancers = new ArrayList<>();
+	private final List<DrawRun> runs = new ArrayList<>();
+
+	private final BufferLayout instanceFormat;
+	private final int modelAttributeCount;
+
+	private GlVertexArray vao;
+	private GlBuffer instanceVBO;
+	private GlBuffer commandBuffer;
+
+	// CPU copy of this frame's commands
+	private long commandPtr;
+	private int commandCapacity;
+
+	// where the instance attributes currently point into instanceVBO, or -1 if they need to be re-bound
+	private int attributeOffset = -1;
+	// the end of the last instancer's range in instanceVBO
+	private int reserved;
+	// false if models have buffers of their own, which have to be bound before each model is drawn
+	private boolean pooledModels = true;
+
+	private int drawCount;
+	private int instanceCount;
+	private int vertexCount;
+
+	public IndirectMaterial(Instanced<D> type) {
+		this.type = type;
+		this.instanceFormat = type.getLayout();
+		this.modelAttributeCount = Formats.BLOCK.getLayout().getAttributeCount();
+	}
+
+	/**
+	 * Get an instancer for the given model. Calling this method twice with the same key will return the same instancer.
+	 *
+	 * @param key An object that uniquely identifies the model.
+	 * @param modelSupplier A factory that creates the IModel that you want to render.
+	 * @return An instancer for the given model, capable of rendering many copies for little cost.
+	 */
+	@Override
+	public Instancer<D> model(Object key, Supplier<Model> modelSupplier) {
+		return models.computeIfAbsent(key, $ -> {
+			IndirectInstancer<D> instancer = new IndirectInstancer<>(type, modelSupplier.get());
+			uninitialized.add(instancer);
+			return instancer;
+		});
+	}
+
+	void init(ModelAllocator allocator) {
+		if (uninitialized.isEmpty()) return;
+
+		pooledModels = allocator instanceof ModelPool;
+
+		if (vao == null) {
+			vao = new GlVertexArray();
+			instanceVBO = GlBuffer.requestPersistent(GlBufferType.ARRAY_BUFFER);
+			instanceVBO.setGrowthMargin(instanceFormat.getStride() * 64);
+			commandBuffer = new MappedGlBuffer(GlBufferType.DRAW_INDIRECT_BUFFER, GlBufferUsage.DYNAMIC_DRAW);
+
+			// XXX VAO is bound and not reset or restored
+			vao.bind();
+			vao.enableArrays(modelAttributeCount + instanceFormat.getAttributeCount());
+		}
+
+		for (IndirectInstancer<D> instancer : uninitialized) {
+			// pooled models share the pool's vbo, so whichever one is uploaded sets up the vertex attributes
+			instancer.init(allocator, this::setupModelState); // XXX May call Model.createEBO
+			instancers.add(instancer);
+		}
+		uninitialized.clear();
+	}
+
+	private void setupModelState(BufferedModel arenaModel) {
+		// XXX VAO is bound and not reset or restored
+		vao.bind();
+		arenaModel.setupState(vao);
+	}
+
+	/**
+	 * Pack all instances into the shared buffer and write this frame's draw commands.
+	 *
+	 * @return true if there is anything to draw.
+	 */
+	boolean prepare() {
+		drawCount = 0;
+		instanceCount = 0;
+		vertexCount = 0;
+		runs.clear();
+
+		if (vao == null) return false;
+
+		boolean overflow = false;
+		for (IndirectInstancer<D> instancer : instancers) {
+			instancer.removeDeleted();
+			if (instancer.isPlaced() && !instancer.fits()) {
+				overflow = true;
+			}
+		}
+
+		// Moving an instancer means rewriting all of its instances, so only lay everything out again once one of
+		// them has outgrown its range. New instancers go after the rest.
+		if (overflow) {
+			reserved = 0;
+		}
+		for (IndirectInstancer<D> instancer : instancers) {
+			if (overflow || !instancer.isPlaced()) {
+				reserved = instancer.place(reserved);
+			}
+		}
+
+		// XXX VAO is bound and not reset or restored
+		vao.bind();
+
+		// XXX ARRAY_BUFFER is bound and reset
+		instanceVBO.bind();
+		boolean realloc = instanceVBO.ensureCapacity((long) reserved * instanceFormat.getStride());
+		if (realloc) {
+			attributeOffset = -1;
+		}
+
+		if (reserved > 0) {
+			try (MappedBuffer mapped = instanceVBO.getBufferExplicit(0, instanceVBO.getCapacity())) {
+				StructWriter<D> writer = type.getWriter(mapped);
+				for (IndirectInstancer<D> instancer : instancers) {
+					instancer.write(writer, mapped, realloc);
+				}
+			} catch (Exception e) {
+				Flywheel.LOGGER.error("Error updating IndirectMaterial:", e);
+			}
+		}
+
+		// ring buffers move to a different region each frame
+		int frameOffset = (int) instanceVBO.getFrameOffset();
+		if (frameOffset != attributeOffset) {
+			bindInstanceAttributes(frameOffset);
+		}
+		instanceVBO.unbind();
+
+		writeCommands();
+
+		return drawCount > 0;
+	}
+
+	private void writeCommands() {
+		ensureCommandCapacity(instancers.size());
+
+		DrawRun run = null;
+		for (IndirectInstancer<D> instancer : instancers) {
+			int count = instancer.getInstanceCount();
+			BufferedModel model = instancer.getModel();
+			if (count == 0 || model == null || !model.valid()) continue;
+
+			ElementBuffer ebo = model.getElementBuffer();
+			if (ebo == null) continue;
+
+			long ptr = commandPtr + (long) drawCount * COMMAND_SIZE;
+			MemoryUtil.memPutInt(ptr, ebo.getElementCount());
+			MemoryUtil.memPutInt(ptr + 4, count);
+			MemoryUtil.memPutInt(ptr + 8, 0);
+			MemoryUtil.memPutInt(ptr + 12, model.getBaseVertex());
+			MemoryUtil.memPutInt(ptr + 16, instancer.getBaseInstance());
+
+			if (run == null || !pooledModels || run.ebo.getBufferHandle() != ebo.getBufferHandle() || run.ebo.getEboIndexType() != ebo.getEboIndexType()) {
+				run = new DrawRun(ebo, drawCount, pooledModels ? null : model);
+				runs.add(run);
+			}
+			run.count++;
+
+			drawCount++;
+			instanceCount += count;
+			vertexCount += instancer.getVertexCount();
+		}
+
+		if (drawCount == 0) return;
+
+		long length = (long) drawCount * COMMAND_SIZE;
+
+		// XXX DRAW_INDIRECT_BUFFER is bound and reset
+		commandBuffer.bind();
+		commandBuffer.ensureCapacity(length);
+		GL15.nglBufferSubData(GlBufferType.DRAW_INDIRECT_BUFFER.glEnum, 0, length, commandPtr);
+		commandBuffer.unbind();
+	}
+
+	private void ensureCommandCapacity(int count) {
+		if (count <= commandCapacity) return;
+
+		commandCapacity = count + 16;
+		commandPtr = MemoryUtil.nmemRealloc(commandPtr, (long) commandCapacity * COMMAND_SIZE);
+	}
+
+	/**
+	 * Submit the commands written by {@link #prepare}. Assumes the program is bound.
+	 */
+	void draw() {
+		// XXX VAO is bound and not reset or restored
+		vao.bind();
+
+		// XXX DRAW_INDIRECT_BUFFER is bound and reset
+		commandBuffer.bind();
+		for (DrawRun run : runs) {
+			if (run.model != null) {
+				run.model.setupState(vao); // XXX ARRAY_BUFFER is bound and not reset or restored
+			}
+			// the element buffer binding is part of the VAO state
+			run.ebo.bind();
+			GL43.glMultiDrawElementsIndirect(GlPrimitive.TRIANGLES.glEnum, run.ebo.getEboIndexType().asGLType, (long) run.first * COMMAND_SIZE, run.count, 0);
+		}
+		commandBuffer.unbind();
+
+		// persistent mapping sync point
+		instanceVBO.doneForThisFrame();
+	}
+
+	private void bindInstanceAttributes(int offset) {
+		vao.bindAttributes(modelAttributeCount, instanceFormat, offset);
+		attributeOffset = offset;
+
+		for (int i = 0; i < instanceFormat.getAttributeCount(); i++) {
+			GlCompat.getInstance().instancedArrays.vertexAttribDivisor(modelAttributeCount + i, 1);
+		}
+	}
+
+	public int getInstanceCount() {
+		return instanceCount;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getDrawCount() {
+		return drawCount;
+	}
+
+	public int getDrawCallCount() {
+		return runs.size();
+	}
+
+	/**
+	 * Clear all instance data without freeing resources.
+	 */
+	public void clear() {
+		models.values()
+				.forEach(IndirectInstancer::clear);
+	}
+
+	public void delete() {
+		models.values().forEach(IndirectInstancer::delete);
+		models.clear();
+		instancers.clear();
+		uninitialized.clear();
+		runs.clear();
+		reserved = 0;
+
+		if (vao != null) {
+			vao.delete();
+			instanceVBO.delete();
+			commandBuffer.delete();
+			vao = null;
+		}
+
+		MemoryUtil.nmemFree(commandPtr);
+		commandPtr = 0;
+		commandCapacity = 0;
+	}
+
+	/**
+	 * A span of consecutive commands that can be submitted in one call.
+	 */
+	private static class DrawRun {
+		private final ElementBuffer ebo;
+		private final int first;
+		// the model whose own buffers must be bound first, or null if it lives in the pool
+		@Nullable
+		private final BufferedModel model;
+		private int count;
+
+		private DrawRun(ElementBuffer ebo, int first, @Nullable BufferedModel model) {
+			this.ebo = ebo;
+			this.first = first;
+			this.model = model;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.jozufozu.flywheel.backend.instancing.indirect;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jozufozu.flywheel.api.InstanceData;
+import com.jozufozu.flywheel.api.MaterialGroup;
+import com.jozufozu.flywheel.api.struct.Instanced;
+import com.jozufozu.flywheel.api.struct.StructType;
+import com.jozufozu.flywheel.backend.FrameProfiler;
+import com.jozufozu.flywheel.backend.RenderLayer;
+import com.jozufozu.flywheel.backend.instancing.instancing.InstancedMaterialGroup;
+import com.jozufozu.flywheel.backend.model.ModelAllocator;
+import com.jozufozu.flywheel.backend.model.ModelPool;
+import com.jozufozu.flywheel.core.Formats;
+import com.jozufozu.flywheel.core.compile.ProgramContext;
+import com.jozufozu.flywheel.core.shader.WorldProgram;
+import com.jozufozu.flywheel.util.Textures;
+import com.mojang.math.Matrix4f;
+
+import net.minecraft.client.renderer.RenderType;
+
+/**
+ * A group of materials all rendered with the same GL state.
+ *
+ * <p>
+ *     All models in the group live in one {@link ModelPool}, so every material can reach all of its models
+ *     through a single vertex array. Where the pool can't be used, models get their own buffers and each one is
+ *     drawn with a call of its own.
+ * </p>
+ */
+public class IndirectMaterialGroup<P extends WorldProgram> implements MaterialGroup {
+
+	protected final IndirectEngine<P> owner;
+	protected final RenderType type;
+
+	private final Map<Instanced<? extends InstanceData>, IndirectMaterial<?>> materials = new HashMap<>();
+
+	private ModelAllocator allocator;
+	private int vertexCount;
+	private int instanceCount;
+	private int drawCount;
+	private int drawCallCount;
+
+	public IndirectMaterialGroup(IndirectEngine<P> owner, RenderType type) {
+		this.owner = owner;
+		this.type = type;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <D extends InstanceData> IndirectMaterial<D> material(StructType<D> type) {
+		if (type instanceof Instanced<D> instanced) {
+			return (IndirectMaterial<D>) materials.computeIfAbsent(instanced, IndirectMaterial::new);
+		} else {
+			throw new ClassCastException("Cannot use type '" + type + "' with indirect instancing.");
+		}
+	}
+
+	/**
+	 * Get the number of instances drawn last frame.
+	 * @return The instance count.
+	 */
+	public int getInstanceCount() {
+		return instanceCount;
+	}
+
+	/**
+	 * Get the number of vertices drawn last frame.
+	 * @return The vertex count.
+	 */
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * Get the number of indirect draw commands submitted last frame.
+	 * @return The draw count.
+	 */
+	public int getDrawCount() {
+		return drawCount;
+	}
+
+	/**
+	 * Get the number of multi-draw calls those commands were submitted with.
+	 * @return The draw call count.
+	 */
+	public int getDrawCallCount() {
+		return drawCallCount;
+	}
+
+	// XXX Runs inside of restore state
+	public void render(Matrix4f viewProjection, double camX, double camY, double camZ, RenderLayer layer) {
+		type.setupRenderState();
+		Textures.bindActiveTextures(); // XXX Changes active unit and bound textures
+		renderAll(viewProjection, camX, camY, camZ, layer); // XXX May change ARRAY_BUFFER binding (reset), VAO binding (not reset), shader binding (not reset)
+		type.clearRenderState();
+	}
+
+	protected void renderAll(Matrix4f viewProjection, double camX, double camY, double camZ, RenderLayer layer) {
+		initializeInstancers(); // XXX May change ARRAY_BUFFER binding (reset), VAO binding (not reset), call Model.createEBO
+
+		vertexCount = 0;
+		instanceCount = 0;
+		drawCount = 0;
+		drawCallCount = 0;
+
+		for (Map.Entry<Instanced<? extends InstanceData>, IndirectMaterial<?>> entry : materials.entrySet()) {
+			IndirectMaterial<?> material = entry.getValue();
+
+			// pack instances and write commands before the program is bound
+			if (!material.prepare()) continue; // XXX May change VAO binding (not reset), ARRAY_BUFFER binding (reset)
+
+			P program = owner.context.getProgram(ProgramContext.create(entry.getKey()
+					.getProgramSpec(), Formats.BLOCK, layer));
+
+			// XXX Shader is bound and not reset or restored
+			program.bind();
+			program.uploadViewProjection(viewProjection);
+			program.uploadCameraPos(camX, camY, camZ);
+			FrameProfiler.add(FrameProfiler.Metric.PROGRAM_BINDS, 1);
+
+			material.draw(); // XXX May change VAO binding (not reset), ELEMENT_ARRAY_BUFFER binding (in VAO)
+
+			vertexCount += material.getVertexCount();
+			instanceCount += material.getInstanceCount();
+			drawCount += material.getDrawCount();
+			drawCallCount += material.getDrawCallCount();
+		}
+
+		FrameProfiler.addDraws(layer, drawCallCount);
+	}
+
+	private void initializeInstancers() {
+		if (allocator == null) {
+			allocator = InstancedMaterialGroup.createAllocator(); // XXX May change ARRAY_BUFFER binding (not reset)
+		}
+
+		for (IndirectMaterial<?> material : materials.values()) {
+			material.init(allocator);
+		}
+
+		if (allocator instanceof ModelPool pool) {
+			// the model callbacks point each material's VAO at the pool, so flush after everything is allocated
+			pool.flush(); // XXX May change ARRAY_BUFFER binding (reset)
+		}
+	}
+
+	public void clear() {
+		materials.values().forEach(IndirectMaterial::clear);
+	}
+
+	public void delete() {
+		materials.values()
+				.forEach(IndirectMaterial::delete);
+
+		materials.clear();
+
+		if (allocator instanceof ModelPool pool) {
+			pool.delete();
+		}
+		allocator = null;
+	}
+}
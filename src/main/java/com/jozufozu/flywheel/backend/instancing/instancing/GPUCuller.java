@@ -0,0 +1,405 @@
+package com.jozufozu.flywheel.backend.instancing.instancing;
+
+import static org.lwjgl.opengl.GL20.glUniform1f;
+import static org.lwjgl.opengl.GL20.glUniform3f;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL30.glUniform1ui;
+import static org.lwjgl.opengl.GL42.GL_VERTEX_ATTRIB_ARRAY_BARRIER_BIT;
+import static org.lwjgl.opengl.GL42.glMemoryBarrier;
+import static org.lwjgl.opengl.GL43.GL_COMMAND_BARRIER_BIT;
+import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BARRIER_BIT;
+import static org.lwjgl.opengl.GL43.glDispatchCompute;
+
+import org.jetbrains.annotations.Nullable;
+
+import com.jozufozu.flywheel.Flywheel;
+import com.jozufozu.flywheel.api.vertex.VertexList;
+import com.jozufozu.flywheel.backend.gl.buffer.GlBuffer;
+import com.jozufozu.flywheel.backend.gl.buffer.GlBufferType;
+import com.jozufozu.flywheel.backend.gl.shader.GlProgram;
+import com.jozufozu.flywheel.backend.gl.shader.GlShader;
+import com.jozufozu.flywheel.backend.gl.shader.ShaderType;
+import com.jozufozu.flywheel.backend.gl.versioned.GlCompat;
+import com.jozufozu.flywheel.config.FlwConfig;
+import com.jozufozu.flywheel.core.compile.ProgramAssembler;
+import com.jozufozu.flywheel.event.ReloadRenderersEvent;
+import com.mojang.math.Matrix4f;
+import com.mojang.math.Vector4f;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Culls instances against the view frustum and render distance in compute shaders.
+ * <p>
+ *     Each instancer gets a single {@code DrawElementsIndirectCommand}. The cull pass tests every instance's bounding
+ *     sphere and, for each survivor, bumps the command's {@code instanceCount} with an atomic add and writes the
+ *     instance's index into the next slot of a visible-index buffer. The gather pass then copies the listed instances
+ *     into a compacted instance buffer, which the command draws with {@code baseInstance} 0. Culled instances never
+ *     reach the vertex shader, and the draw costs the same as an uncompacted one.
+ * </p>
+ * <p>
+ *     Instance layouts are rarely a multiple of 4 bytes long, so the compacted buffer pads each instance to one. See
+ *     {@link #compactedStride}.
+ * </p>
+ */
+public class GPUCuller {
+
+	/**
+	 * The size in bytes of a DrawElementsIndirectCommand.
+	 */
+	public static final int COMMAND_SIZE = 20;
+	/**
+	 * The size in bytes of a bounding sphere, a vec4.
+	 */
+	public static final int BOUNDS_SIZE = 16;
+	/**
+	 * The size in bytes of an entry in the visible-index buffer.
+	 */
+	public static final int INDEX_SIZE = 4;
+
+	private static final int BOUNDS_BINDING = 0;
+	private static final int COMMAND_BINDING = 1;
+	private static final int VISIBLE_BINDING = 2;
+	private static final int SOURCE_BINDING = 3;
+	private static final int COMPACTED_BINDING = 4;
+	private static final int GROUP_SIZE = 64;
+
+	private static final ResourceLocation CULL_NAME = Flywheel.rl("cull");
+	private static final ResourceLocation GATHER_NAME = Flywheel.rl("cull_gather");
+
+	private static final String COMMAND_STRUCT = """
+			struct DrawCommand {
+			    uint count;
+			    uint instanceCount;
+			    uint firstIndex;
+			    int baseVertex;
+			    uint baseInstance;
+			};
+			""";
+
+	private static final String CULL_SOURCE = """
+			#version 430
+
+			layout(local_size_x = %d) in;
+
+			%s
+
+			layout(std430, binding = %d) readonly buffer Bounds {
+			    vec4 bounds[];
+			};
+
+			layout(std430, binding = %d) buffer Command {
+			    DrawCommand command;
+			};
+
+			layout(std430, binding = %d) writeonly buffer Visible {
+			    uint visible[];
+			};
+
+			uniform mat4 uViewProjection;
+			uniform vec3 uCameraPos;
+			uniform float uMaxDistance;
+			uniform uint uInstanceCount;
+
+			bool inFrustum(vec3 center, float radius) {
+			    mat4 t = transpose(uViewProjection);
+			    vec4 planes[6] = vec4[6](t[3] + t[0], t[3] - t[0], t[3] + t[1], t[3] - t[1], t[3] + t[2], t[3] - t[2]);
+
+			    for (int i = 0; i < 6; i++) {
+			        vec4 plane = planes[i];
+			        if (dot(plane.xyz, center) + plane.w < -radius * length(plane.xyz)) {
+			            return false;
+			        }
+			    }
+			    return true;
+			}
+
+			void main() {
+			    uint i = gl_GlobalInvocationID.x;
+
+			    if (i >= uInstanceCount) {
+			        return;
+			    }
+
+			    vec4 sphere = bounds[i];
+
+			    if (distance(sphere.xyz, uCameraPos) - sphere.w <= uMaxDistance && inFrustum(sphere.xyz, sphere.w)) {
+			        visible[atomicAdd(command.instanceCount, 1u)] = i;
+			    }
+			}
+			""".formatted(GROUP_SIZE, COMMAND_STRUCT, BOUNDS_BINDING, COMMAND_BINDING, VISIBLE_BINDING);
+
+	private static final String GATHER_SOURCE = """
+			#version 430
+
+			layout(local_size_x = %d) in;
+
+			%s
+
+			layout(std430, binding = %d) readonly buffer Command {
+			    DrawCommand command;
+			};
+
+			layout(std430, binding = %d) readonly buffer Visible {
+			    uint visible[];
+			};
+
+			layout(std430, binding = %d) readonly buffer Source {
+			    uint source[];
+			};
+
+			layout(std430, binding = %d) writeonly buffer Compacted {
+			    uint compacted[];
+			};
+
+			// where this frame's instances start in the source buffer, in bytes
+			uniform uint uSourceOffset;
+			// the instance stride in bytes, and rounded up to whole words
+			uniform uint uStride;
+			uniform uint uCompactedWords;
+
+			uint sourceByte(uint address) {
+			    return (source[address >> 2] >> ((address & 3u) * 8u)) & 0xFFu;
+			}
+
+			void main() {
+			    uint slot = gl_GlobalInvocationID.x;
+
+			    if (slot >= command.instanceCount) {
+			        return;
+			    }
+
+			    uint from = uSourceOffset + visible[slot] * uStride;
+			    uint to = slot * uCompactedWords;
+
+			    // the last word may read up to 3 bytes past the instance; they land in padding, and the instance
+			    // buffer's growth margin keeps them in bounds
+			    for (uint word = 0u; word < uCompactedWords; word++) {
+			        uint address = from + word * 4u;
+
+			        if ((address & 3u) == 0u) {
+			            compacted[to + word] = source[address >> 2];
+			        } else {
+			            compacted[to + word] = sourceByte(address) | sourceByte(address + 1u) << 8 | sourceByte(address + 2u) << 16 | sourceByte(address + 3u) << 24;
+			        }
+			    }
+			}
+			""".formatted(GROUP_SIZE, COMMAND_STRUCT, COMMAND_BINDING, VISIBLE_BINDING, SOURCE_BINDING, COMPACTED_BINDING);
+
+	private static GPUCuller instance;
+	private static boolean failed;
+
+	/**
+	 * @return The culler, or null if GPU culling is disabled or not supported.
+	 */
+	@Nullable
+	public static GPUCuller get() {
+		if (failed || !FlwConfig.get().gpuCulling() || !GlCompat.getInstance().computeCullingSupported()) {
+			return null;
+		}
+
+		if (instance == null) {
+			try {
+				instance = new GPUCuller();
+			} catch (Exception e) {
+				Flywheel.LOGGER.error("Failed to create GPU culling programs, GPU culling will be disabled until the next reload:", e);
+				failed = true;
+			}
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Delete the programs, and give them another chance to compile if they failed.
+	 */
+	public static void onReloadRenderers(ReloadRenderersEvent event) {
+		if (instance != null) {
+			instance.delete();
+			instance = null;
+		}
+		failed = false;
+	}
+
+	/**
+	 * @return The stride of the compacted instance buffer for an instance layout with the given stride.
+	 */
+	public static int compactedStride(int stride) {
+		return (stride + 3) & ~3;
+	}
+
+	private final CullProgram cullProgram;
+	private final GatherProgram gatherProgram;
+
+	private GPUCuller() {
+		cullProgram = new ProgramAssembler(CULL_NAME).attachShader(new GlShader(CULL_NAME, ShaderType.COMPUTE, CULL_SOURCE))
+				.link()
+				.deleteLinkedShaders()
+				.build(CullProgram::new);
+
+		try {
+			gatherProgram = new ProgramAssembler(GATHER_NAME).attachShader(new GlShader(GATHER_NAME, ShaderType.COMPUTE, GATHER_SOURCE))
+					.link()
+					.deleteLinkedShaders()
+					.build(GatherProgram::new);
+		} catch (RuntimeException e) {
+			cullProgram.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Bind the cull program and upload the per-frame uniforms.
+	 */
+	public void begin(Matrix4f viewProjection, double camX, double camY, double camZ) {
+		// XXX Shader is bound and not reset or restored
+		cullProgram.bind();
+		cullProgram.uploadFrame(viewProjection, camX, camY, camZ, Minecraft.getInstance().gameRenderer.getRenderDistance());
+	}
+
+	/**
+	 * Find the visible instances of one instancer. {@link #begin} must have been called first, and the command's
+	 * {@code instanceCount} must be 0.
+	 */
+	public void cull(GlBuffer bounds, GlBuffer command, GlBuffer visible, int instanceCount) {
+		// XXX SHADER_STORAGE_BUFFER is bound and not reset or restored
+		bindStorage(BOUNDS_BINDING, bounds);
+		bindStorage(COMMAND_BINDING, command);
+		bindStorage(VISIBLE_BINDING, visible);
+
+		cullProgram.uploadDraw(instanceCount);
+
+		glDispatchCompute(dispatchSize(instanceCount), 1, 1);
+	}
+
+	/**
+	 * Wait for every {@link #cull} and bind the gather program.
+	 */
+	public void beginGather() {
+		glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+
+		// XXX Shader is bound and not reset or restored
+		gatherProgram.bind();
+	}
+
+	/**
+	 * Copy the visible instances of one instancer into its compacted buffer. {@link #beginGather} must have been
+	 * called first.
+	 *
+	 * @param sourceOffset Where the instances start in {@code source}, in bytes.
+	 * @param stride The stride of the instances in {@code source}. {@code compacted} uses {@link #compactedStride}.
+	 */
+	public void gather(GlBuffer command, GlBuffer visible, GlBuffer source, long sourceOffset, int stride, GlBuffer compacted, int instanceCount) {
+		// XXX SHADER_STORAGE_BUFFER is bound and not reset or restored
+		bindStorage(COMMAND_BINDING, command);
+		bindStorage(VISIBLE_BINDING, visible);
+		bindStorage(SOURCE_BINDING, source);
+		bindStorage(COMPACTED_BINDING, compacted);
+
+		gatherProgram.uploadDraw(sourceOffset, stride);
+
+		glDispatchCompute(dispatchSize(instanceCount), 1, 1);
+	}
+
+	/**
+	 * Make the commands and compacted instances written by {@link #gather} visible to indirect draws.
+	 */
+	public void end() {
+		glMemoryBarrier(GL_COMMAND_BARRIER_BIT | GL_VERTEX_ATTRIB_ARRAY_BARRIER_BIT);
+	}
+
+	private void delete() {
+		cullProgram.delete();
+		gatherProgram.delete();
+	}
+
+	private static void bindStorage(int binding, GlBuffer buffer) {
+		// bind through the tracked path first so GlStateTracker agrees with the generic binding
+		GlBufferType.SHADER_STORAGE_BUFFER.bind(buffer.handle());
+		glBindBufferBase(GlBufferType.SHADER_STORAGE_BUFFER.glEnum, binding, buffer.handle());
+	}
+
+	private static int dispatchSize(int instanceCount) {
+		return (instanceCount + GROUP_SIZE - 1) / GROUP_SIZE;
+	}
+
+	/**
+	 * Compute a bounding sphere for a model, centered on the middle of its bounding box.
+	 *
+	 * @return A vector with the center in xyz and the radius in w.
+	 */
+	public static Vector4f computeBoundingSphere(VertexList reader) {
+		int vertexCount = reader.getVertexCount();
+
+		if (vertexCount == 0) {
+			return new Vector4f(0, 0, 0, 0);
+		}
+
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < vertexCount; i++) {
+			float x = reader.getX(i);
+			float y = reader.getY(i);
+			float z = reader.getZ(i);
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			minZ = Math.min(minZ, z);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			maxZ = Math.max(maxZ, z);
+		}
+
+		float cX = (minX + maxX) * 0.5f;
+		float cY = (minY + maxY) * 0.5f;
+		float cZ = (minZ + maxZ) * 0.5f;
+
+		float radiusSqr = 0;
+		for (int i = 0; i < vertexCount; i++) {
+			float dX = reader.getX(i) - cX;
+			float dY = reader.getY(i) - cY;
+			float dZ = reader.getZ(i) - cZ;
+			radiusSqr = Math.max(radiusSqr, dX * dX + dY * dY + dZ * dZ);
+		}
+
+		return new Vector4f(cX, cY, cZ, (float) Math.sqrt(radiusSqr));
+	}
+
+	private static class CullProgram extends GlProgram {
+		private final int uViewProjection = getUniformLocation("uViewProjection");
+		private final int uCameraPos = getUniformLocation("uCameraPos");
+		private final int uMaxDistance = getUniformLocation("uMaxDistance");
+		private final int uInstanceCount = getUniformLocation("uInstanceCount");
+
+		private CullProgram(ResourceLocation name, int handle) {
+			super(name, handle);
+		}
+
+		private void uploadFrame(Matrix4f viewProjection, double camX, double camY, double camZ, float maxDistance) {
+			uploadMatrixUniform(uViewProjection, viewProjection);
+			glUniform3f(uCameraPos, (float) camX, (float) camY, (float) camZ);
+			glUniform1f(uMaxDistance, maxDistance);
+		}
+
+		private void uploadDraw(int instanceCount) {
+			glUniform1ui(uInstanceCount, instanceCount);
+		}
+	}
+
+	private static class GatherProgram extends GlProgram {
+		private final int uSourceOffset = getUniformLocation("uSourceOffset");
+		private final int uStride = getUniformLocation("uStride");
+		private final int uCompactedWords = getUniformLocation("uCompactedWords");
+
+		private GatherProgram(ResourceLocation name, int handle) {
+			super(name, handle);
+		}
+
+		private void uploadDraw(long sourceOffset, int stride) {
+			glUniform1ui(uSourceOffset, (int) sourceOffset);
+			glUniform1ui(uStride, stride);
+			glUniform1ui(uCompactedWords, compactedStride(stride) / 4);
+		}
+	}
+}
@@ -1,5 +1,11 @@
 package com.jozufozu.flywheel.backend.instancing.instancing;
 
+import java.util.Arrays;
+
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL40;
+import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 
 import com.jozufozu.flywheel.Flywheel;
@@ -9,13 +15,18 @@ import com.jozufozu.flywheel.api.struct.StructWriter;
 import com.jozufozu.flywheel.backend.gl.GlVertexArray;
 import com.jozufozu.flywheel.backend.gl.buffer.GlBuffer;
 import com.jozufozu.flywheel.backend.gl.buffer.GlBufferType;
+import com.jozufozu.flywheel.backend.gl.buffer.GlBufferUsage;
 import com.jozufozu.flywheel.backend.gl.buffer.MappedBuffer;
+import com.jozufozu.flywheel.backend.gl.buffer.MappedGlBuffer;
 import com.jozufozu.flywheel.backend.gl.versioned.GlCompat;
 import com.jozufozu.flywheel.backend.instancing.AbstractInstancer;
 import com.jozufozu.flywheel.backend.model.BufferedModel;
+import com.jozufozu.flywheel.backend.model.ElementBuffer;
 import com.jozufozu.flywheel.backend.model.ModelAllocator;
 import com.jozufozu.flywheel.core.layout.BufferLayout;
 import com.jozufozu.flywheel.core.model.Model;
+import com.jozufozu.flywheel.util.AtomicBitSet;
+import com.mojang.math.Vector4f;
 
 public class GPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 
@@ -26,13 +37,26 @@ public class GPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 	private GlVertexArray vao;
 	private GlBuffer instanceVBO;
 	private int glInstanceCount = 0;
+	// where the instance attributes currently point into instanceVBO, or -1 if they need to be re-bound
+	private int attributeOffset = -1;
 	private boolean deleted;
 	private boolean initialized;
 
+	// GPU culling state, only allocated when culling is enabled and the struct type supports it.
+	@Nullable
+	private Culling culling;
+
 	protected boolean anyToUpdate;
 
+	// Indices of instances marked dirty since the last upload. May be set from worker threads.
+	private final AtomicBitSet dirtyIndices = new AtomicBitSet();
+	// Scratch list of [start, end) index pairs to upload, reused across frames
+	private int[] uploadRuns = new int[16];
+
+	private long uploadedBytes;
+
 	public GPUInstancer(Instanced<D> type, Model model) {
-		super(type::create, model);
+		super(type::create, model, type.preserveInstanceOrder());
 		this.instanceFormat = type.getLayout();
 		instancedType = type;
 	}
@@ -42,20 +66,42 @@ public class GPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 		anyToUpdate = true;
 	}
 
-	public void render() {
-		if (invalid()) return;
+	@Override
+	public void notifyDirty(int index) {
+		anyToUpdate = true;
+		dirtyIndices.set(index);
+	}
+
+	/**
+	 * Upload any changed instances and draw them.
+	 *
+	 * @return {@code true} if a draw call was made.
+	 */
+	public boolean render() {
+		if (invalid()) return false;
 
 		// XXX VAO is bound and not reset or restored
 		vao.bind();
 
-		renderSetup();
-
-		if (glInstanceCount > 0) {
-			model.drawInstances(glInstanceCount);
+		boolean drew;
+		if (culling != null && culling.ready) {
+			// cull() already uploaded this frame's instances, and the compacted copy has to match the command
+			culling.ready = false;
+			culling.draw();
+			drew = true;
+		} else {
+			renderSetup();
+
+			drew = glInstanceCount > 0;
+			if (drew) {
+				model.drawInstances(glInstanceCount);
+			}
 		}
 
 		// persistent mapping sync point
 		instanceVBO.doneForThisFrame();
+
+		return drew;
 	}
 
 	private boolean invalid() {
@@ -82,12 +128,62 @@ public class GPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 
 		instanceVBO = GlBuffer.requestPersistent(GlBufferType.ARRAY_BUFFER);
 		instanceVBO.setGrowthMargin(instanceFormat.getStride() * 16);
+
+		if (instancedType.supportsCulling() && model.getElementBuffer() != null && GPUCuller.get() != null) {
+			culling = new Culling(GPUCuller.computeBoundingSphere(modelData.getReader()));
+		}
+	}
+
+	/**
+	 * Upload any changed instances and find the visible ones.
+	 *
+	 * @return true if {@link #gather} has to be called before rendering.
+	 */
+	public boolean cull(GPUCuller culler) {
+		if (invalid() || culling == null) return false;
+
+		// XXX VAO is bound and not reset or restored
+		vao.bind();
+
+		renderSetup();
+
+		culling.ready = false;
+		culling.culled = glInstanceCount > 0 && model.valid() && culling.cull(culler);
+
+		return culling.culled;
+	}
+
+	/**
+	 * Copy the instances {@link #cull} found into the compacted buffer, so {@link #render} can draw them with one
+	 * indirect command.
+	 */
+	public void gather(GPUCuller culler) {
+		if (culling == null || !culling.culled) return;
+
+		culling.culled = false;
+		culling.gather(culler);
+		culling.ready = true;
 	}
 
 	public boolean isInitialized() {
 		return initialized;
 	}
 
+	/**
+	 * @return The number of instance bytes written to the GPU since the last call to {@link #resetUploadedBytes}.
+	 */
+	public long getUploadedBytes() {
+		return uploadedBytes;
+	}
+
+	public void resetUploadedBytes() {
+		uploadedBytes = 0;
+	}
+
+	public long getBufferCapacity() {
+		return instanceVBO != null ? instanceVBO.getCapacity() : 0;
+	}
+
 	public boolean isEmpty() {
 		return !anyToUpdate && !anyToRemove && glInstanceCount == 0;
 	}
@@ -105,6 +201,10 @@ public class GPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 		instanceVBO.delete();
 		vao.delete();
 
+		if (culling != null) {
+			culling.delete();
+		}
+
 		modelData.delete();
 	}
 
@@ -128,6 +228,12 @@ public class GPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 			glInstanceCount = data.size();
 		}
 
+		// ring buffers move to a different region each frame
+		int frameOffset = (int) instanceVBO.getFrameOffset();
+		if (frameOffset != attributeOffset) {
+			bindInstanceAttributes(frameOffset);
+		}
+
 		instanceVBO.unbind();
 
 		anyToRemove = anyToUpdate = false;
@@ -140,6 +246,7 @@ public class GPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 		if (length > 0) {
 			try (MappedBuffer buf = instanceVBO.getBuffer(offset, length)) {
 				MemoryUtil.memSet(MemoryUtil.memAddress(buf.unwrap()), 0, length);
+				uploadedBytes += length;
 			} catch (Exception e) {
 				Flywheel.LOGGER.error("Error clearing buffer tail:", e);
 			}
@@ -151,28 +258,93 @@ public class GPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 
 		if (size <= 0) return;
 
-		try (MappedBuffer mapped = instanceVBO.getBuffer()) {
+		if (dirtyIndices.checkOverflowAndClear()) {
+			// Someone was marked dirty before we had room to track them, so look at everything once.
+			dirtyIndices.ensureCapacity(size);
+			for (int i = 0; i < size; i++) {
+				if (data.get(i).isDirty()) {
+					dirtyIndices.set(i);
+				}
+			}
+		}
+
+		int runCount = collectDirtyRuns(size);
+
+		if (runCount == 0) return;
+
+		final int stride = instanceFormat.getStride();
+		final long mapStart = (long) uploadRuns[0] * stride;
+		final long mapEnd = (long) uploadRuns[runCount * 2 - 1] * stride;
+
+		try (MappedBuffer mapped = instanceVBO.getBufferExplicit(mapStart, mapEnd - mapStart)) {
 
 			final StructWriter<D> writer = instancedType.getWriter(mapped);
 
-			boolean sequential = true;
-			for (int i = 0; i < size; i++) {
-				final D element = data.get(i);
-				if (element.checkDirtyAndClear()) {
-					if (!sequential) {
-						writer.seek(i);
-					}
+			for (int run = 0; run < runCount; run++) {
+				final int start = uploadRuns[run * 2];
+				final int end = uploadRuns[run * 2 + 1];
+
+				writer.seek(start);
+				for (int i = start; i < end; i++) {
+					final D element = data.get(i);
+					element.checkDirtyAndClear();
 					writer.write(element);
-					sequential = true;
-				} else {
-					sequential = false;
+					if (culling != null) culling.writeBounds(i, element);
 				}
+
+				final long length = (long) (end - start) * stride;
+				mapped.flushRange((long) start * stride, length);
+				uploadedBytes += length;
 			}
+
+			if (culling != null) culling.uploadBounds();
 		} catch (Exception e) {
 			Flywheel.LOGGER.error("Error updating GPUInstancer:", e);
 		}
 	}
 
+	/**
+	 * Drain the dirty indices into coalesced [start, end) runs.
+	 *
+	 * @return The number of runs written to {@link #uploadRuns}.
+	 */
+	private int collectDirtyRuns(int size) {
+		int runCount = 0;
+		int start = -1;
+		int end = -1;
+
+		for (int i = dirtyIndices.nextSetBitAndClear(0); i >= 0; i = dirtyIndices.nextSetBitAndClear(i + 1)) {
+			// Bits past the end belong to instances that have since been removed.
+			if (i >= size) continue;
+
+			if (i == end) {
+				end++;
+				continue;
+			}
+
+			if (start >= 0) {
+				runCount = addRun(runCount, start, end);
+			}
+			start = i;
+			end = i + 1;
+		}
+
+		if (start >= 0) {
+			runCount = addRun(runCount, start, end);
+		}
+
+		return runCount;
+	}
+
+	private int addRun(int runCount, int start, int end) {
+		if (runCount * 2 + 2 > uploadRuns.length) {
+			uploadRuns = Arrays.copyOf(uploadRuns, uploadRuns.length * 2);
+		}
+		uploadRuns[runCount * 2] = start;
+		uploadRuns[runCount * 2 + 1] = end;
+		return runCount + 1;
+	}
+
 	private boolean realloc() {
 		int size = this.data.size();
 		int stride = instanceFormat.getStride();
@@ -182,27 +354,177 @@ public class GPUInstancer<D extends InstanceData> extends AbstractInstancer<D> {
 			try (MappedBuffer buffer = instanceVBO.getBuffer()) {
 				StructWriter<D> writer = instancedType.getWriter(buffer);
 				for (D datum : data) {
+					datum.checkDirtyAndClear();
 					writer.write(datum);
 				}
+				uploadedBytes += requiredSize;
 			} catch (Exception e) {
 				Flywheel.LOGGER.error("Error reallocating GPUInstancer:", e);
 			}
 
 			glInstanceCount = size;
 
-			bindInstanceAttributes();
+			// everything was just written
+			dirtyIndices.clear();
+			dirtyIndices.ensureCapacity((int) (instanceVBO.getCapacity() / stride));
+
+			if (culling != null) {
+				culling.resize(size);
+				for (int i = 0; i < size; i++) {
+					culling.writeBounds(i, data.get(i));
+				}
+				culling.uploadBounds();
+			}
+
+			attributeOffset = -1;
 
 			return true;
 		}
 		return false;
 	}
 
-	private void bindInstanceAttributes() {
+	private void bindInstanceAttributes(int offset) {
 		int attributeBaseIndex = model.getAttributeCount();
-		vao.bindAttributes(attributeBaseIndex, instanceFormat);
+		vao.bindAttributes(attributeBaseIndex, instanceFormat, offset);
+		attributeOffset = offset;
 
 		for (int i = 0; i < instanceFormat.getAttributeCount(); i++) {
             GlCompat.getInstance().instancedArrays.vertexAttribDivisor(attributeBaseIndex + i, 1);
 		}
 	}
+
+	/**
+	 * Per-instance bounding spheres, and the buffers the culling shaders compact the visible instances into.
+	 */
+	private class Culling {
+		private final Vector4f modelSphere;
+		private final Vector4f scratch = new Vector4f();
+		private final int compactedStride = GPUCuller.compactedStride(instanceFormat.getStride());
+
+		private final GlBuffer bounds = new MappedGlBuffer(GlBufferType.SHADER_STORAGE_BUFFER, GlBufferUsage.DYNAMIC_DRAW);
+		private final GlBuffer command = new MappedGlBuffer(GlBufferType.DRAW_INDIRECT_BUFFER, GlBufferUsage.DYNAMIC_COPY);
+		private final GlBuffer visible = new MappedGlBuffer(GlBufferType.SHADER_STORAGE_BUFFER, GlBufferUsage.DYNAMIC_COPY);
+		private final GlBuffer compacted = new MappedGlBuffer(GlBufferType.ARRAY_BUFFER, GlBufferUsage.DYNAMIC_COPY);
+
+		// CPU copy of the bounds, so we only have to upload the range that changed
+		private long boundsPtr;
+		private int capacity;
+		private int dirtyMin = Integer.MAX_VALUE;
+		private int dirtyMax = -1;
+
+		// the cull pass ran and the gather pass hasn't yet
+		private boolean culled;
+		// the compacted buffer and the command are ready to draw
+		private boolean ready;
+
+		private Culling(Vector4f modelSphere) {
+			this.modelSphere = modelSphere;
+
+			// XXX DRAW_INDIRECT_BUFFER is bound and reset
+			command.bind();
+			command.ensureCapacity(GPUCuller.COMMAND_SIZE);
+			command.unbind();
+		}
+
+		private void resize(int size) {
+			if (size <= capacity) return;
+
+			capacity = size + 16;
+			boundsPtr = MemoryUtil.nmemRealloc(boundsPtr, (long) capacity * GPUCuller.BOUNDS_SIZE);
+
+			// XXX SHADER_STORAGE_BUFFER and ARRAY_BUFFER are bound and reset
+			bounds.bind();
+			bounds.ensureCapacity((long) capacity * GPUCuller.BOUNDS_SIZE);
+			bounds.unbind();
+			visible.bind();
+			visible.ensureCapacity((long) capacity * GPUCuller.INDEX_SIZE);
+			visible.unbind();
+			compacted.bind();
+			compacted.ensureCapacity((long) capacity * compactedStride);
+			compacted.unbind();
+
+			// the GL buffer was reallocated, so everything has to go up again
+			dirtyMin = 0;
+			dirtyMax = Math.max(dirtyMax, size - 1);
+		}
+
+		private void writeBounds(int index, D element) {
+			if (index >= capacity) resize(data.size());
+
+			instancedType.transformBoundingSphere(element, modelSphere, scratch);
+
+			long ptr = boundsPtr + (long) index * GPUCuller.BOUNDS_SIZE;
+			MemoryUtil.memPutFloat(ptr, scratch.x());
+			MemoryUtil.memPutFloat(ptr + 4, scratch.y());
+			MemoryUtil.memPutFloat(ptr + 8, scratch.z());
+			MemoryUtil.memPutFloat(ptr + 12, scratch.w());
+
+			dirtyMin = Math.min(dirtyMin, index);
+			dirtyMax = Math.max(dirtyMax, index);
+		}
+
+		private void uploadBounds() {
+			if (dirtyMax < dirtyMin) return;
+
+			long offset = (long) dirtyMin * GPUCuller.BOUNDS_SIZE;
+			long length = (long) (dirtyMax - dirtyMin + 1) * GPUCuller.BOUNDS_SIZE;
+
+			// XXX SHADER_STORAGE_BUFFER is bound and reset
+			bounds.bind();
+			GL15.nglBufferSubData(GlBufferType.SHADER_STORAGE_BUFFER.glEnum, offset, length, boundsPtr + offset);
+			bounds.unbind();
+
+			dirtyMin = Integer.MAX_VALUE;
+			dirtyMax = -1;
+		}
+
+		/**
+		 * @return true if the cull pass was dispatched.
+		 */
+		private boolean cull(GPUCuller culler) {
+			ElementBuffer ebo = model.getElementBuffer();
+			if (ebo == null) return false;
+
+			// the cull pass counts the survivors up from 0
+			// XXX DRAW_INDIRECT_BUFFER is bound and reset
+			command.bind();
+			try (MemoryStack stack = MemoryStack.stackPush()) {
+				GL15.glBufferSubData(GlBufferType.DRAW_INDIRECT_BUFFER.glEnum, 0, stack.ints(ebo.getElementCount(), 0, 0, model.getBaseVertex(), 0));
+			}
+			command.unbind();
+
+			culler.cull(bounds, command, visible, glInstanceCount);
+			return true;
+		}
+
+		private void gather(GPUCuller culler) {
+			culler.gather(command, visible, instanceVBO, instanceVBO.getFrameOffset(), instanceFormat.getStride(), compacted, glInstanceCount);
+		}
+
+		private void draw() {
+			ElementBuffer ebo = model.getElementBuffer();
+			if (ebo == null) return;
+
+			// point the instance attributes at the compacted copy; the next renderSetup points them back
+			// XXX ARRAY_BUFFER is bound and reset
+			compacted.bind();
+			vao.bindAttributes(model.getAttributeCount(), instanceFormat, 0, compactedStride);
+			compacted.unbind();
+			attributeOffset = -1;
+
+			// XXX DRAW_INDIRECT_BUFFER is bound and reset
+			command.bind();
+			GL40.glDrawElementsIndirect(GL15.GL_TRIANGLES, ebo.getEboIndexType().asGLType, 0);
+			command.unbind();
+		}
+
+		private void delete() {
+			bounds.delete();
+			command.delete();
+			visible.delete();
+			compacted.delete();
+			MemoryUtil.nmemFree(boundsPtr);
+			boundsPtr = 0;
+		}
+	}
 }
@@ -55,6 +55,18 @@ public class InstancedMaterial<D extends InstanceData> implements Material<D> {
 		return models.values().stream().mapToInt(GPUInstancer::getVertexCount).sum();
 	}
 
+	public void resetUploadedBytes() {
+		models.values().forEach(GPUInstancer::resetUploadedBytes);
+	}
+
+	public long getUploadedBytes() {
+		return models.values().stream().mapToLong(GPUInstancer::getUploadedBytes).sum();
+	}
+
+	public long getBufferCapacity() {
+		return models.values().stream().mapToLong(GPUInstancer::getBufferCapacity).sum();
+	}
+
 	public boolean nothingToRender() {
 		return models.size() > 0 && models.values()
 				.stream()
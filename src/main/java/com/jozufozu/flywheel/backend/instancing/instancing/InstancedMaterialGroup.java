@@ -7,6 +7,8 @@ import com.jozufozu.flywheel.api.InstanceData;
 import com.jozufozu.flywheel.api.MaterialGroup;
 import com.jozufozu.flywheel.api.struct.Instanced;
 import com.jozufozu.flywheel.api.struct.StructType;
+import com.jozufozu.flywheel.backend.FrameProfiler;
+import com.jozufozu.flywheel.backend.GpuProfiler;
 import com.jozufozu.flywheel.backend.RenderLayer;
 import com.jozufozu.flywheel.backend.gl.versioned.GlCompat;
 import com.jozufozu.flywheel.backend.model.FallbackAllocator;
@@ -32,6 +34,8 @@ public class InstancedMaterialGroup<P extends WorldProgram> implements MaterialG
 	protected final RenderType type;
 
 	private final Map<Instanced<? extends InstanceData>, InstancedMaterial<?>> materials = new HashMap<>();
+	// only filled while the GPU profiler is on
+	private final Map<Instanced<? extends InstanceData>, String> timerLabels = new HashMap<>();
 
 	private ModelAllocator allocator;
 	private int vertexCount;
@@ -68,6 +72,22 @@ public class InstancedMaterialGroup<P extends WorldProgram> implements MaterialG
 		return vertexCount;
 	}
 
+	/**
+	 * Get the number of instance bytes uploaded last frame.
+	 * @return The byte count.
+	 */
+	public long getUploadedBytes() {
+		return materials.values().stream().mapToLong(InstancedMaterial::getUploadedBytes).sum();
+	}
+
+	/**
+	 * Get the total size of all instance buffers.
+	 * @return The byte count.
+	 */
+	public long getBufferCapacity() {
+		return materials.values().stream().mapToLong(InstancedMaterial::getBufferCapacity).sum();
+	}
+
 	// XXX Overriden in CrumblingGroup
 	// XXX Runs inside of restore state
 	public void render(Matrix4f viewProjection, double camX, double camY, double camZ, RenderLayer layer) {
@@ -88,6 +108,11 @@ public class InstancedMaterialGroup<P extends WorldProgram> implements MaterialG
 
 		vertexCount = 0;
 		instanceCount = 0;
+		materials.values().forEach(InstancedMaterial::resetUploadedBytes);
+
+		cullInstancers(viewProjection, camX, camY, camZ); // XXX May change SHADER_STORAGE_BUFFER binding (not reset), VAO binding (not reset), shader binding (not reset)
+
+		int draws = 0;
 
 		for (Map.Entry<Instanced<? extends InstanceData>, InstancedMaterial<?>> entry : materials.entrySet()) {
 			InstancedMaterial<?> material = entry.getValue();
@@ -96,19 +121,65 @@ public class InstancedMaterialGroup<P extends WorldProgram> implements MaterialG
 			P program = owner.context.getProgram(ProgramContext.create(entry.getKey()
 					.getProgramSpec(), Formats.BLOCK, layer));
 
+			int timer = GpuProfiler.isEnabled() ? GpuProfiler.begin(getTimerLabel(entry.getKey())) : -1;
+
 			// XXX Shader is bound and not reset or restored
 			program.bind();
 			program.uploadViewProjection(viewProjection);
 			program.uploadCameraPos(camX, camY, camZ);
+			FrameProfiler.add(FrameProfiler.Metric.PROGRAM_BINDS, 1);
 
 			setup(program);
 
 			for (GPUInstancer<?> instancer : material.getAllInstancers()) {
-				instancer.render(); // XXX May change VAO binding (not reset), ARRAY_BUFFER binding (reset)
+				if (instancer.render()) { // XXX May change VAO binding (not reset), ARRAY_BUFFER binding (reset)
+					draws++;
+				}
 				vertexCount += instancer.getVertexCount();
 				instanceCount += instancer.getInstanceCount();
 			}
+
+			GpuProfiler.end(timer);
+		}
+
+		FrameProfiler.addDraws(layer, draws);
+		FrameProfiler.add(FrameProfiler.Metric.INSTANCE_UPLOAD, getUploadedBytes());
+	}
+
+	private String getTimerLabel(Instanced<? extends InstanceData> instanced) {
+		return timerLabels.computeIfAbsent(instanced, i -> GpuProfiler.describe(type) + " " + i.getProgramSpec());
+	}
+
+	private void cullInstancers(Matrix4f viewProjection, double camX, double camY, double camZ) {
+		GPUCuller culler = GPUCuller.get();
+
+		if (culler == null) return;
+
+		culler.begin(viewProjection, camX, camY, camZ);
+
+		boolean any = false;
+		for (InstancedMaterial<?> material : materials.values()) {
+			if (material.nothingToRender()) continue;
+
+			for (GPUInstancer<?> instancer : material.getAllInstancers()) {
+				any |= instancer.cull(culler);
+			}
 		}
+
+		if (!any) return;
+
+		// one barrier between the passes instead of one per instancer
+		culler.beginGather();
+
+		for (InstancedMaterial<?> material : materials.values()) {
+			if (material.nothingToRender()) continue;
+
+			for (GPUInstancer<?> instancer : material.getAllInstancers()) {
+				instancer.gather(culler);
+			}
+		}
+
+		culler.end();
 	}
 
 	private void initializeInstancers() {
@@ -150,7 +221,11 @@ public class InstancedMaterialGroup<P extends WorldProgram> implements MaterialG
 		return this.allocator;
 	}
 
-	private static ModelAllocator createAllocator() {
+	/**
+	 * Create the allocator models should live in on this system. Usually a {@link ModelPool}, except on drivers that
+	 * can't be trusted with one.
+	 */
+	public static ModelAllocator createAllocator() {
 		if (GlCompat.getInstance()
 				.onAMDWindows()) {
 			return FallbackAllocator.INSTANCE;
@@ -9,28 +9,30 @@ import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 import com.jozufozu.flywheel.api.MaterialGroup;
+import com.jozufozu.flywheel.backend.GpuProfiler;
 import com.jozufozu.flywheel.backend.RenderLayer;
 import com.jozufozu.flywheel.backend.gl.GlStateTracker;
+import com.jozufozu.flywheel.backend.gl.buffer.PersistentGlBuffer;
+import com.jozufozu.flywheel.backend.gl.versioned.GlCompat;
 import com.jozufozu.flywheel.backend.instancing.Engine;
+import com.jozufozu.flywheel.backend.instancing.OriginShiftListener;
+import com.jozufozu.flywheel.backend.instancing.RenderOrigin;
 import com.jozufozu.flywheel.backend.instancing.TaskEngine;
 import com.jozufozu.flywheel.core.compile.ProgramCompiler;
 import com.jozufozu.flywheel.core.shader.WorldProgram;
 import com.jozufozu.flywheel.event.RenderLayerEvent;
 import com.jozufozu.flywheel.util.FlwUtil;
-import com.jozufozu.flywheel.util.WeakHashSet;
+import com.jozufozu.flywheel.util.StringUtil;
 import com.mojang.math.Matrix4f;
 
 import net.minecraft.client.Camera;
 import net.minecraft.client.renderer.RenderType;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Vec3i;
-import net.minecraft.util.Mth;
 
 public class InstancingEngine<P extends WorldProgram> implements Engine {
 
-	public static int MAX_ORIGIN_DISTANCE = 100;
-
-	protected BlockPos originCoordinate = BlockPos.ZERO;
+	protected final RenderOrigin origin = new RenderOrigin();
 
 	protected final ProgramCompiler<P> context;
 	protected final GroupFactory<P> groupFactory;
@@ -38,8 +40,6 @@ public class InstancingEngine<P extends WorldProgram> implements Engine {
 
 	protected final Map<RenderLayer, Map<RenderType, InstancedMaterialGroup<P>>> layers;
 
-	private final WeakHashSet<OriginShiftListener> listeners;
-
 	public static <P extends WorldProgram> Builder<P> builder(ProgramCompiler<P> context) {
 		return new Builder<>(context);
 	}
@@ -48,7 +48,6 @@ public class InstancingEngine<P extends WorldProgram> implements Engine {
 		this.context = context;
 		this.ignoreOriginCoordinate = ignoreOriginCoordinate;
 
-		this.listeners = new WeakHashSet<>();
 		this.groupFactory = groupFactory;
 
 		this.layers = new EnumMap<>(RenderLayer.class);
@@ -82,6 +81,7 @@ public class InstancingEngine<P extends WorldProgram> implements Engine {
 		double camZ;
 		Matrix4f viewProjection;
 		if (!ignoreOriginCoordinate) {
+			BlockPos originCoordinate = origin.get();
 			camX = event.camX - originCoordinate.getX();
 			camY = event.camY - originCoordinate.getY();
 			camZ = event.camZ - originCoordinate.getZ();
@@ -95,7 +95,9 @@ public class InstancingEngine<P extends WorldProgram> implements Engine {
 			viewProjection = event.viewProjection;
 		}
 
+		int timer = GpuProfiler.begin(GpuProfiler.layerLabel(event.getLayer()));
 		getGroupsToRender(event.getLayer()).forEach(group -> group.render(viewProjection, camX, camY, camZ, event.getLayer()));
+		GpuProfiler.end(timer);
 
 		restoreState.restore();
 	}
@@ -122,37 +124,26 @@ public class InstancingEngine<P extends WorldProgram> implements Engine {
 
 	@Override
 	public Vec3i getOriginCoordinate() {
-		return originCoordinate;
+		return origin.get();
 	}
 
 	public void addListener(OriginShiftListener listener) {
-		listeners.add(listener);
+		origin.addListener(listener);
 	}
 
 	/**
-	 * Maintain the integer origin coordinate to be within a certain distance from the camera in all directions.
+	 * Keep the origin close to the camera, and rebuild everything positioned relative to it when it moves.
 	 *
-	 * This prevents floating point precision issues at high coordinates.
+	 * @see RenderOrigin
 	 */
 	@Override
 	public void beginFrame(Camera info) {
-		int cX = Mth.floor(info.getPosition().x);
-		int cY = Mth.floor(info.getPosition().y);
-		int cZ = Mth.floor(info.getPosition().z);
-
-		int dX = cX - originCoordinate.getX();
-		int dY = cY - originCoordinate.getY();
-		int dZ = cZ - originCoordinate.getZ();
-
-		if (Math.abs(dX) > MAX_ORIGIN_DISTANCE || Math.abs(dY) > MAX_ORIGIN_DISTANCE || Math.abs(dZ) > MAX_ORIGIN_DISTANCE) {
-
-			originCoordinate = new BlockPos(cX, cY, cZ);
-
+		if (origin.update(info)) {
 			for (Map<RenderType, InstancedMaterialGroup<P>> groups : layers.values()) {
 				groups.values().forEach(InstancedMaterialGroup::clear);
 			}
 
-			listeners.forEach(OriginShiftListener::onOriginShift);
+			origin.notifyListeners();
 		}
 	}
 
@@ -161,12 +152,15 @@ public class InstancingEngine<P extends WorldProgram> implements Engine {
 		info.add("GL33 Instanced Arrays");
 		info.add("Instances: " + getGroupsToRender(null).mapToInt(InstancedMaterialGroup::getInstanceCount).sum());
 		info.add("Vertices: " + getGroupsToRender(null).mapToInt(InstancedMaterialGroup::getVertexCount).sum());
-		info.add("Origin: " + originCoordinate.getX() + ", " + originCoordinate.getY() + ", " + originCoordinate.getZ());
-	}
-
-	@FunctionalInterface
-	public interface OriginShiftListener {
-		void onOriginShift();
+		long uploaded = getGroupsToRender(null).mapToLong(InstancedMaterialGroup::getUploadedBytes).sum();
+		long capacity = getGroupsToRender(null).mapToLong(InstancedMaterialGroup::getBufferCapacity).sum();
+		info.add("Instance upload: " + StringUtil.formatBytes(uploaded) + " / " + StringUtil.formatBytes(capacity));
+		info.add("GPU culling: " + (GPUCuller.get() != null ? "on" : "off"));
+		if (GlCompat.getInstance().bufferStorageSupported()) {
+			info.add(String.format("Buffer ring: %d segments, stalled %.2f ms in %d waits", PersistentGlBuffer.SEGMENTS,
+					PersistentGlBuffer.getLastStallNanos() / 1e6, PersistentGlBuffer.getLastStallCount()));
+		}
+		info.add("Origin: " + origin.describe());
 	}
 
 	@FunctionalInterface
@@ -1,5 +1,7 @@
 package com.jozufozu.flywheel.backend.model;
 
+import org.jetbrains.annotations.Nullable;
+
 import com.jozufozu.flywheel.api.vertex.VertexType;
 import com.jozufozu.flywheel.backend.gl.GlVertexArray;
 import com.jozufozu.flywheel.core.layout.BufferLayout;
@@ -22,6 +24,21 @@ public interface BufferedModel {
 	 */
 	void drawInstances(int instanceCount);
 
+	/**
+	 * @return The element buffer this model is drawn with, or null if it is not indexed.
+	 */
+	@Nullable
+	default ElementBuffer getElementBuffer() {
+		return null;
+	}
+
+	/**
+	 * @return The value added to each index when drawing this model.
+	 */
+	default int getBaseVertex() {
+		return 0;
+	}
+
 	boolean isDeleted();
 
 	void delete();
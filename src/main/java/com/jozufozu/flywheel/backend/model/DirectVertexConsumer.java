@@ -81,6 +81,60 @@ public class DirectVertexConsumer implements VertexConsumer {
 		return uv1 >= 0;
 	}
 
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * The byte offsets of each element within a vertex, or -1 if the format doesn't have that element.
+	 */
+	public int getPositionOffset() {
+		return position;
+	}
+
+	public int getNormalOffset() {
+		return normal;
+	}
+
+	public int getColorOffset() {
+		return color;
+	}
+
+	public int getUvOffset() {
+		return uv;
+	}
+
+	public int getOverlayOffset() {
+		return uv1;
+	}
+
+	public int getLightOffset() {
+		return uv2;
+	}
+
+	/**
+	 * Claim the next vertices for raw writes, and advance past them.
+	 * @param vertexCount The number of vertices that will be written.
+	 * @return The address of the first claimed vertex.
+	 */
+	public long claim(int vertexCount) {
+		long base = vertexBase;
+		long next = base + (long) vertexCount * stride;
+		if (next > end) {
+			throw new BufferOverflowException();
+		}
+		vertexBase = next;
+		return base;
+	}
+
+	/**
+	 * Advance past the next vertices without writing them.
+	 * @param vertexCount The number of vertices to leave as they are.
+	 */
+	public void skip(int vertexCount) {
+		claim(vertexCount);
+	}
+
 	/**
 	 * Split off the head of this consumer into a new object and advance this object's write-pointer.
 	 * @param vertexCount The number of vertices that must be written to the head.
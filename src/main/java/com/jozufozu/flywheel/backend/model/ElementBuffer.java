@@ -19,6 +19,10 @@ public class ElementBuffer {
 		GlBufferType.ELEMENT_ARRAY_BUFFER.bind(glBuffer);
 	}
 
+	public int getBufferHandle() {
+		return glBuffer;
+	}
+
 	public int getElementCount() {
 		return elementCount;
 	}
@@ -81,6 +81,11 @@ public class IndexedModel implements BufferedModel {
 		GL31.glDrawElementsInstanced(primitiveMode.glEnum, ebo.getElementCount(), ebo.getEboIndexType().asGLType, 0, instanceCount);
 	}
 
+	@Override
+	public ElementBuffer getElementBuffer() {
+		return ebo;
+	}
+
 	public boolean isDeleted() {
 		return deleted;
 	}
@@ -8,6 +8,7 @@ import org.lwjgl.opengl.GL32;
 import com.jozufozu.flywheel.Flywheel;
 import com.jozufozu.flywheel.api.vertex.VertexType;
 import com.jozufozu.flywheel.api.vertex.VertexWriter;
+import com.jozufozu.flywheel.backend.FrameProfiler;
 import com.jozufozu.flywheel.backend.gl.GlPrimitive;
 import com.jozufozu.flywheel.backend.gl.GlVertexArray;
 import com.jozufozu.flywheel.backend.gl.buffer.GlBuffer;
@@ -67,6 +68,8 @@ public class ModelPool implements ModelAllocator {
 
 	public void flush() {
 		if (dirty) {
+			long start = FrameProfiler.begin();
+
 			if (anyToRemove) processDeletions();
 
 			// XXX ARRAY_BUFFER is bound and reset
@@ -80,6 +83,8 @@ public class ModelPool implements ModelAllocator {
 
 			dirty = false;
 			pendingUpload.clear();
+
+			FrameProfiler.end(FrameProfiler.Metric.MODEL_POOL_FLUSH, start);
 		}
 	}
 
@@ -205,6 +210,16 @@ public class ModelPool implements ModelAllocator {
 			GL32.glDrawElementsInstancedBaseVertex(GlPrimitive.TRIANGLES.glEnum, ebo.getElementCount(), ebo.getEboIndexType().asGLType, 0, instanceCount, first);
 		}
 
+		@Override
+		public ElementBuffer getElementBuffer() {
+			return ebo;
+		}
+
+		@Override
+		public int getBaseVertex() {
+			return first;
+		}
+
 		@Override
 		public boolean isDeleted() {
 			return false;
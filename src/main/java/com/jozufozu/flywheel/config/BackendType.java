@@ -19,6 +19,11 @@ public enum BackendType {
 	 * Use GPU instancing to render everything.
 	 */
 	INSTANCING("GL33 Instanced Arrays"),
+
+	/**
+	 * Pack all instances of a material into one buffer and draw them with a single multi-draw-indirect call.
+	 */
+	INDIRECT("GL43 Multi-Draw Indirect"),
 	;
 
 	private static final Map<String, BackendType> lookup;
@@ -1,10 +1,16 @@
 package com.jozufozu.flywheel.config;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.jozufozu.flywheel.Flywheel;
 import com.jozufozu.flywheel.backend.Backend;
+import com.jozufozu.flywheel.backend.FrameProfiler;
+import com.jozufozu.flywheel.backend.GpuProfiler;
 import com.mojang.brigadier.Command;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
@@ -19,6 +25,7 @@ import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.network.chat.TextComponent;
 import net.minecraftforge.client.event.RegisterClientCommandsEvent;
 import net.minecraftforge.common.ForgeConfigSpec.ConfigValue;
+import net.minecraftforge.fml.loading.FMLPaths;
 
 public class FlwCommands {
 	public static void registerClientCommands(RegisterClientCommandsEvent event) {
@@ -86,9 +93,127 @@ public class FlwCommands {
 				}
 			));
 
+		commandBuilder.addValue(config.client.gpuCulling, "gpuCulling", (builder, value) -> booleanValueCommand(builder, value,
+				(source, bool) -> {
+					LocalPlayer player = Minecraft.getInstance().player;
+					if (player == null) return;
+
+					Component text = new TextComponent("GPU culling is currently: ").append(boolToText(bool));
+					player.displayClientMessage(text, false);
+				},
+				(source, bool) -> {
+					LocalPlayer player = Minecraft.getInstance().player;
+					if (player == null) return;
+
+					Component text = boolToText(bool).append(new TextComponent(" GPU culling.").withStyle(ChatFormatting.WHITE));
+					player.displayClientMessage(text, false);
+
+					Backend.reloadWorldRenderers();
+				}
+			));
+
+		commandBuilder.addCommand("profiler", builder ->
+			builder
+				.executes(context -> {
+					LocalPlayer player = Minecraft.getInstance().player;
+					if (player != null) {
+						displayProfile(player);
+					}
+					return Command.SINGLE_SUCCESS;
+				})
+				.then(Commands.literal("start")
+					.executes(context -> {
+						FrameProfiler.start();
+						LocalPlayer player = Minecraft.getInstance().player;
+						if (player != null) {
+							player.displayClientMessage(new TextComponent("Recording the last " + FrameProfiler.WINDOW + " frames").withStyle(ChatFormatting.GREEN), false);
+						}
+						return Command.SINGLE_SUCCESS;
+					}))
+				.then(Commands.literal("stop")
+					.executes(context -> {
+						FrameProfiler.stop();
+						LocalPlayer player = Minecraft.getInstance().player;
+						if (player != null) {
+							displayProfile(player);
+						}
+						return Command.SINGLE_SUCCESS;
+					}))
+				.then(Commands.literal("gpu")
+					.executes(context -> {
+						LocalPlayer player = Minecraft.getInstance().player;
+						if (player != null) {
+							displayGpuProfile(player);
+						}
+						return Command.SINGLE_SUCCESS;
+					})
+					.then(Commands.literal("start")
+						.executes(context -> {
+							LocalPlayer player = Minecraft.getInstance().player;
+							if (player == null) return 0;
+
+							if (!GpuProfiler.isSupported()) {
+								player.displayClientMessage(new TextComponent("GPU timer queries are not supported").withStyle(ChatFormatting.RED), false);
+								return 0;
+							}
+
+							GpuProfiler.start();
+							player.displayClientMessage(new TextComponent("Measuring GPU time per layer and material").withStyle(ChatFormatting.GREEN), false);
+							return Command.SINGLE_SUCCESS;
+						}))
+					.then(Commands.literal("stop")
+						.executes(context -> {
+							GpuProfiler.stop();
+							LocalPlayer player = Minecraft.getInstance().player;
+							if (player != null) {
+								displayGpuProfile(player);
+							}
+							return Command.SINGLE_SUCCESS;
+						})))
+				.then(Commands.literal("dump")
+					.executes(context -> {
+						LocalPlayer player = Minecraft.getInstance().player;
+						if (player == null) return 0;
+
+						try {
+							Path file = FrameProfiler.dump(FMLPaths.GAMEDIR.get().resolve("flywheel").resolve("profiles"));
+							player.displayClientMessage(new TextComponent("Wrote " + FrameProfiler.getFrameCount() + " frames to " + file), false);
+							return Command.SINGLE_SUCCESS;
+						} catch (IOException e) {
+							Flywheel.LOGGER.error("Could not write frame profile:", e);
+							player.displayClientMessage(new TextComponent("Could not write frame profile, see the log").withStyle(ChatFormatting.RED), false);
+							return 0;
+						}
+					})));
+
 		commandBuilder.build(event.getDispatcher());
 	}
 
+	private static void displayGpuProfile(LocalPlayer player) {
+		String state = GpuProfiler.isEnabled() ? "measuring" : "stopped";
+		player.displayClientMessage(new TextComponent("GPU profiler " + state + " (average / last / max):"), false);
+
+		for (GpuProfiler.Timing timing : GpuProfiler.getTimings()) {
+			Component line = new TextComponent(timing.label + ": ").withStyle(ChatFormatting.GRAY)
+					.append(new TextComponent(String.format("%.3fms / %.3fms / %.3fms", timing.getAverageNanos() / 1e6, timing.getLastNanos() / 1e6, timing.getMaxNanos() / 1e6)).withStyle(ChatFormatting.WHITE));
+			player.displayClientMessage(line, false);
+		}
+	}
+
+	private static void displayProfile(LocalPlayer player) {
+		String state = FrameProfiler.isRecording() ? "recording" : "stopped";
+		player.displayClientMessage(new TextComponent("Frame profiler " + state + ", " + FrameProfiler.getFrameCount() + " frames (p50 / p95 / p99 / max):"), false);
+
+		for (FrameProfiler.Metric metric : FrameProfiler.Metric.values()) {
+			Component line = new TextComponent(metric.label + ": ").withStyle(ChatFormatting.GRAY)
+					.append(new TextComponent(metric.unit.format(FrameProfiler.percentile(metric, 50)) + " / "
+							+ metric.unit.format(FrameProfiler.percentile(metric, 95)) + " / "
+							+ metric.unit.format(FrameProfiler.percentile(metric, 99)) + " / "
+							+ metric.unit.format(FrameProfiler.percentile(metric, 100))).withStyle(ChatFormatting.WHITE));
+			player.displayClientMessage(line, false);
+		}
+	}
+
 	public static void booleanValueCommand(LiteralArgumentBuilder<CommandSourceStack> builder, ConfigValue<Boolean> value, BiConsumer<CommandSourceStack, Boolean> displayAction, BiConsumer<CommandSourceStack, Boolean> setAction) {
 		builder
 			.executes(context -> {
@@ -118,6 +243,7 @@ public class FlwCommands {
 			case OFF -> new TextComponent("Disabled Flywheel").withStyle(ChatFormatting.RED);
 			case INSTANCING -> new TextComponent("Using Instancing Engine").withStyle(ChatFormatting.GREEN);
 			case BATCHING ->  new TextComponent("Using Batching Engine").withStyle(ChatFormatting.GREEN);
+			case INDIRECT -> new TextComponent("Using Indirect Engine").withStyle(ChatFormatting.GREEN);
 		};
 	}
 
@@ -134,6 +260,12 @@ public class FlwCommands {
 			command.then(builder);
 		}
 
+		public void addCommand(String subcommand, Consumer<LiteralArgumentBuilder<CommandSourceStack>> consumer) {
+			LiteralArgumentBuilder<CommandSourceStack> builder = Commands.literal(subcommand);
+			consumer.accept(builder);
+			command.then(builder);
+		}
+
 		public void build(CommandDispatcher<CommandSourceStack> dispatcher) {
 			dispatcher.register(command);
 		}
@@ -39,6 +39,18 @@ public class FlwConfig {
 		return client.limitUpdates.get();
 	}
 
+	public boolean gpuCulling() {
+		return client.gpuCulling.get();
+	}
+
+	public boolean persistentDrawBuffers() {
+		return client.persistentDrawBuffers.get();
+	}
+
+	public boolean asyncLightUploads() {
+		return client.asyncLightUploads.get();
+	}
+
 	public static void init() {
 	}
 
@@ -46,6 +58,9 @@ public class FlwConfig {
 		public final EnumValue<BackendType> backend;
 		public final BooleanValue debugNormals;
 		public final BooleanValue limitUpdates;
+		public final BooleanValue gpuCulling;
+		public final BooleanValue persistentDrawBuffers;
+		public final BooleanValue asyncLightUploads;
 
 		public ClientConfig(ForgeConfigSpec.Builder builder) {
 			backend = builder.comment("Select the backend to use.")
@@ -56,6 +71,15 @@ public class FlwConfig {
 
 			limitUpdates = builder.comment("Enable or disable instance update limiting with distance.")
 					.define("limitUpdates", true);
+
+			gpuCulling = builder.comment("Enable or disable frustum and distance culling of instances on the GPU. Requires OpenGL 4.3 or equivalent extensions.")
+					.define("gpuCulling", false);
+
+			persistentDrawBuffers = builder.comment("Enable or disable drawing the batching backend's vertices straight from persistently mapped buffers, instead of copying them into vanilla's buffers every frame. Requires OpenGL 4.4 or equivalent extensions.")
+					.define("persistentDrawBuffers", false);
+
+			asyncLightUploads = builder.comment("Enable or disable uploading large light volume changes through pixel buffer objects, so the driver can copy them to the GPU without stalling the render thread.")
+					.define("asyncLightUploads", false);
 		}
 	}
 }
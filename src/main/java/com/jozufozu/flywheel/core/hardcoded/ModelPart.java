@@ -9,6 +9,7 @@ import com.jozufozu.flywheel.api.vertex.VertexList;
 import com.jozufozu.flywheel.api.vertex.VertexType;
 import com.jozufozu.flywheel.core.Formats;
 import com.jozufozu.flywheel.core.model.Model;
+import com.jozufozu.flywheel.core.model.PlanarVertices;
 import com.jozufozu.flywheel.core.vertex.PosTexNormalWriterUnsafe;
 
 public class ModelPart implements Model {
@@ -64,6 +65,7 @@ public class ModelPart implements Model {
 
 	@Override
 	public void delete() {
+		PlanarVertices.evict(this);
 		reader.delete();
 	}
 }
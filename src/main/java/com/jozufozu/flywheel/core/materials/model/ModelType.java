@@ -9,6 +9,7 @@ import com.jozufozu.flywheel.core.layout.BufferLayout;
 import com.jozufozu.flywheel.core.layout.CommonItems;
 import com.jozufozu.flywheel.core.layout.MatrixItems;
 import com.jozufozu.flywheel.core.model.ModelTransformer;
+import com.mojang.math.Vector4f;
 
 import net.minecraft.resources.ResourceLocation;
 
@@ -39,6 +40,30 @@ public class ModelType implements Instanced<ModelData>, Batched<ModelData> {
 		return Programs.TRANSFORMED;
 	}
 
+	@Override
+	public boolean supportsCulling() {
+		return true;
+	}
+
+	@Override
+	public boolean transformBoundingSphere(ModelData d, Vector4f modelSphere, Vector4f out) {
+		// the radius grows with the largest axis scale of the transform
+		out.set(1, 0, 0, 0);
+		out.transform(d.model);
+		float scaleSqr = out.x() * out.x() + out.y() * out.y() + out.z() * out.z();
+		out.set(0, 1, 0, 0);
+		out.transform(d.model);
+		scaleSqr = Math.max(scaleSqr, out.x() * out.x() + out.y() * out.y() + out.z() * out.z());
+		out.set(0, 0, 1, 0);
+		out.transform(d.model);
+		scaleSqr = Math.max(scaleSqr, out.x() * out.x() + out.y() * out.y() + out.z() * out.z());
+
+		out.set(modelSphere.x(), modelSphere.y(), modelSphere.z(), 1);
+		out.transform(d.model);
+		out.set(out.x(), out.y(), out.z(), modelSphere.w() * (float) Math.sqrt(scaleSqr));
+		return true;
+	}
+
 	@Override
 	public void transform(ModelData d, ModelTransformer.Params b) {
 		b.transform(d.model, d.normal)
@@ -8,7 +8,7 @@ import com.jozufozu.flywheel.core.Programs;
 import com.jozufozu.flywheel.core.layout.BufferLayout;
 import com.jozufozu.flywheel.core.layout.CommonItems;
 import com.jozufozu.flywheel.core.model.ModelTransformer;
-import com.mojang.math.Quaternion;
+import com.mojang.math.Vector4f;
 
 import net.minecraft.resources.ResourceLocation;
 
@@ -39,12 +39,36 @@ public class OrientedType implements Instanced<OrientedData>, Batched<OrientedDa
 		return Programs.ORIENTED;
 	}
 
+	@Override
+	public boolean supportsCulling() {
+		return true;
+	}
+
+	@Override
+	public boolean transformBoundingSphere(OrientedData d, Vector4f modelSphere, Vector4f out) {
+		// rotate the center about the pivot, rotation doesn't change the radius
+		float vX = modelSphere.x() - d.pivotX;
+		float vY = modelSphere.y() - d.pivotY;
+		float vZ = modelSphere.z() - d.pivotZ;
+
+		// v + 2 * cross(q, cross(q, v) + w * v)
+		float tX = d.qY * vZ - d.qZ * vY + d.qW * vX;
+		float tY = d.qZ * vX - d.qX * vZ + d.qW * vY;
+		float tZ = d.qX * vY - d.qY * vX + d.qW * vZ;
+		float rX = vX + 2 * (d.qY * tZ - d.qZ * tY);
+		float rY = vY + 2 * (d.qZ * tX - d.qX * tZ);
+		float rZ = vZ + 2 * (d.qX * tY - d.qY * tX);
+
+		out.set(d.posX + d.pivotX + rX, d.posY + d.pivotY + rY, d.posZ + d.pivotZ + rZ, modelSphere.w());
+		return true;
+	}
+
 	@Override
 	public void transform(OrientedData d, ModelTransformer.Params b) {
 		b.light(d.getPackedLight())
 				.color(d.r, d.g, d.b, d.a)
 				.translate(d.posX + d.pivotX, d.posY + d.pivotY, d.posZ + d.pivotZ)
-				.multiply(new Quaternion(d.qX, d.qY, d.qZ, d.qW))
+				.multiply(d.qX, d.qY, d.qZ, d.qW)
 				.translate(-d.pivotX, -d.pivotY, -d.pivotZ);
 	}
 }
@@ -94,6 +94,7 @@ public class BlockModel implements Model {
 
 	@Override
 	public void delete() {
+		PlanarVertices.evict(this);
 		reader.delete();
 	}
 }
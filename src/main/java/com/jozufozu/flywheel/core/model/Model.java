@@ -59,6 +59,9 @@ public interface Model {
 				.quads2Tris(vertexCount() / 4);
 	}
 
+	/**
+	 * Free the model's vertex data, along with any copy of it cached by {@link PlanarVertices#of}.
+	 */
 	void delete();
 
 	/**
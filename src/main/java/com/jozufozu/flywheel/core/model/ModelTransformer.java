@@ -1,10 +1,13 @@
 package com.jozufozu.flywheel.core.model;
 
-import java.util.function.IntPredicate;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 
-import com.jozufozu.flywheel.api.vertex.ShadedVertexList;
-import com.jozufozu.flywheel.api.vertex.VertexList;
+import com.jozufozu.flywheel.backend.model.DirectVertexConsumer;
 import com.jozufozu.flywheel.util.DiffuseLightCalculator;
+import com.jozufozu.flywheel.util.MatrixRotate;
+import com.jozufozu.flywheel.util.MatrixWrite;
+import com.jozufozu.flywheel.util.RenderMath;
 import com.jozufozu.flywheel.util.transform.Transform;
 import com.mojang.blaze3d.vertex.PoseStack;
 import com.mojang.blaze3d.vertex.VertexConsumer;
@@ -21,55 +24,43 @@ import net.minecraft.util.Mth;
 public class ModelTransformer {
 
 	private final Model model;
-	private final VertexList reader;
-	private final IntPredicate shadedPredicate;
+	private final PlanarVertices planar;
 
 	public final Context context = new Context();
 
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
 	public ModelTransformer(Model model) {
 		this.model = model;
-		reader = model.getReader();
-		if (reader instanceof ShadedVertexList shaded) {
-			shadedPredicate = shaded::isShaded;
-		} else {
-			shadedPredicate = index -> true;
-		}
+		planar = PlanarVertices.of(model);
 	}
 
 	public void renderInto(Params params, PoseStack input, VertexConsumer builder) {
 		if (isEmpty())
 			return;
 
-		Vector4f pos = new Vector4f();
-		Vector3f normal = new Vector3f();
-
-		Matrix4f modelMat = input.last()
-				.pose()
-				.copy();
-		modelMat.multiply(params.model);
-
-		Matrix3f normalMat;
-		if (context.fullNormalTransform) {
-			normalMat = input.last().normal().copy();
-			normalMat.mul(params.normal);
-		} else {
-			normalMat = params.normal.copy();
-		}
+		final Scratch scratch = SCRATCH.get();
+		final Vector4f pos = scratch.pos;
+		final Vector3f normal = scratch.normal;
+		final Matrix4f modelMat = scratch.modelMat;
+		final Matrix3f normalMat = scratch.normalMat;
+		loadMatrices(params, input, modelMat, normalMat);
 
-		final DiffuseLightCalculator diffuseCalculator = DiffuseLightCalculator.forCurrentLevel();
+		// only look up the level when it's needed, so this also runs outside the game
+		final DiffuseLightCalculator diffuseCalculator = context.outputColorDiffuse ? DiffuseLightCalculator.forCurrentLevel() : null;
 
-		final int vertexCount = reader.getVertexCount();
+		final int vertexCount = planar.vertexCount;
 		for (int i = 0; i < vertexCount; i++) {
-			float x = reader.getX(i);
-			float y = reader.getY(i);
-			float z = reader.getZ(i);
+			float x = planar.x[i];
+			float y = planar.y[i];
+			float z = planar.z[i];
 			pos.set(x, y, z, 1F);
 			pos.transform(modelMat);
 			builder.vertex(pos.x(), pos.y(), pos.z());
 
-			float normalX = reader.getNX(i);
-			float normalY = reader.getNY(i);
-			float normalZ = reader.getNZ(i);
+			float normalX = planar.nx[i];
+			float normalY = planar.ny[i];
+			float normalZ = planar.nz[i];
 
 			normal.set(normalX, normalY, normalZ);
 			normal.transform(normalMat);
@@ -85,13 +76,14 @@ public class ModelTransformer {
 				b = (byte) params.b;
 				a = (byte) params.a;
 			} else {
-				r = reader.getR(i);
-				g = reader.getG(i);
-				b = reader.getB(i);
-				a = reader.getA(i);
+				int color = planar.color[i];
+				r = (byte) color;
+				g = (byte) (color >>> 8);
+				b = (byte) (color >>> 16);
+				a = (byte) (color >>> 24);
 			}
 			if (context.outputColorDiffuse) {
-				float instanceDiffuse = diffuseCalculator.getDiffuse(nx, ny, nz, shadedPredicate.test(i));
+				float instanceDiffuse = diffuseCalculator.getDiffuse(nx, ny, nz, planar.shaded[i]);
 				int colorR = transformColor(r, instanceDiffuse);
 				int colorG = transformColor(g, instanceDiffuse);
 				int colorB = transformColor(b, instanceDiffuse);
@@ -103,8 +95,8 @@ public class ModelTransformer {
 			//builder.color(Math.max(0, (int) (nx * 255)), Math.max(0, (int) (ny * 255)), Math.max(0, (int) (nz * 255)), 0xFF);
 			//builder.color(Math.max(0, (int) (normalX * 255)), Math.max(0, (int) (normalY * 255)), Math.max(0, (int) (normalZ * 255)), 0xFF);
 
-			float u = reader.getU(i);
-			float v = reader.getV(i);
+			float u = planar.u[i];
+			float v = planar.v[i];
 			if (params.spriteShiftFunc != null) {
 				params.spriteShiftFunc.shift(builder, u, v);
 			} else {
@@ -114,7 +106,7 @@ public class ModelTransformer {
 			// not always used, but will be ignored by formats that don't use it
 			builder.overlayCoords(params.overlay);
 
-			builder.uv2(params.useParamLight ? params.packedLightCoords : reader.getLight(i));
+			builder.uv2(params.useParamLight ? params.packedLightCoords : planar.light[i]);
 
 			builder.normal(nx, ny, nz);
 
@@ -122,8 +114,218 @@ public class ModelTransformer {
 		}
 	}
 
+	/**
+	 * Transform the whole model at once and write it straight into the consumer's memory.
+	 *
+	 * <p>
+	 *     Produces the same vertices as {@link #renderInto(Params, PoseStack, VertexConsumer)}, but transforms
+	 *     positions and normals in separate loops over planar arrays, and skips the per-attribute virtual calls.
+	 * </p>
+	 */
+	public void renderInto(Params params, PoseStack input, DirectVertexConsumer consumer) {
+		if (isEmpty())
+			return;
+
+		final Scratch scratch = SCRATCH.get();
+		final Matrix4f modelMat = scratch.modelMat;
+		final Matrix3f normalMat = scratch.normalMat;
+		loadMatrices(params, input, modelMat, normalMat);
+
+		final int vertexCount = planar.vertexCount;
+		scratch.ensureCapacity(vertexCount);
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			long ptr = stack.nmalloc(4, (16 + 9) * 4);
+			((MatrixWrite) (Object) modelMat).flywheel$writeUnsafe(ptr);
+			((MatrixWrite) (Object) normalMat).flywheel$writeUnsafe(ptr + 16 * 4);
+			transformPositions(ptr, planar, scratch, vertexCount);
+			transformNormals(ptr + 16 * 4, planar, scratch, vertexCount);
+		}
+
+		writeVertices(params, consumer, scratch, vertexCount);
+	}
+
+	private void loadMatrices(Params params, PoseStack input, Matrix4f modelMat, Matrix3f normalMat) {
+		modelMat.load(input.last()
+				.pose());
+		modelMat.multiply(params.model);
+
+		if (context.fullNormalTransform) {
+			normalMat.load(input.last()
+					.normal());
+			normalMat.mul(params.normal);
+		} else {
+			normalMat.load(params.normal);
+		}
+	}
+
+	/**
+	 * @param ptr A column major 4x4 matrix.
+	 */
+	private static void transformPositions(long ptr, PlanarVertices src, Scratch dst, int vertexCount) {
+		final float m00 = MemoryUtil.memGetFloat(ptr);
+		final float m10 = MemoryUtil.memGetFloat(ptr + 4);
+		final float m20 = MemoryUtil.memGetFloat(ptr + 8);
+		final float m01 = MemoryUtil.memGetFloat(ptr + 16);
+		final float m11 = MemoryUtil.memGetFloat(ptr + 20);
+		final float m21 = MemoryUtil.memGetFloat(ptr + 24);
+		final float m02 = MemoryUtil.memGetFloat(ptr + 32);
+		final float m12 = MemoryUtil.memGetFloat(ptr + 36);
+		final float m22 = MemoryUtil.memGetFloat(ptr + 40);
+		final float m03 = MemoryUtil.memGetFloat(ptr + 48);
+		final float m13 = MemoryUtil.memGetFloat(ptr + 52);
+		final float m23 = MemoryUtil.memGetFloat(ptr + 56);
+
+		final float[] x = src.x;
+		final float[] y = src.y;
+		final float[] z = src.z;
+		final float[] px = dst.px;
+		final float[] py = dst.py;
+		final float[] pz = dst.pz;
+
+		// w is always 1 and the bottom row is ignored, same as Vector4f#transform followed by reading xyz
+		for (int i = 0; i < vertexCount; i++) {
+			px[i] = m00 * x[i] + m01 * y[i] + m02 * z[i] + m03;
+		}
+		for (int i = 0; i < vertexCount; i++) {
+			py[i] = m10 * x[i] + m11 * y[i] + m12 * z[i] + m13;
+		}
+		for (int i = 0; i < vertexCount; i++) {
+			pz[i] = m20 * x[i] + m21 * y[i] + m22 * z[i] + m23;
+		}
+	}
+
+	/**
+	 * @param ptr A column major 3x3 matrix.
+	 */
+	private static void transformNormals(long ptr, PlanarVertices src, Scratch dst, int vertexCount) {
+		final float m00 = MemoryUtil.memGetFloat(ptr);
+		final float m10 = MemoryUtil.memGetFloat(ptr + 4);
+		final float m20 = MemoryUtil.memGetFloat(ptr + 8);
+		final float m01 = MemoryUtil.memGetFloat(ptr + 12);
+		final float m11 = MemoryUtil.memGetFloat(ptr + 16);
+		final float m21 = MemoryUtil.memGetFloat(ptr + 20);
+		final float m02 = MemoryUtil.memGetFloat(ptr + 24);
+		final float m12 = MemoryUtil.memGetFloat(ptr + 28);
+		final float m22 = MemoryUtil.memGetFloat(ptr + 32);
+
+		final float[] x = src.nx;
+		final float[] y = src.ny;
+		final float[] z = src.nz;
+		final float[] nx = dst.nx;
+		final float[] ny = dst.ny;
+		final float[] nz = dst.nz;
+
+		for (int i = 0; i < vertexCount; i++) {
+			nx[i] = m00 * x[i] + m01 * y[i] + m02 * z[i];
+			ny[i] = m10 * x[i] + m11 * y[i] + m12 * z[i];
+			nz[i] = m20 * x[i] + m21 * y[i] + m22 * z[i];
+		}
+
+		// The cached normals are already unit length, so a pure rotation leaves them that way.
+		if (isRotation(m00, m10, m20, m01, m11, m21, m02, m12, m22)) {
+			return;
+		}
+
+		for (int i = 0; i < vertexCount; i++) {
+			float lengthSqr = nx[i] * nx[i] + ny[i] * ny[i] + nz[i] * nz[i];
+			// Vector3f#normalize leaves degenerate normals alone
+			float scale = lengthSqr < 1.0E-5F ? 1 : 1 / (float) Math.sqrt(lengthSqr);
+			nx[i] *= scale;
+			ny[i] *= scale;
+			nz[i] *= scale;
+		}
+	}
+
+	private static final float ROTATION_EPSILON = 1.0E-4F;
+
+	/**
+	 * @return true if the columns of the matrix are orthonormal.
+	 */
+	private static boolean isRotation(float m00, float m10, float m20, float m01, float m11, float m21, float m02, float m12, float m22) {
+		return Math.abs(m00 * m00 + m10 * m10 + m20 * m20 - 1) < ROTATION_EPSILON
+				&& Math.abs(m01 * m01 + m11 * m11 + m21 * m21 - 1) < ROTATION_EPSILON
+				&& Math.abs(m02 * m02 + m12 * m12 + m22 * m22 - 1) < ROTATION_EPSILON
+				&& Math.abs(m00 * m01 + m10 * m11 + m20 * m21) < ROTATION_EPSILON
+				&& Math.abs(m00 * m02 + m10 * m12 + m20 * m22) < ROTATION_EPSILON
+				&& Math.abs(m01 * m02 + m11 * m12 + m21 * m22) < ROTATION_EPSILON;
+	}
+
+	private void writeVertices(Params params, DirectVertexConsumer consumer, Scratch scratch, int vertexCount) {
+		final int stride = consumer.getStride();
+		final int positionOffset = consumer.getPositionOffset();
+		final int normalOffset = consumer.getNormalOffset();
+		final int colorOffset = consumer.getColorOffset();
+		final int uvOffset = consumer.getUvOffset();
+		final int overlayOffset = consumer.getOverlayOffset();
+		final int lightOffset = consumer.getLightOffset();
+
+		final float[] px = scratch.px;
+		final float[] py = scratch.py;
+		final float[] pz = scratch.pz;
+		final float[] nx = scratch.nx;
+		final float[] ny = scratch.ny;
+		final float[] nz = scratch.nz;
+
+		final boolean diffuse = context.outputColorDiffuse;
+		final DiffuseLightCalculator diffuseCalculator = diffuse ? DiffuseLightCalculator.forCurrentLevel() : null;
+		final int paramColor = params.r & 0xFF | (params.g & 0xFF) << 8 | (params.b & 0xFF) << 16 | (params.a & 0xFF) << 24;
+		final SpriteShiftFunc spriteShift = params.spriteShiftFunc;
+		final UvCapture uvCapture = scratch.uvCapture;
+
+		long base = consumer.claim(vertexCount);
+
+		for (int i = 0; i < vertexCount; i++, base += stride) {
+			if (positionOffset >= 0) {
+				MemoryUtil.memPutFloat(base + positionOffset, px[i]);
+				MemoryUtil.memPutFloat(base + positionOffset + 4, py[i]);
+				MemoryUtil.memPutFloat(base + positionOffset + 8, pz[i]);
+			}
+
+			if (colorOffset >= 0) {
+				int color = params.useParamColor ? paramColor : planar.color[i];
+				if (diffuse) {
+					float instanceDiffuse = diffuseCalculator.getDiffuse(nx[i], ny[i], nz[i], planar.shaded[i]);
+					int r = transformColor(color & 0xFF, instanceDiffuse);
+					int g = transformColor((color >>> 8) & 0xFF, instanceDiffuse);
+					int b = transformColor((color >>> 16) & 0xFF, instanceDiffuse);
+					color = r | g << 8 | b << 16 | color & 0xFF000000;
+				}
+				MemoryUtil.memPutInt(base + colorOffset, color);
+			}
+
+			if (uvOffset >= 0) {
+				float u = planar.u[i];
+				float v = planar.v[i];
+				if (spriteShift != null) {
+					uvCapture.u = u;
+					uvCapture.v = v;
+					spriteShift.shift(uvCapture, u, v);
+					u = uvCapture.u;
+					v = uvCapture.v;
+				}
+				MemoryUtil.memPutFloat(base + uvOffset, u);
+				MemoryUtil.memPutFloat(base + uvOffset + 4, v);
+			}
+
+			if (overlayOffset >= 0) {
+				MemoryUtil.memPutInt(base + overlayOffset, params.overlay);
+			}
+
+			if (lightOffset >= 0) {
+				MemoryUtil.memPutInt(base + lightOffset, params.useParamLight ? params.packedLightCoords : planar.light[i]);
+			}
+
+			if (normalOffset >= 0) {
+				MemoryUtil.memPutByte(base + normalOffset, RenderMath.nb(nx[i]));
+				MemoryUtil.memPutByte(base + normalOffset + 1, RenderMath.nb(ny[i]));
+				MemoryUtil.memPutByte(base + normalOffset + 2, RenderMath.nb(nz[i]));
+			}
+		}
+	}
+
 	public boolean isEmpty() {
-		return reader.isEmpty();
+		return planar.vertexCount == 0;
 	}
 
 	@Override
@@ -144,6 +346,89 @@ public class ModelTransformer {
 		void shift(VertexConsumer builder, float u, float v);
 	}
 
+	/**
+	 * Per-thread working state, so transforming an instance doesn't allocate.
+	 */
+	private static class Scratch {
+		private final Matrix4f modelMat = new Matrix4f();
+		private final Matrix3f normalMat = new Matrix3f();
+		private final Vector4f pos = new Vector4f();
+		private final Vector3f normal = new Vector3f();
+
+		private float[] px = new float[0];
+		private float[] py = new float[0];
+		private float[] pz = new float[0];
+		private float[] nx = new float[0];
+		private float[] ny = new float[0];
+		private float[] nz = new float[0];
+
+		private final UvCapture uvCapture = new UvCapture();
+
+		private void ensureCapacity(int vertexCount) {
+			if (px.length >= vertexCount) return;
+
+			int capacity = Math.max(vertexCount, px.length * 2);
+			px = new float[capacity];
+			py = new float[capacity];
+			pz = new float[capacity];
+			nx = new float[capacity];
+			ny = new float[capacity];
+			nz = new float[capacity];
+		}
+	}
+
+	/**
+	 * Lets {@link SpriteShiftFunc}s, which are written against {@link VertexConsumer}, hand back the shifted UVs.
+	 */
+	private static class UvCapture implements VertexConsumer {
+		private float u;
+		private float v;
+
+		@Override
+		public VertexConsumer uv(float u, float v) {
+			this.u = u;
+			this.v = v;
+			return this;
+		}
+
+		@Override
+		public VertexConsumer vertex(double x, double y, double z) {
+			return this;
+		}
+
+		@Override
+		public VertexConsumer color(int r, int g, int b, int a) {
+			return this;
+		}
+
+		@Override
+		public VertexConsumer overlayCoords(int u, int v) {
+			return this;
+		}
+
+		@Override
+		public VertexConsumer uv2(int u, int v) {
+			return this;
+		}
+
+		@Override
+		public VertexConsumer normal(float x, float y, float z) {
+			return this;
+		}
+
+		@Override
+		public void endVertex() {
+		}
+
+		@Override
+		public void defaultColor(int r, int g, int b, int a) {
+		}
+
+		@Override
+		public void unsetDefaultColor() {
+		}
+	}
+
 	public static class Context {
 		/**
 		 * Do we need to include the PoseStack transforms in our transformation of the normal?
@@ -257,8 +542,15 @@ public class ModelTransformer {
 
 		@Override
 		public Params multiply(Quaternion quaternion) {
-			model.multiply(quaternion);
-			normal.mul(quaternion);
+			return multiply(quaternion.i(), quaternion.j(), quaternion.k(), quaternion.r());
+		}
+
+		/**
+		 * Rotate by the quaternion with the given components, without allocating.
+		 */
+		public Params multiply(float x, float y, float z, float w) {
+			((MatrixRotate) (Object) model).flywheel$rotate(x, y, z, w);
+			((MatrixRotate) (Object) normal).flywheel$rotate(x, y, z, w);
 			return this;
 		}
 
@@ -0,0 +1,105 @@
+package com.jozufozu.flywheel.core.model;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.jozufozu.flywheel.api.vertex.ShadedVertexList;
+import com.jozufozu.flywheel.api.vertex.VertexList;
+
+/**
+ * A decoded, structure-of-arrays copy of a {@link VertexList}.
+ *
+ * <p>
+ *     Each attribute lives in its own array so transforms can run over a whole model in tight loops that the JIT can
+ *     vectorize, instead of going through the virtual getters of the list once per attribute per vertex.
+ *     Normals are unpacked and normalized, and colors and shading flags are unpacked, once when the copy is made.
+ * </p>
+ *
+ * <p>
+ *     Copies are shared per {@link Model} through {@link #of(Model)}, and dropped when the model is deleted.
+ * </p>
+ */
+public final class PlanarVertices {
+
+	// Weak so models from other mods that never call evict don't leak.
+	private static final Map<Model, PlanarVertices> CACHE = new WeakHashMap<>();
+
+	/**
+	 * Get the decoded vertices of the given model, decoding them if this is the first time they're asked for.
+	 */
+	public static PlanarVertices of(Model model) {
+		synchronized (CACHE) {
+			return CACHE.computeIfAbsent(model, m -> new PlanarVertices(m.getReader()));
+		}
+	}
+
+	/**
+	 * Forget the decoded vertices of the given model. Called by {@link Model#delete} implementations.
+	 */
+	public static void evict(Model model) {
+		synchronized (CACHE) {
+			CACHE.remove(model);
+		}
+	}
+
+	public final int vertexCount;
+
+	public final float[] x;
+	public final float[] y;
+	public final float[] z;
+
+	public final float[] nx;
+	public final float[] ny;
+	public final float[] nz;
+
+	public final float[] u;
+	public final float[] v;
+
+	/**
+	 * Colors packed as {@code r | g << 8 | b << 16 | a << 24}, the order they are stored in memory.
+	 */
+	public final int[] color;
+	public final int[] light;
+	public final boolean[] shaded;
+
+	public PlanarVertices(VertexList reader) {
+		vertexCount = reader.getVertexCount();
+
+		x = new float[vertexCount];
+		y = new float[vertexCount];
+		z = new float[vertexCount];
+		nx = new float[vertexCount];
+		ny = new float[vertexCount];
+		nz = new float[vertexCount];
+		u = new float[vertexCount];
+		v = new float[vertexCount];
+		color = new int[vertexCount];
+		light = new int[vertexCount];
+		shaded = new boolean[vertexCount];
+
+		ShadedVertexList shadedList = reader instanceof ShadedVertexList s ? s : null;
+
+		for (int i = 0; i < vertexCount; i++) {
+			x[i] = reader.getX(i);
+			y[i] = reader.getY(i);
+			z[i] = reader.getZ(i);
+			float normalX = reader.getNX(i);
+			float normalY = reader.getNY(i);
+			float normalZ = reader.getNZ(i);
+			float lengthSqr = normalX * normalX + normalY * normalY + normalZ * normalZ;
+			// Vector3f#normalize leaves degenerate normals alone
+			float scale = lengthSqr < 1.0E-5F ? 1 : 1 / (float) Math.sqrt(lengthSqr);
+			nx[i] = normalX * scale;
+			ny[i] = normalY * scale;
+			nz[i] = normalZ * scale;
+			u[i] = reader.getU(i);
+			v[i] = reader.getV(i);
+			color[i] = Byte.toUnsignedInt(reader.getR(i))
+					| Byte.toUnsignedInt(reader.getG(i)) << 8
+					| Byte.toUnsignedInt(reader.getB(i)) << 16
+					| Byte.toUnsignedInt(reader.getA(i)) << 24;
+			light[i] = reader.getLight(i);
+			shaded[i] = shadedList == null || shadedList.isShaded(i);
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.jozufozu.flywheel.light;
+
+import com.jozufozu.flywheel.util.box.ImmutableBox;
+
+/**
+ * A {@link LightListener} that can handle its light updates off the render thread.<p>
+ *
+ * {@link LightUpdater} delivers {@link #onLightUpdate(ImmutableBox, boolean, boolean)} and {@link #onLightPacket} for
+ * these on worker threads, in parallel with other concurrent listeners, but never in parallel with itself or with
+ * rendering. Implementations must not touch GL state there; upload whatever changed the next time you render instead.
+ */
+public interface ConcurrentLightListener extends LightListener {
+}
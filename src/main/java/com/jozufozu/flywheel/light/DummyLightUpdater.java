@@ -2,6 +2,7 @@ package com.jozufozu.flywheel.light;
 
 import java.util.stream.Stream;
 
+import com.jozufozu.flywheel.backend.instancing.TaskEngine;
 import com.jozufozu.flywheel.util.box.ImmutableBox;
 
 import net.minecraft.world.level.LightLayer;
@@ -38,6 +39,11 @@ public class DummyLightUpdater extends LightUpdater {
 		// noop
 	}
 
+	@Override
+	public boolean dispatch(TaskEngine taskEngine) {
+		return false;
+	}
+
 	@Override
 	public Stream<ImmutableBox> getAllBoxes() {
 		return Stream.empty();
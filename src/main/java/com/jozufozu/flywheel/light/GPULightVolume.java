@@ -19,10 +19,22 @@ import static org.lwjgl.opengl.GL12.glTexImage3D;
 import static org.lwjgl.opengl.GL12.glTexSubImage3D;
 import static org.lwjgl.opengl.GL14.GL_MIRRORED_REPEAT;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.system.MemoryUtil;
 
 import com.jozufozu.flywheel.backend.gl.GlTexture;
 import com.jozufozu.flywheel.backend.gl.GlTextureUnit;
+import com.jozufozu.flywheel.backend.gl.buffer.GlBufferType;
+import com.jozufozu.flywheel.backend.gl.buffer.GlBufferUsage;
+import com.jozufozu.flywheel.backend.gl.buffer.MappedBuffer;
+import com.jozufozu.flywheel.backend.gl.buffer.MappedGlBuffer;
+import com.jozufozu.flywheel.config.FlwConfig;
 import com.jozufozu.flywheel.util.box.GridAlignedBB;
 import com.jozufozu.flywheel.util.box.ImmutableBox;
 
@@ -30,11 +42,35 @@ import net.minecraft.world.level.BlockAndTintGetter;
 
 public class GPULightVolume extends LightVolume {
 
+	/**
+	 * More dirty regions than this are uploaded as a whole instead.
+	 */
+	private static final int MAX_DIRTY_REGIONS = 16;
+	/**
+	 * Two regions are merged if their bounding box is at most this much bigger than the two of them together.
+	 */
+	private static final double MERGE_SLACK = 1.25;
+	/**
+	 * Uploads smaller than this aren't worth the trip through a pixel buffer.
+	 */
+	private static final long UPLOAD_BUFFER_THRESHOLD = 64 * 1024;
+
 	protected final GridAlignedBB sampleVolume = new GridAlignedBB();
 	private final GlTexture glTexture;
 
 	private final GlTextureUnit textureUnit = GlTextureUnit.T4;
 	protected boolean bufferDirty;
+	/**
+	 * Regions to upload when the whole buffer isn't dirty.
+	 */
+	protected final List<GridAlignedBB> dirtyRegions = new ArrayList<>();
+
+	private int textureSizeX;
+	private int textureSizeY;
+	private int textureSizeZ;
+
+	@Nullable
+	private MappedGlBuffer uploadBuffer;
 
 	public GPULightVolume(BlockAndTintGetter level, ImmutableBox sampleVolume) {
 		super(level, sampleVolume);
@@ -48,10 +84,7 @@ public class GPULightVolume extends LightVolume {
 		textureUnit.makeActive();
 		glTexture.bind();
 
-		int sizeX = box.sizeX();
-		int sizeY = box.sizeY();
-		int sizeZ = box.sizeZ();
-		glTexImage3D(GL_TEXTURE_3D, 0, GL30.GL_RG8, sizeX, sizeY, sizeZ, 0, GL30.GL_RG, GL_UNSIGNED_BYTE, 0);
+		allocateTexture();
 
 		glTexture.setParameteri(GL_TEXTURE_MIN_FILTER, GL_LINEAR);
 		glTexture.setParameteri(GL_TEXTURE_MAG_FILTER, GL_LINEAR);
@@ -65,12 +98,22 @@ public class GPULightVolume extends LightVolume {
 
 	@Override
 	protected void setBox(ImmutableBox box) {
-		this.box.assign(box);
-		this.box.nextPowerOf2Centered();
+		// as long as the new volume fits, keep the texture where it is so only the newly exposed light is uploaded
+		if (!this.box.contains(box)) {
+			this.box.assign(box);
+			this.box.nextPowerOf2Centered();
+		}
 		// called during super ctor
 		if (sampleVolume != null) this.sampleVolume.assign(box);
 	}
 
+	private void allocateTexture() {
+		textureSizeX = box.sizeX();
+		textureSizeY = box.sizeY();
+		textureSizeZ = box.sizeZ();
+		glTexImage3D(GL_TEXTURE_3D, 0, GL30.GL_RG8, textureSizeX, textureSizeY, textureSizeZ, 0, GL30.GL_RG, GL_UNSIGNED_BYTE, 0);
+	}
+
 	public void bind() {
 		// just in case something goes wrong, or we accidentally call this before this volume is properly disposed of.
 		if (lightData == null || lightData.capacity() == 0) return;
@@ -82,22 +125,107 @@ public class GPULightVolume extends LightVolume {
 	}
 
 	private void uploadTexture() {
+		if (!bufferDirty && dirtyRegions.isEmpty()) return;
+
+		if (box.sizeX() != textureSizeX || box.sizeY() != textureSizeY || box.sizeZ() != textureSizeZ) {
+			allocateTexture();
+			bufferDirty = true;
+		}
+
 		if (bufferDirty) {
-			glPixelStorei(GL_UNPACK_ROW_LENGTH, 0);
-			glPixelStorei(GL_UNPACK_SKIP_PIXELS, 0);
-			glPixelStorei(GL_UNPACK_SKIP_ROWS, 0);
-			glPixelStorei(GL_UNPACK_SKIP_IMAGES, 0);
-			glPixelStorei(GL_UNPACK_IMAGE_HEIGHT, 0);
-			glPixelStorei(GL_UNPACK_ALIGNMENT, 2); // we use 2 bytes per texel
-			int sizeX = box.sizeX();
-			int sizeY = box.sizeY();
-			int sizeZ = box.sizeZ();
-
-			glTexSubImage3D(GL_TEXTURE_3D, 0, 0, 0, 0, sizeX, sizeY, sizeZ, GL30.GL_RG, GL_UNSIGNED_BYTE, lightData);
-
-			glPixelStorei(GL_UNPACK_ALIGNMENT, 4); // 4 is the default
-			bufferDirty = false;
+			// a full upload is just one big region
+			dirtyRegions.clear();
+			dirtyRegions.add(box.copy());
+		}
+
+		long bytes = 0;
+		for (GridAlignedBB region : dirtyRegions) {
+			bytes += region.volume() * 2L;
+		}
+
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 2); // we use 2 bytes per texel
+
+		if (bytes >= UPLOAD_BUFFER_THRESHOLD && FlwConfig.get().asyncLightUploads()) {
+			uploadThroughBuffer(bytes);
+		} else {
+			uploadDirect();
+		}
+
+		glPixelStorei(GL_UNPACK_ROW_LENGTH, 0);
+		glPixelStorei(GL_UNPACK_SKIP_PIXELS, 0);
+		glPixelStorei(GL_UNPACK_SKIP_ROWS, 0);
+		glPixelStorei(GL_UNPACK_SKIP_IMAGES, 0);
+		glPixelStorei(GL_UNPACK_IMAGE_HEIGHT, 0);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 4); // 4 is the default
+
+		bufferDirty = false;
+		dirtyRegions.clear();
+	}
+
+	/**
+	 * Upload each region straight out of the light buffer. The driver copies the data before returning.
+	 */
+	private void uploadDirect() {
+		// the regions are windows into the whole buffer
+		glPixelStorei(GL_UNPACK_ROW_LENGTH, box.sizeX());
+		glPixelStorei(GL_UNPACK_IMAGE_HEIGHT, box.sizeY());
+
+		for (GridAlignedBB region : dirtyRegions) {
+			int x = region.getMinX() - box.getMinX();
+			int y = region.getMinY() - box.getMinY();
+			int z = region.getMinZ() - box.getMinZ();
+
+			glPixelStorei(GL_UNPACK_SKIP_PIXELS, x);
+			glPixelStorei(GL_UNPACK_SKIP_ROWS, y);
+			glPixelStorei(GL_UNPACK_SKIP_IMAGES, z);
+
+			glTexSubImage3D(GL_TEXTURE_3D, 0, x, y, z, region.sizeX(), region.sizeY(), region.sizeZ(), GL30.GL_RG, GL_UNSIGNED_BYTE, lightData);
+		}
+	}
+
+	/**
+	 * Pack the regions into a pixel buffer and upload from there. The texture reads from the buffer whenever the GPU
+	 * gets to it, so the render thread doesn't wait on the copy.
+	 */
+	private void uploadThroughBuffer(long bytes) {
+		if (uploadBuffer == null) {
+			uploadBuffer = new MappedGlBuffer(GlBufferType.PIXEL_UNPACK_BUFFER, GlBufferUsage.STREAM_DRAW);
+		}
+
+		uploadBuffer.bind();
+		if (!uploadBuffer.ensureCapacity(bytes)) {
+			// last upload may still be in flight
+			uploadBuffer.orphan();
+		}
+
+		try (MappedBuffer mapped = uploadBuffer.getBuffer(0, bytes)) {
+			long src = MemoryUtil.memAddress(lightData);
+			long dst = MemoryUtil.memAddress(mapped.unwrap());
+
+			for (GridAlignedBB region : dirtyRegions) {
+				int rowBytes = region.sizeX() * 2;
+				for (int z = region.getMinZ(); z < region.getMaxZ(); z++) {
+					for (int y = region.getMinY(); y < region.getMaxY(); y++) {
+						MemoryUtil.memCopy(src + worldPosToBufferIndex(region.getMinX(), y, z), dst, rowBytes);
+						dst += rowBytes;
+					}
+				}
+			}
+		}
+
+		// packed tightly, so the default unpack state is right
+		long offset = 0;
+		for (GridAlignedBB region : dirtyRegions) {
+			int x = region.getMinX() - box.getMinX();
+			int y = region.getMinY() - box.getMinY();
+			int z = region.getMinZ() - box.getMinZ();
+
+			glTexSubImage3D(GL_TEXTURE_3D, 0, x, y, z, region.sizeX(), region.sizeY(), region.sizeZ(), GL30.GL_RG, GL_UNSIGNED_BYTE, offset);
+			offset += region.volume() * 2L;
 		}
+
+		// a bound unpack buffer would make every other texture upload read from it
+		uploadBuffer.unbind();
 	}
 
 	public void unbind() {
@@ -108,16 +236,9 @@ public class GPULightVolume extends LightVolume {
 	public void delete() {
 		super.delete();
 		glTexture.delete();
-	}
-
-	public void move(ImmutableBox newSampleVolume) {
-		if (lightData == null) return;
-
-		if (box.contains(newSampleVolume)) {
-			sampleVolume.assign(newSampleVolume);
-			initialize();
-		} else {
-			super.move(newSampleVolume);
+		if (uploadBuffer != null) {
+			uploadBuffer.delete();
+			uploadBuffer = null;
 		}
 	}
 
@@ -129,5 +250,47 @@ public class GPULightVolume extends LightVolume {
 	@Override
 	protected void markDirty() {
 		this.bufferDirty = true;
+		dirtyRegions.clear();
+	}
+
+	@Override
+	protected void markDirty(ImmutableBox changed) {
+		if (bufferDirty) return;
+
+		GridAlignedBB region = changed.copy();
+
+		// fold in every region that's cheaper to upload together with this one than on its own
+		boolean merged;
+		do {
+			merged = false;
+			for (Iterator<GridAlignedBB> it = dirtyRegions.iterator(); it.hasNext(); ) {
+				GridAlignedBB other = it.next();
+				if (shouldMerge(region, other)) {
+					region.unionAssign(other);
+					it.remove();
+					merged = true;
+				}
+			}
+		} while (merged);
+
+		dirtyRegions.add(region);
+
+		int dirtyVolume = 0;
+		for (GridAlignedBB dirty : dirtyRegions) {
+			dirtyVolume += dirty.volume();
+		}
+
+		// past this, one big upload beats many small ones
+		if (dirtyRegions.size() > MAX_DIRTY_REGIONS || dirtyVolume * 2 > box.volume()) {
+			markDirty();
+		}
+	}
+
+	private static boolean shouldMerge(ImmutableBox a, ImmutableBox b) {
+		long unionVolume = (long) (Math.max(a.getMaxX(), b.getMaxX()) - Math.min(a.getMinX(), b.getMinX()))
+				* (Math.max(a.getMaxY(), b.getMaxY()) - Math.min(a.getMinY(), b.getMinY()))
+				* (Math.max(a.getMaxZ(), b.getMaxZ()) - Math.min(a.getMinZ(), b.getMinZ()));
+
+		return unionVolume <= (a.volume() + b.volume()) * MERGE_SLACK;
 	}
 }
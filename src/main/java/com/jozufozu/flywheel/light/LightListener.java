@@ -28,8 +28,26 @@ public interface LightListener {
 	void onLightUpdate(LightLayer type, ImmutableBox changed);
 
 	/**
-	 * Called when the server sends light data to the client.
+	 * Called once per frame by {@link LightUpdater} with every light change since the last call, merged together.
+	 * <p>
+	 *     Called on the render thread, unless this is a {@link ConcurrentLightListener}.
+	 * </p>
 	 *
+	 * @param changed The union of the changed volumes.
+	 * @param block   {@code true} if block light changed.
+	 * @param sky     {@code true} if sky light changed.
+	 */
+	default void onLightUpdate(ImmutableBox changed, boolean block, boolean sky) {
+		if (block) onLightUpdate(LightLayer.BLOCK, changed);
+		if (sky) onLightUpdate(LightLayer.SKY, changed);
+	}
+
+	/**
+	 * Called when the server sends light data to the client.
+	 * <p>
+	 *     If this isn't overridden, {@link LightUpdater} merges packets with the other changes it collects and delivers
+	 *     them through {@link #onLightUpdate(ImmutableBox, boolean, boolean)} instead.
+	 * </p>
 	 */
 	default void onLightPacket(int chunkX, int chunkZ) {
 		GridAlignedBB changedVolume = GridAlignedBB.from(chunkX, chunkZ);
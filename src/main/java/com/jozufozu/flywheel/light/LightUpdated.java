@@ -1,5 +1,7 @@
 package com.jozufozu.flywheel.light;
 
+import javax.annotation.Nullable;
+
 import net.minecraft.client.Minecraft;
 import net.minecraft.world.level.LevelAccessor;
 
@@ -18,7 +20,11 @@ public interface LightUpdated extends LevelAccessor {
 		return true;
 	}
 
-	static boolean receivesLightUpdates(LevelAccessor level) {
+	static boolean receivesLightUpdates(@Nullable LevelAccessor level) {
+		// Instances without a level, like in the headless simulator, have nothing to listen to.
+		if (level == null) {
+			return false;
+		}
 		// The client level is guaranteed to receive updates.
 		if (Minecraft.getInstance().level == level) {
 			return true;
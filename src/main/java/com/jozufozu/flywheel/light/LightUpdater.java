@@ -1,25 +1,39 @@
 package com.jozufozu.flywheel.light;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
+
 import com.jozufozu.flywheel.backend.Backend;
+import com.jozufozu.flywheel.backend.FrameProfiler;
 import com.jozufozu.flywheel.backend.instancing.ParallelTaskEngine;
-import com.jozufozu.flywheel.util.WeakHashSet;
+import com.jozufozu.flywheel.backend.instancing.TaskEngine;
 import com.jozufozu.flywheel.util.WorldAttached;
 import com.jozufozu.flywheel.util.box.GridAlignedBB;
 import com.jozufozu.flywheel.util.box.ImmutableBox;
 
-import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.LevelAccessor;
 import net.minecraft.world.level.LightLayer;
 
 /**
  * Keeps track of what chunks/sections each listener is in, so we can update exactly what needs to be updated.
+ * <p>
+ *     Light changes are not handed to listeners right away. During a sunrise or an explosion the same listener can be
+ *     hit dozens of times in one tick, so changes are collected per listener, merged, and delivered once per frame by
+ *     {@link #dispatch}.
+ * </p>
  *
  * @apiNote Custom/fake levels (that are {@code != Minecraft.getInstance.level}) need to implement
  *          {@link LightUpdated} for LightUpdater to work with them.
@@ -41,9 +55,17 @@ public class LightUpdater {
 
 	private final LevelAccessor level;
 
-	private final WeakHashSet<TickingLightListener> tickingLightListeners = new WeakHashSet<>();
-	private final WeakContainmentMultiMap<LightListener> sections = new WeakContainmentMultiMap<>();
-	private final WeakContainmentMultiMap<LightListener> chunks = new WeakContainmentMultiMap<>();
+	private final Set<TickingLightListener> tickingLightListeners = new ReferenceLinkedOpenHashSet<>();
+	private final SpatialIndex<LightListener> sections = new SpatialIndex<>();
+	/**
+	 * Same as {@link #sections}, but squashed to y = 0.
+	 */
+	private final SpatialIndex<LightListener> chunks = new SpatialIndex<>();
+
+	/**
+	 * Light changes waiting for the next {@link #dispatch}, merged per listener.
+	 */
+	private Map<LightListener, PendingUpdate> pending = new Reference2ObjectLinkedOpenHashMap<>();
 
 	public LightUpdater(LevelAccessor level) {
 		taskEngine = Backend.getTaskEngine();
@@ -51,10 +73,24 @@ public class LightUpdater {
 	}
 
 	public void tick() {
+		removeInvalidListeners();
 		tickSerial();
 		//tickParallel();
 	}
 
+	/**
+	 * Listeners are held strongly, so ones that were deleted without being removed are cleaned up here.
+	 */
+	private void removeInvalidListeners() {
+		if (sections.isEmpty()) return;
+
+		List<LightListener> invalid = sections.stream()
+				.filter(LightListener::isListenerInvalid)
+				.toList();
+
+		invalid.forEach(this::removeListener);
+	}
+
 	private void tickSerial() {
 		for (TickingLightListener tickingLightListener : tickingLightListeners) {
 			if (tickingLightListener.tickLightListener()) {
@@ -77,7 +113,11 @@ public class LightUpdater {
 	}
 
 	/**
-	 * Add a listener.
+	 * Add a listener, or update the sections it's in if it moved.
+	 * <p>
+	 *     Listeners are not weakly referenced. Remove them with {@link #removeListener} when they're done, or at least
+	 *     make sure {@link LightListener#isListenerInvalid} returns {@code true} so they're cleaned up on the next tick.
+	 * </p>
 	 *
 	 * @param listener The object that wants to receive light update notifications.
 	 */
@@ -87,9 +127,6 @@ public class LightUpdater {
 
 		ImmutableBox box = listener.getVolume();
 
-		LongSet sections = this.sections.getAndResetContainment(listener);
-		LongSet chunks = this.chunks.getAndResetContainment(listener);
-
 		int minX = SectionPos.blockToSectionCoord(box.getMinX());
 		int minY = SectionPos.blockToSectionCoord(box.getMinY());
 		int minZ = SectionPos.blockToSectionCoord(box.getMinZ());
@@ -97,63 +134,154 @@ public class LightUpdater {
 		int maxY = SectionPos.blockToSectionCoord(box.getMaxY());
 		int maxZ = SectionPos.blockToSectionCoord(box.getMaxZ());
 
-		for (int x = minX; x <= maxX; x++) {
-			for (int z = minZ; z <= maxZ; z++) {
-				for (int y = minY; y <= maxY; y++) {
-					long sectionPos = SectionPos.asLong(x, y, z);
-					this.sections.put(sectionPos, listener);
-					sections.add(sectionPos);
-				}
-				long chunkPos = SectionPos.asLong(x, 0, z);
-				this.chunks.put(chunkPos, listener);
-				chunks.add(chunkPos);
-			}
-		}
+		sections.put(listener, minX, minY, minZ, maxX, maxY, maxZ);
+		chunks.put(listener, minX, 0, minZ, maxX, 0, maxZ);
 	}
 
 	public void removeListener(LightListener listener) {
+		if (listener instanceof TickingLightListener)
+			tickingLightListeners.remove(listener);
+
 		this.sections.remove(listener);
 		this.chunks.remove(listener);
+		this.pending.remove(listener);
 	}
 
 	/**
-	 * Dispatch light updates to all registered {@link LightListener}s.
+	 * Queue light updates for all registered {@link LightListener}s in the section.
+	 * They're delivered on the next {@link #dispatch}.
+	 *
 	 * @param type       The type of light that changed.
 	 * @param sectionPos A long representing the section position where light changed.
 	 */
 	public void onLightUpdate(LightLayer type, long sectionPos) {
-		Set<LightListener> set = sections.get(sectionPos);
-
-		if (set == null || set.isEmpty()) return;
-
-		set.removeIf(LightListener::isListenerInvalid);
-
 		ImmutableBox chunkBox = GridAlignedBB.from(SectionPos.of(sectionPos));
+		boolean block = type == LightLayer.BLOCK;
+		boolean sky = type == LightLayer.SKY;
 
-		for (LightListener listener : set) {
-			listener.onLightUpdate(type, chunkBox);
-		}
+		sections.forEachAt(sectionPos, listener -> enqueue(listener, chunkBox, block, sky));
 	}
 
 	/**
-	 * Dispatch light updates to all registered {@link LightListener}s
+	 * Queue light updates for all registered {@link LightListener}s in the chunk
 	 * when the server sends lighting data for an entire chunk.
-	 *
+	 * They're delivered on the next {@link #dispatch}.
 	 */
 	public void onLightPacket(int chunkX, int chunkZ) {
 		long chunkPos = SectionPos.asLong(chunkX, 0, chunkZ);
 
-		Set<LightListener> set = chunks.get(chunkPos);
+		ImmutableBox chunkBox = GridAlignedBB.from(chunkX, chunkZ);
+
+		chunks.forEachAt(chunkPos, listener -> {
+			if (overridesOnLightPacket(listener)) {
+				enqueuePacket(listener, chunkX, chunkZ);
+			} else {
+				enqueue(listener, chunkBox, true, true);
+			}
+		});
+	}
+
+	private void enqueue(LightListener listener, ImmutableBox changed, boolean block, boolean sky) {
+		// removed on the next tick
+		if (listener.isListenerInvalid()) return;
+
+		pending.computeIfAbsent(listener, $ -> new PendingUpdate())
+				.merge(changed, block, sky);
+	}
+
+	private void enqueuePacket(LightListener listener, int chunkX, int chunkZ) {
+		if (listener.isListenerInvalid()) return;
+
+		pending.computeIfAbsent(listener, $ -> new PendingUpdate())
+				.addPacket(chunkX, chunkZ);
+	}
+
+	/**
+	 * Deliver all queued light updates.
+	 * <p>
+	 *     Everyone but {@link ConcurrentLightListener}s is called right here, on the calling thread. The concurrent
+	 *     ones are split into tasks on the given engine afterwards, so a serial listener never sees a volume that a
+	 *     worker is still writing to.
+	 * </p>
+	 *
+	 * @return {@code true} if any tasks were submitted, and the task engine needs to be synced before the
+	 *         listeners are used.
+	 */
+	public boolean dispatch(TaskEngine taskEngine) {
+		if (pending.isEmpty()) return false;
+
+		// nothing gets queued while the tasks run, but swap anyway so the tasks own what they iterate over
+		Map<LightListener, PendingUpdate> updates = pending;
+		pending = new Reference2ObjectLinkedOpenHashMap<>();
+
+		List<Map.Entry<LightListener, PendingUpdate>> concurrent = new ArrayList<>();
+		List<Map.Entry<LightListener, PendingUpdate>> serial = new ArrayList<>();
+		for (Map.Entry<LightListener, PendingUpdate> entry : updates.entrySet()) {
+			(entry.getKey() instanceof ConcurrentLightListener ? concurrent : serial).add(entry);
+		}
+
+		deliver(serial);
+
+		int size = concurrent.size();
+		int taskCount = Math.min(size, taskEngine.getThreadCount() * 4);
+		List<Runnable> tasks = new ArrayList<>(taskCount);
+		for (int t = 0; t < taskCount; t++) {
+			int from = size * t / taskCount;
+			int to = size * (t + 1) / taskCount;
 
-		if (set == null || set.isEmpty()) return;
+			tasks.add(() -> deliver(concurrent.subList(from, to)));
+		}
+		taskEngine.submitAll(tasks);
+
+		return !tasks.isEmpty();
+	}
 
-		set.removeIf(LightListener::isListenerInvalid);
+	private static void deliver(List<Map.Entry<LightListener, PendingUpdate>> updates) {
+		if (updates.isEmpty()) return;
 
-		for (LightListener listener : set) {
-			listener.onLightPacket(chunkX, chunkZ);
+		long begin = FrameProfiler.begin();
+		for (Map.Entry<LightListener, PendingUpdate> entry : updates) {
+			LightListener listener = entry.getKey();
+			if (listener.isListenerInvalid()) continue;
+
+			entry.getValue()
+					.deliver(listener);
 		}
+		FrameProfiler.end(FrameProfiler.Metric.LIGHT_UPDATES, begin);
 	}
 
+	/**
+	 * Deliver queued light updates in all levels.
+	 *
+	 * @return {@code true} if any tasks were submitted.
+	 * @see #dispatch
+	 */
+	public static boolean dispatchAll(TaskEngine taskEngine) {
+		boolean[] submitted = { false };
+		LEVELS.forEach(updater -> submitted[0] |= updater.dispatch(taskEngine));
+		return submitted[0];
+	}
+
+	/**
+	 * Listeners that override {@link LightListener#onLightPacket} get their packets as packets.
+	 * Everyone else has them merged into their other changes.
+	 */
+	private static boolean overridesOnLightPacket(LightListener listener) {
+		return OVERRIDES_ON_LIGHT_PACKET.get(listener.getClass());
+	}
+
+	private static final ClassValue<Boolean> OVERRIDES_ON_LIGHT_PACKET = new ClassValue<>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			try {
+				return type.getMethod("onLightPacket", int.class, int.class)
+						.getDeclaringClass() != LightListener.class;
+			} catch (NoSuchMethodException e) {
+				return false;
+			}
+		}
+	};
+
 	public static long blockToSection(BlockPos pos) {
 		return SectionPos.asLong(pos.getX(), pos.getY(), pos.getZ());
 	}
@@ -163,10 +291,58 @@ public class LightUpdater {
 	}
 
 	public Stream<ImmutableBox> getAllBoxes() {
-		return chunks.stream().map(LightListener::getVolume);
+		return sections.stream().map(LightListener::getVolume);
 	}
 
 	public boolean isEmpty() {
-		return chunks.isEmpty();
+		return sections.isEmpty();
+	}
+
+	/**
+	 * Everything that changed for one listener since the last dispatch.
+	 */
+	private static class PendingUpdate {
+		@Nullable
+		private GridAlignedBB changed;
+		private boolean block;
+		private boolean sky;
+		/**
+		 * Chunks the server sent light for, only for listeners that handle packets themselves.
+		 */
+		@Nullable
+		private LongArrayList packets;
+
+		private void merge(ImmutableBox changed, boolean block, boolean sky) {
+			if (this.changed == null) {
+				this.changed = changed.copy();
+			} else {
+				this.changed.unionAssign(changed);
+			}
+			this.block |= block;
+			this.sky |= sky;
+		}
+
+		private void addPacket(int chunkX, int chunkZ) {
+			if (packets == null) {
+				packets = new LongArrayList();
+			}
+			long chunkPos = ChunkPos.asLong(chunkX, chunkZ);
+			if (!packets.contains(chunkPos)) {
+				packets.add(chunkPos);
+			}
+		}
+
+		private void deliver(LightListener listener) {
+			if (changed != null) {
+				listener.onLightUpdate(changed, block, sky);
+			}
+
+			if (packets != null) {
+				for (int i = 0; i < packets.size(); i++) {
+					long chunkPos = packets.getLong(i);
+					listener.onLightPacket(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos));
+				}
+			}
+		}
 	}
 }
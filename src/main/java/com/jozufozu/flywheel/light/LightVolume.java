@@ -1,21 +1,51 @@
 package com.jozufozu.flywheel.light;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.nio.ByteBuffer;
 
+import javax.annotation.Nullable;
+
 import org.lwjgl.system.MemoryUtil;
 
 import com.jozufozu.flywheel.util.box.GridAlignedBB;
 import com.jozufozu.flywheel.util.box.ImmutableBox;
 
 import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
 import net.minecraft.world.level.BlockAndTintGetter;
 import net.minecraft.world.level.LightLayer;
+import net.minecraft.world.level.chunk.DataLayer;
+import net.minecraft.world.level.lighting.LayerLightEventListener;
+
+/**
+ * A box of packed block and sky light copied out of a level.
+ *
+ * <p>
+ *     Light updates only copy into this volume's own buffer, so they are handled off the render thread.
+ * </p>
+ */
+public class LightVolume implements ImmutableBox, ConcurrentLightListener {
 
-public class LightVolume implements ImmutableBox, LightListener {
+	/**
+	 * Whether a level's brightness comes straight from its light engine, in which case we can skip
+	 * {@link BlockAndTintGetter#getBrightness} and read the engine's nibble arrays ourselves.
+	 */
+	private static final ClassValue<Boolean> READS_LIGHT_ENGINE = new ClassValue<>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			return !overridesGetBrightness(type);
+		}
+	};
 
 	protected final BlockAndTintGetter level;
 	protected final GridAlignedBB box = new GridAlignedBB();
 	protected ByteBuffer lightData;
+	/**
+	 * The buffer {@link #move} copied out of last time, reused for the next one.
+	 */
+	@Nullable
+	private ByteBuffer spareData;
 
 	public LightVolume(BlockAndTintGetter level, ImmutableBox sampleVolume) {
 		this.level = level;
@@ -60,15 +90,86 @@ public class LightVolume implements ImmutableBox, LightListener {
 		return box.getMaxZ();
 	}
 
+	/**
+	 * Move this volume, keeping the light it already has where the old and new volumes overlap.
+	 * <p>
+	 *     Only the slabs of the new volume that weren't in the old one are sampled from the level.
+	 * </p>
+	 */
 	public void move(ImmutableBox newSampleVolume) {
 		if (lightData == null) return;
 
+		GridAlignedBB oldBox = box.copy();
+		GridAlignedBB retained = getVolume().intersects(newSampleVolume) ? getVolume().intersect(newSampleVolume) : null;
+
 		setBox(newSampleVolume);
+
+		if (!box.sameAs(oldBox)) {
+			relayout(oldBox, retained);
+			// everything is somewhere else now
+			markDirty();
+		}
+
+		ImmutableBox volume = getVolume();
+		if (retained == null) {
+			copyLight(volume);
+			markDirty(volume);
+			return;
+		}
+
+		// x slabs span the whole new volume, y slabs only the retained x range, and z slabs the retained x and y ranges
+		copyExposed(volume.getMinX(), volume.getMinY(), volume.getMinZ(), retained.getMinX(), volume.getMaxY(), volume.getMaxZ());
+		copyExposed(retained.getMaxX(), volume.getMinY(), volume.getMinZ(), volume.getMaxX(), volume.getMaxY(), volume.getMaxZ());
+		copyExposed(retained.getMinX(), volume.getMinY(), volume.getMinZ(), retained.getMaxX(), retained.getMinY(), volume.getMaxZ());
+		copyExposed(retained.getMinX(), retained.getMaxY(), volume.getMinZ(), retained.getMaxX(), volume.getMaxY(), volume.getMaxZ());
+		copyExposed(retained.getMinX(), retained.getMinY(), volume.getMinZ(), retained.getMaxX(), retained.getMaxY(), retained.getMinZ());
+		copyExposed(retained.getMinX(), retained.getMinY(), retained.getMaxZ(), retained.getMaxX(), retained.getMaxY(), volume.getMaxZ());
+	}
+
+	private void copyExposed(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if (minX >= maxX || minY >= maxY || minZ >= maxZ) return;
+
+		GridAlignedBB slab = new GridAlignedBB(minX, minY, minZ, maxX, maxY, maxZ);
+		copyLight(slab);
+		markDirty(slab);
+	}
+
+	/**
+	 * Move the light in the retained region from where it was in the old box to where it is in the current one.
+	 */
+	private void relayout(ImmutableBox oldBox, @Nullable ImmutableBox retained) {
 		int neededCapacity = box.volume() * 2;
-		if (neededCapacity > lightData.capacity()) {
-			lightData = MemoryUtil.memRealloc(lightData, neededCapacity);
+
+		if (retained == null) {
+			if (neededCapacity > lightData.capacity()) {
+				lightData = MemoryUtil.memRealloc(lightData, neededCapacity);
+			}
+			return;
 		}
-		initialize();
+
+		ByteBuffer newData = spareData != null && spareData.capacity() >= neededCapacity ? spareData : MemoryUtil.memAlloc(neededCapacity);
+		if (newData != spareData && spareData != null) {
+			MemoryUtil.memFree(spareData);
+		}
+
+		long src = MemoryUtil.memAddress(lightData);
+		long dst = MemoryUtil.memAddress(newData);
+		int oldSizeX = oldBox.sizeX();
+		int oldSizeY = oldBox.sizeY();
+		int rowBytes = retained.sizeX() * 2;
+
+		for (int z = retained.getMinZ(); z < retained.getMaxZ(); z++) {
+			for (int y = retained.getMinY(); y < retained.getMaxY(); y++) {
+				int x = retained.getMinX();
+				int from = ((x - oldBox.getMinX()) + oldSizeX * ((y - oldBox.getMinY()) + (z - oldBox.getMinZ()) * oldSizeY)) * 2;
+				int to = worldPosToBufferIndex(x, y, z);
+				MemoryUtil.memCopy(src + from, dst + to, rowBytes);
+			}
+		}
+
+		// keep the old buffer around for the next move
+		spareData = lightData;
+		lightData = newData;
 	}
 
 	@Override
@@ -81,19 +182,21 @@ public class LightVolume implements ImmutableBox, LightListener {
 
 		if (type == LightLayer.BLOCK) copyBlock(vol);
 		else if (type == LightLayer.SKY) copySky(vol);
-		markDirty();
+		markDirty(vol);
 	}
 
 	@Override
-	public void onLightPacket(int chunkX, int chunkZ) {
+	public void onLightUpdate(ImmutableBox changedVolume, boolean block, boolean sky) {
 		if (lightData == null) return;
 
-		GridAlignedBB changedVolume = GridAlignedBB.from(chunkX, chunkZ);
-		if (!changedVolume.intersects(getVolume())) return;
-		changedVolume.intersectAssign(getVolume()); // compute the region contained by us that has dirty lighting data.
+		GridAlignedBB vol = changedVolume.copy();
+		if (!vol.intersects(getVolume())) return;
+		vol.intersectAssign(getVolume());
 
-		copyLight(changedVolume);
-		markDirty();
+		if (block && sky) copyLight(vol);
+		else if (block) copyBlock(vol);
+		else if (sky) copySky(vol);
+		markDirty(vol);
 	}
 
 	/**
@@ -113,6 +216,11 @@ public class LightVolume implements ImmutableBox, LightListener {
 	 * @param worldVolume the region in the world to copy data from.
 	 */
 	public void copyBlock(ImmutableBox worldVolume) {
+		if (readsLightEngine()) {
+			copySections(worldVolume, LightLayer.BLOCK);
+			return;
+		}
+
 		var pos = new BlockPos.MutableBlockPos();
 
 		int xShift = box.getMinX();
@@ -132,6 +240,11 @@ public class LightVolume implements ImmutableBox, LightListener {
 	 * @param worldVolume the region in the world to copy data from.
 	 */
 	public void copySky(ImmutableBox worldVolume) {
+		if (readsLightEngine()) {
+			copySections(worldVolume, LightLayer.SKY);
+			return;
+		}
+
 		var pos = new BlockPos.MutableBlockPos();
 
 		int xShift = box.getMinX();
@@ -151,6 +264,12 @@ public class LightVolume implements ImmutableBox, LightListener {
 	 * @param worldVolume the region in the world to copy data from.
 	 */
 	public void copyLight(ImmutableBox worldVolume) {
+		if (readsLightEngine()) {
+			copySections(worldVolume, LightLayer.BLOCK);
+			copySections(worldVolume, LightLayer.SKY);
+			return;
+		}
+
 		BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
 
 		int xShift = box.getMinX();
@@ -167,18 +286,108 @@ public class LightVolume implements ImmutableBox, LightListener {
 		});
 	}
 
+	/**
+	 * Copy one layer of light from the world into this volume, a section at a time.
+	 * <p>
+	 *     Each section's nibble array is looked up once and copied row by row, instead of asking the level
+	 *     for every block. Sections without a nibble array are left to the light engine block by block, since
+	 *     what they read as depends on the layer and the sections around them.
+	 * </p>
+	 *
+	 * @param worldVolume the region in the world to copy data from. Must be contained in this volume.
+	 */
+	protected void copySections(ImmutableBox worldVolume, LightLayer layer) {
+		if (worldVolume.empty()) return;
+
+		LayerLightEventListener listener = level.getLightEngine()
+				.getLayerListener(layer);
+		int channel = layer == LightLayer.BLOCK ? 0 : 1;
+
+		int minX = worldVolume.getMinX();
+		int minY = worldVolume.getMinY();
+		int minZ = worldVolume.getMinZ();
+		int maxX = worldVolume.getMaxX();
+		int maxY = worldVolume.getMaxY();
+		int maxZ = worldVolume.getMaxZ();
+
+		BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+
+		for (int sectionZ = SectionPos.blockToSectionCoord(minZ); sectionZ <= SectionPos.blockToSectionCoord(maxZ - 1); sectionZ++) {
+			for (int sectionY = SectionPos.blockToSectionCoord(minY); sectionY <= SectionPos.blockToSectionCoord(maxY - 1); sectionY++) {
+				for (int sectionX = SectionPos.blockToSectionCoord(minX); sectionX <= SectionPos.blockToSectionCoord(maxX - 1); sectionX++) {
+					int x0 = Math.max(minX, SectionPos.sectionToBlockCoord(sectionX));
+					int y0 = Math.max(minY, SectionPos.sectionToBlockCoord(sectionY));
+					int z0 = Math.max(minZ, SectionPos.sectionToBlockCoord(sectionZ));
+					int x1 = Math.min(maxX, SectionPos.sectionToBlockCoord(sectionX + 1));
+					int y1 = Math.min(maxY, SectionPos.sectionToBlockCoord(sectionY + 1));
+					int z1 = Math.min(maxZ, SectionPos.sectionToBlockCoord(sectionZ + 1));
+
+					DataLayer data = listener.getDataLayerData(SectionPos.of(sectionX, sectionY, sectionZ));
+
+					if (data == null) {
+						for (int z = z0; z < z1; z++) {
+							for (int y = y0; y < y1; y++) {
+								int i = worldPosToBufferIndex(x0, y, z) + channel;
+								for (int x = x0; x < x1; x++, i += 2) {
+									lightData.put(i, packLight(listener.getLightValue(pos.set(x, y, z))));
+								}
+							}
+						}
+						continue;
+					}
+
+					// an empty layer has no array and reads as all zero. getData would allocate one
+					byte[] nibbles = data.isEmpty() ? null : data.getData();
+
+					for (int z = z0; z < z1; z++) {
+						for (int y = y0; y < y1; y++) {
+							int i = worldPosToBufferIndex(x0, y, z) + channel;
+							// DataLayer is indexed y, z, x, so a row along x is contiguous
+							int nibble = (y & 15) << 8 | (z & 15) << 4 | (x0 & 15);
+							for (int x = x0; x < x1; x++, i += 2, nibble++) {
+								int light = nibbles == null ? 0 : nibbles[nibble >> 1] >> ((nibble & 1) << 2);
+								lightData.put(i, packLight(light));
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if this volume can read light directly from the level's light engine.
+	 */
+	protected boolean readsLightEngine() {
+		return READS_LIGHT_ENGINE.get(level.getClass());
+	}
+
 	public void delete() {
 		MemoryUtil.memFree(lightData);
 		lightData = null;
+		if (spareData != null) {
+			MemoryUtil.memFree(spareData);
+			spareData = null;
+		}
 	}
 
+	/**
+	 * Called when all of this volume may have changed.
+	 */
 	protected void markDirty() {
 		// noop
 	}
 
+	/**
+	 * Called when only the given region of this volume changed.
+	 */
+	protected void markDirty(ImmutableBox changed) {
+		markDirty();
+	}
+
 	protected void writeLight(int x, int y, int z, int block, int sky) {
-		byte b = (byte) ((block & 0xF) << 4);
-		byte s = (byte) ((sky & 0xF) << 4);
+		byte b = packLight(block);
+		byte s = packLight(sky);
 
 		int i = boxPosToBufferIndex(x, y, z);
 		lightData.put(i, b);
@@ -186,15 +395,15 @@ public class LightVolume implements ImmutableBox, LightListener {
 	}
 
 	protected void writeBlock(int x, int y, int z, int block) {
-		byte b = (byte) ((block & 0xF) << 4);
-
-		lightData.put(boxPosToBufferIndex(x, y, z), b);
+		lightData.put(boxPosToBufferIndex(x, y, z), packLight(block));
 	}
 
 	protected void writeSky(int x, int y, int z, int sky) {
-		byte b = (byte) ((sky & 0xF) << 4);
+		lightData.put(boxPosToBufferIndex(x, y, z) + 1, packLight(sky));
+	}
 
-		lightData.put(boxPosToBufferIndex(x, y, z) + 1, b);
+	private static byte packLight(int light) {
+		return (byte) ((light & 0xF) << 4);
 	}
 
 	protected int worldPosToBufferIndex(int x, int y, int z) {
@@ -218,4 +427,28 @@ public class LightVolume implements ImmutableBox, LightListener {
 		return lightData == null;
 	}
 
+	/**
+	 * Custom levels, like contraption or ponder levels, may make up their own brightness instead of asking their
+	 * light engine. Any override of {@link BlockAndTintGetter#getBrightness} below the interface means we have to
+	 * go through it. Matched by signature, since the method name differs at runtime.
+	 */
+	private static boolean overridesGetBrightness(Class<?> type) {
+		if (type == null || type == BlockAndTintGetter.class || type == Object.class) return false;
+
+		for (Method method : type.getDeclaredMethods()) {
+			Class<?>[] params = method.getParameterTypes();
+			if (method.getReturnType() == int.class && params.length == 2 && params[0] == LightLayer.class && params[1] == BlockPos.class
+					&& !Modifier.isAbstract(method.getModifiers()) && !Modifier.isStatic(method.getModifiers())) {
+				return true;
+			}
+		}
+
+		if (overridesGetBrightness(type.getSuperclass())) return true;
+
+		for (Class<?> parent : type.getInterfaces()) {
+			if (overridesGetBrightness(parent)) return true;
+		}
+
+		return false;
+	}
 }
@@ -0,0 +1,226 @@
+package com.jozufozu.flywheel.light;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.core.SectionPos;
+
+/**
+ * Maps section positions to the objects whose boxes contain them.
+ *
+ * <p>
+ *     Each object gets a dense integer id, and each section a bucket of ids. Objects are found by identity and must be
+ *     removed explicitly; nothing here is weakly referenced. Moving an object only touches the sections it enters or
+ *     leaves, so something crossing a section border costs a few bucket edits instead of a full re-insert.
+ * </p>
+ *
+ * <p>
+ *     Boxes are in section coordinates, inclusive on both ends. Not thread safe.
+ * </p>
+ */
+public class SpatialIndex<T> {
+
+	private static final int NO_ID = -1;
+
+	private final Reference2IntOpenHashMap<T> ids = new Reference2IntOpenHashMap<>();
+	/**
+	 * Indexed by id, null for free ids.
+	 */
+	private final List<T> objects = new ArrayList<>();
+	/**
+	 * 6 ints per id: minX, minY, minZ, maxX, maxY, maxZ.
+	 */
+	private final IntArrayList boxes = new IntArrayList();
+	private final IntArrayList freeIds = new IntArrayList();
+
+	private final Long2ObjectOpenHashMap<IntArrayList> buckets = new Long2ObjectOpenHashMap<>();
+	private final List<IntArrayList> spareBuckets = new ArrayList<>();
+
+	public SpatialIndex() {
+		ids.defaultReturnValue(NO_ID);
+	}
+
+	/**
+	 * Add an object, or move it if it's already here.
+	 */
+	public void put(T object, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		int id = ids.getInt(object);
+
+		if (id == NO_ID) {
+			id = allocate(object);
+			setBox(id, minX, minY, minZ, maxX, maxY, maxZ);
+			addToBuckets(id, minX, minY, minZ, maxX, maxY, maxZ);
+			return;
+		}
+
+		int base = id * 6;
+		int oldMinX = boxes.getInt(base);
+		int oldMinY = boxes.getInt(base + 1);
+		int oldMinZ = boxes.getInt(base + 2);
+		int oldMaxX = boxes.getInt(base + 3);
+		int oldMaxY = boxes.getInt(base + 4);
+		int oldMaxZ = boxes.getInt(base + 5);
+
+		if (oldMinX == minX && oldMinY == minY && oldMinZ == minZ && oldMaxX == maxX && oldMaxY == maxY && oldMaxZ == maxZ) {
+			return;
+		}
+
+		// leave the sections only in the old box...
+		for (int x = oldMinX; x <= oldMaxX; x++) {
+			for (int z = oldMinZ; z <= oldMaxZ; z++) {
+				for (int y = oldMinY; y <= oldMaxY; y++) {
+					if (!contains(x, y, z, minX, minY, minZ, maxX, maxY, maxZ)) {
+						removeFromBucket(SectionPos.asLong(x, y, z), id);
+					}
+				}
+			}
+		}
+
+		// ...and enter the ones only in the new box
+		for (int x = minX; x <= maxX; x++) {
+			for (int z = minZ; z <= maxZ; z++) {
+				for (int y = minY; y <= maxY; y++) {
+					if (!contains(x, y, z, oldMinX, oldMinY, oldMinZ, oldMaxX, oldMaxY, oldMaxZ)) {
+						addToBucket(SectionPos.asLong(x, y, z), id);
+					}
+				}
+			}
+		}
+
+		setBox(id, minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/**
+	 * @return {@code true} if the object was here.
+	 */
+	public boolean remove(T object) {
+		int id = ids.removeInt(object);
+		if (id == NO_ID) return false;
+
+		int base = id * 6;
+		for (int x = boxes.getInt(base); x <= boxes.getInt(base + 3); x++) {
+			for (int z = boxes.getInt(base + 2); z <= boxes.getInt(base + 5); z++) {
+				for (int y = boxes.getInt(base + 1); y <= boxes.getInt(base + 4); y++) {
+					removeFromBucket(SectionPos.asLong(x, y, z), id);
+				}
+			}
+		}
+
+		objects.set(id, null);
+		freeIds.add(id);
+		return true;
+	}
+
+	/**
+	 * Remove every object matching the predicate.
+	 */
+	public void removeIf(Predicate<T> predicate) {
+		for (int id = 0; id < objects.size(); id++) {
+			T object = objects.get(id);
+			if (object != null && predicate.test(object)) {
+				remove(object);
+			}
+		}
+	}
+
+	/**
+	 * Call the consumer with every object containing the given section.
+	 * The consumer must not add or remove objects; collect them and do it afterwards instead.
+	 */
+	public void forEachAt(long sectionPos, Consumer<T> consumer) {
+		IntArrayList bucket = buckets.get(sectionPos);
+		if (bucket == null) return;
+
+		for (int i = 0; i < bucket.size(); i++) {
+			consumer.accept(objects.get(bucket.getInt(i)));
+		}
+	}
+
+	public boolean contains(T object) {
+		return ids.containsKey(object);
+	}
+
+	public int size() {
+		return ids.size();
+	}
+
+	public boolean isEmpty() {
+		return ids.isEmpty();
+	}
+
+	public Stream<T> stream() {
+		return ids.keySet()
+				.stream();
+	}
+
+	private int allocate(T object) {
+		int id;
+		if (freeIds.isEmpty()) {
+			id = objects.size();
+			objects.add(object);
+			boxes.size(boxes.size() + 6);
+		} else {
+			id = freeIds.removeInt(freeIds.size() - 1);
+			objects.set(id, object);
+		}
+		ids.put(object, id);
+		return id;
+	}
+
+	private void setBox(int id, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		int base = id * 6;
+		boxes.set(base, minX);
+		boxes.set(base + 1, minY);
+		boxes.set(base + 2, minZ);
+		boxes.set(base + 3, maxX);
+		boxes.set(base + 4, maxY);
+		boxes.set(base + 5, maxZ);
+	}
+
+	private void addToBuckets(int id, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		for (int x = minX; x <= maxX; x++) {
+			for (int z = minZ; z <= maxZ; z++) {
+				for (int y = minY; y <= maxY; y++) {
+					addToBucket(SectionPos.asLong(x, y, z), id);
+				}
+			}
+		}
+	}
+
+	private void addToBucket(long sectionPos, int id) {
+		IntArrayList bucket = buckets.get(sectionPos);
+		if (bucket == null) {
+			bucket = spareBuckets.isEmpty() ? new IntArrayList(4) : spareBuckets.remove(spareBuckets.size() - 1);
+			buckets.put(sectionPos, bucket);
+		}
+		bucket.add(id);
+	}
+
+	private void removeFromBucket(long sectionPos, int id) {
+		IntArrayList bucket = buckets.get(sectionPos);
+		if (bucket == null) return;
+
+		int i = bucket.indexOf(id);
+		if (i < 0) return;
+
+		// order doesn't matter, so fill the hole with the last element
+		int last = bucket.size() - 1;
+		bucket.set(i, bucket.getInt(last));
+		bucket.removeInt(last);
+
+		if (bucket.isEmpty()) {
+			buckets.remove(sectionPos);
+			spareBuckets.add(bucket);
+		}
+	}
+
+	private static boolean contains(int x, int y, int z, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+	}
+}
@@ -0,0 +1,15 @@
+package com.jozufozu.flywheel.mixin;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Invoker;
+
+import net.minecraft.client.renderer.culling.Frustum;
+
+@Mixin(Frustum.class)
+public interface FrustumAccessor {
+	/**
+	 * Test a world space box against the frustum without allocating an {@link net.minecraft.world.phys.AABB}.
+	 */
+	@Invoker("cubeInFrustum")
+	boolean flywheel$cubeInFrustum(double minX, double minY, double minZ, double maxX, double maxY, double maxZ);
+}
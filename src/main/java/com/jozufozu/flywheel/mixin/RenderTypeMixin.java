@@ -2,7 +2,9 @@ package com.jozufozu.flywheel.mixin;
 
 import javax.annotation.Nonnull;
 
+import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.Unique;
 
 import com.jozufozu.flywheel.backend.instancing.DrawBuffer;
@@ -13,6 +15,10 @@ import net.minecraft.client.renderer.RenderType;
 @Mixin(RenderType.class)
 public class RenderTypeMixin implements RenderTypeExtension {
 
+	@Shadow
+	@Final
+	private boolean sortOnUpload;
+
 	@Unique
 	private DrawBuffer flywheel$drawBuffer;
 
@@ -24,4 +30,9 @@ public class RenderTypeMixin implements RenderTypeExtension {
 		}
 		return flywheel$drawBuffer;
 	}
+
+	@Override
+	public boolean flywheel$sortsOnUpload() {
+		return sortOnUpload;
+	}
 }
@@ -5,6 +5,7 @@ import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 
 import com.jozufozu.flywheel.backend.gl.buffer.VecBuffer;
+import com.jozufozu.flywheel.util.MatrixRotate;
 import com.jozufozu.flywheel.util.MatrixWrite;
 import com.mojang.math.Matrix4f;
 
@@ -13,7 +14,7 @@ import net.minecraftforge.api.distmarker.OnlyIn;
 
 @OnlyIn(Dist.CLIENT)
 @Mixin(Matrix4f.class)
-public abstract class Matrix4fMixin implements MatrixWrite {
+public abstract class Matrix4fMixin implements MatrixWrite, MatrixRotate {
 
 	@Shadow protected float m00;
 	@Shadow protected float m01;
@@ -71,4 +72,60 @@ public abstract class Matrix4fMixin implements MatrixWrite {
 		buf.putFloat(m23);
 		buf.putFloat(m33);
 	}
+
+	@Override
+	public void flywheel$rotate(float x, float y, float z, float w) {
+		float xx = 2 * x * x;
+		float yy = 2 * y * y;
+		float zz = 2 * z * z;
+		float xy = x * y;
+		float yz = y * z;
+		float zx = z * x;
+		float xw = x * w;
+		float yw = y * w;
+		float zw = z * w;
+
+		// the rotation matrix, as built by the matrix constructors that take a Quaternion
+		float r00 = 1 - yy - zz;
+		float r11 = 1 - zz - xx;
+		float r22 = 1 - xx - yy;
+		float r10 = 2 * (xy + zw);
+		float r01 = 2 * (xy - zw);
+		float r20 = 2 * (zx - yw);
+		float r02 = 2 * (zx + yw);
+		float r21 = 2 * (yz + xw);
+		float r12 = 2 * (yz - xw);
+
+		float a;
+		float b;
+		float c;
+
+		a = m00;
+		b = m01;
+		c = m02;
+		m00 = a * r00 + b * r10 + c * r20;
+		m01 = a * r01 + b * r11 + c * r21;
+		m02 = a * r02 + b * r12 + c * r22;
+
+		a = m10;
+		b = m11;
+		c = m12;
+		m10 = a * r00 + b * r10 + c * r20;
+		m11 = a * r01 + b * r11 + c * r21;
+		m12 = a * r02 + b * r12 + c * r22;
+
+		a = m20;
+		b = m21;
+		c = m22;
+		m20 = a * r00 + b * r10 + c * r20;
+		m21 = a * r01 + b * r11 + c * r21;
+		m22 = a * r02 + b * r12 + c * r22;
+
+		a = m30;
+		b = m31;
+		c = m32;
+		m30 = a * r00 + b * r10 + c * r20;
+		m31 = a * r01 + b * r11 + c * r21;
+		m32 = a * r02 + b * r12 + c * r22;
+	}
 }
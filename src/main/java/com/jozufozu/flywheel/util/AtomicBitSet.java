@@ -0,0 +1,111 @@
+package com.jozufozu.flywheel.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A fixed capacity bitset whose {@link #set} may be called from many threads at once.
+ * <p>
+ *     Setting a bit beyond the capacity does not grow the set, since that could race with other setters. Instead the
+ *     set remembers that it overflowed, and the single consumer thread is expected to fall back to a full scan and
+ *     {@link #ensureCapacity grow} it while nobody else is writing.
+ * </p>
+ */
+public class AtomicBitSet {
+
+	private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private volatile long[] words;
+	private volatile boolean overflowed;
+
+	public AtomicBitSet() {
+		this(64);
+	}
+
+	public AtomicBitSet(int capacity) {
+		words = new long[wordCount(capacity)];
+	}
+
+	/**
+	 * Set the bit at the given index. Safe to call concurrently.
+	 */
+	public void set(int index) {
+		long[] words = this.words;
+		int word = index >>> 6;
+
+		if (index < 0 || word >= words.length) {
+			overflowed = true;
+			return;
+		}
+
+		WORDS.getAndBitwiseOr(words, word, 1L << index);
+	}
+
+	/**
+	 * @return true if a bit was set outside the capacity since the last call.
+	 */
+	public boolean checkOverflowAndClear() {
+		if (overflowed) {
+			overflowed = false;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Find and clear the next set bit. Must not be called concurrently with itself or {@link #ensureCapacity}.
+	 *
+	 * @param from The index to start searching at.
+	 * @return The index of the bit, or -1 if there are no set bits at or after {@code from}.
+	 */
+	public int nextSetBitAndClear(int from) {
+		long[] words = this.words;
+		int word = from >>> 6;
+
+		if (word >= words.length) return -1;
+
+		long bits = (long) WORDS.getVolatile(words, word) & (-1L << from);
+
+		while (true) {
+			if (bits != 0) {
+				int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+				WORDS.getAndBitwiseAnd(words, word, ~(1L << index));
+				return index;
+			}
+
+			if (++word == words.length) return -1;
+
+			bits = (long) WORDS.getVolatile(words, word);
+		}
+	}
+
+	/**
+	 * Make room for at least {@code capacity} bits, keeping the bits already set.
+	 * Must only be called while no other thread is setting bits.
+	 */
+	public void ensureCapacity(int capacity) {
+		int needed = wordCount(capacity);
+		long[] words = this.words;
+
+		if (needed > words.length) {
+			long[] grown = new long[Math.max(needed, words.length * 2)];
+			System.arraycopy(words, 0, grown, 0, words.length);
+			this.words = grown;
+		}
+	}
+
+	/**
+	 * Clear every bit. Must only be called while no other thread is setting bits.
+	 */
+	public void clear() {
+		long[] words = this.words;
+		for (int i = 0; i < words.length; i++) {
+			words[i] = 0;
+		}
+		overflowed = false;
+	}
+
+	private static int wordCount(int bits) {
+		return Math.max(1, (bits + 63) >>> 6);
+	}
+}
@@ -0,0 +1,125 @@
+package com.jozufozu.flywheel.util;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.Nullable;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * A map that keeps its values packed in a contiguous array.
+ * <p>
+ *     Insertion appends, removal swaps the last value into the removed slot, so both are O(1) and iteration is a plain
+ *     array walk with no per-iteration allocation. Iteration order is not stable across removals.
+ * </p>
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class DenseArrayMap<K, V> {
+
+	private final Object2IntOpenHashMap<K> indices = new Object2IntOpenHashMap<>();
+
+	private Object[] keys;
+	private Object[] values;
+	private int size;
+
+	public DenseArrayMap() {
+		this(16);
+	}
+
+	public DenseArrayMap(int initialCapacity) {
+		indices.defaultReturnValue(-1);
+		keys = new Object[initialCapacity];
+		values = new Object[initialCapacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean containsKey(K key) {
+		return indices.containsKey(key);
+	}
+
+	/**
+	 * Get the value at the given dense index.
+	 *
+	 * @param index A number in {@code [0, size())}.
+	 */
+	@SuppressWarnings("unchecked")
+	public V valueAt(int index) {
+		return (V) values[index];
+	}
+
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public V get(K key) {
+		int index = indices.getInt(key);
+		return index < 0 ? null : (V) values[index];
+	}
+
+	/**
+	 * Associate the key with the value, replacing any previous value in place.
+	 */
+	public void put(K key, V value) {
+		int index = indices.getInt(key);
+
+		if (index >= 0) {
+			values[index] = value;
+			return;
+		}
+
+		if (size == values.length) {
+			int newCapacity = Math.max(16, size * 2);
+			keys = Arrays.copyOf(keys, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+		}
+
+		keys[size] = key;
+		values[size] = value;
+		indices.put(key, size);
+		size++;
+	}
+
+	/**
+	 * Remove the value associated with the key, moving the last value into its slot.
+	 *
+	 * @return The removed value, or null if the key was absent.
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public V remove(K key) {
+		int index = indices.removeInt(key);
+
+		if (index < 0) {
+			return null;
+		}
+
+		V out = (V) values[index];
+		int last = --size;
+
+		if (index != last) {
+			Object lastKey = keys[last];
+			keys[index] = lastKey;
+			values[index] = values[last];
+			indices.put((K) lastKey, index);
+		}
+
+		keys[last] = null;
+		values[last] = null;
+
+		return out;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		indices.clear();
+		size = 0;
+	}
+}
@@ -0,0 +1,18 @@
+package com.jozufozu.flywheel.util;
+
+/**
+ * @see com.jozufozu.flywheel.mixin.matrix.Matrix3fMixin
+ * @see com.jozufozu.flywheel.mixin.matrix.Matrix4fMixin
+ */
+public interface MatrixRotate {
+
+	/**
+	 * Multiply this matrix by the rotation described by the given quaternion, in place.
+	 *
+	 * <p>
+	 *     Equivalent to {@code multiply(new Quaternion(x, y, z, w))}, without allocating the quaternion or the
+	 *     temporary rotation matrix.
+	 * </p>
+	 */
+	void flywheel$rotate(float x, float y, float z, float w);
+}
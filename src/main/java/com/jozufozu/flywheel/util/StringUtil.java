@@ -22,6 +22,16 @@ public class StringUtil {
 				.collect(Collectors.joining(", ")) + ')';
 	}
 
+	public static String formatBytes(long bytes) {
+		if (bytes < 1024) {
+			return bytes + " B";
+		} else if (bytes < 1024 * 1024) {
+			return String.format("%.1f KiB", bytes / 1024f);
+		} else {
+			return String.format("%.1f MiB", bytes / (1024f * 1024f));
+		}
+	}
+
 	public static String trimEnd(String value) {
 		int len = value.length();
 		int st = 0;
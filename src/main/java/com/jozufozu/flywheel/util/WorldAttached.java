@@ -77,6 +77,14 @@ public class WorldAttached<T> {
 		return get(world);
 	}
 
+	/**
+	 * Call a function on all entries, keeping them.
+	 */
+	public void forEach(Consumer<T> consumer) {
+		attached.values()
+				.forEach(consumer);
+	}
+
 	/**
 	 * Deletes all entries after calling a function on them.
 	 *